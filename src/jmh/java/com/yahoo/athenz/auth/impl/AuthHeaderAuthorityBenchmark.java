@@ -0,0 +1,78 @@
+package com.yahoo.athenz.auth.impl;
+
+import com.yahoo.athenz.auth.Principal;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AuthHeaderAuthority.authenticate with a growing number of
+ * trusted cidrs. Half of the requests come from trusted addresses and
+ * the other half are rejected so both paths are covered.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthHeaderAuthorityBenchmark {
+
+    private static final int ADDRESS_COUNT = 1024;
+
+    @Param({"1", "100", "1000"})
+    int cidrCount;
+
+    AuthHeaderAuthority authority;
+    String[] addresses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+
+        // trusted cidrs are 10.x.y.0/24 blocks so for every request
+        // we have to walk a fully populated trie
+
+        StringJoiner cidrs = new StringJoiner(",");
+        for (int i = 0; i < cidrCount; i++) {
+            cidrs.add("10." + (i >> 8) + "." + (i & 0xff) + ".0/24");
+        }
+        System.setProperty(AuthHeaderAuthority.ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR, cidrs.toString());
+        try {
+            authority = new AuthHeaderAuthority();
+            authority.initialize();
+        } finally {
+            System.clearProperty(AuthHeaderAuthority.ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR);
+        }
+
+        Random random = new Random(1);
+        addresses = new String[ADDRESS_COUNT];
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            final int block = random.nextInt(cidrCount);
+            final String prefix = (i & 1) == 0 ? "10." : "172.";
+            addresses[i] = prefix + (block >> 8) + "." + (block & 0xff) + "." + random.nextInt(256);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int index;
+
+        int next() {
+            return index++ & (ADDRESS_COUNT - 1);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Principal authenticate(Cursor cursor) {
+        return authority.authenticate("athenz-admin", addresses[cursor.next()], "GET", null);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Principal authenticateContended(Cursor cursor) {
+        return authority.authenticate("athenz-admin", addresses[cursor.next()], "GET", null);
+    }
+}
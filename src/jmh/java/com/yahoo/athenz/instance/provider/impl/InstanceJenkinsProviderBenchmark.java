@@ -0,0 +1,137 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import com.yahoo.athenz.instance.provider.InstanceConfirmation;
+import com.yahoo.athenz.instance.provider.InstanceProvider;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Instant;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures InstanceJenkinsProvider.confirmInstance for a valid request
+ * with ID tokens signed by either an EC or an RSA key.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstanceJenkinsProviderBenchmark {
+
+    @Param({"EC", "RSA"})
+    String keyType;
+
+    InstanceJenkinsProvider provider;
+    KeyPair keyPair;
+    SignatureAlgorithm keyAlg;
+    Map<String, String> instanceAttributes;
+    String idToken;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+
+        if ("EC".equals(keyType)) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            keyPair = generator.generateKeyPair();
+            keyAlg = SignatureAlgorithm.ES256;
+        } else {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            keyPair = generator.generateKeyPair();
+            keyAlg = SignatureAlgorithm.RS256;
+        }
+
+        // configure the jwks uri so we don't try to fetch the openid configuration
+
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_AUDIENCE, "https://athenz.io");
+        try {
+            provider = new InstanceJenkinsProvider();
+            provider.initialize("sys.auth.jenkins",
+                    "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        } finally {
+            System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI);
+            System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_AUDIENCE);
+        }
+        provider.signingKeyResolver.addPublicKey(keyType, keyPair.getPublic());
+        provider.setAuthorizer((action, resource, principal, trustDomain) -> true);
+
+        instanceAttributes = new HashMap<>();
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_ID, "athenz:sia:0001");
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_SAN_URI,
+                "spiffe://ns/default/sports/api,athenz://instanceid/sys.auth.jenkins/athenz:sia:0001");
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_SAN_DNS, "api.sports.jenkins.athenz.io");
+    }
+
+    @Setup(Level.Iteration)
+    public void generateIdToken() {
+
+        // the token must be issued within the boot time offset
+        // so we generate a new one for every iteration
+
+        final long now = System.currentTimeMillis() / 1000;
+        idToken = Jwts.builder()
+                .setExpiration(Date.from(Instant.ofEpochSecond(now + 3600)))
+                .setIssuedAt(Date.from(Instant.ofEpochSecond(now)))
+                .setIssuer(InstanceJenkinsProvider.JENKINS_ISSUER)
+                .setAudience("https://athenz.io")
+                .setSubject("https://jenkins.io/job/example-project")
+                .setHeaderParam("kid", keyType)
+                .signWith(keyPair.getPrivate(), keyAlg)
+                .compact();
+    }
+
+    InstanceConfirmation newConfirmation() {
+        InstanceConfirmation confirmation = new InstanceConfirmation();
+        confirmation.setDomain("sports");
+        confirmation.setService("api");
+        confirmation.setProvider("sys.auth.jenkins");
+        confirmation.setAttestationData(idToken);
+        confirmation.setAttributes(instanceAttributes);
+        return confirmation;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public InstanceConfirmation confirmInstance() {
+        return provider.confirmInstance(newConfirmation());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public InstanceConfirmation confirmInstanceContended() {
+        return provider.confirmInstance(newConfirmation());
+    }
+
+    // token parsing with the shared parser compared to building a new
+    // parser for every request. run with -prof gc to compare the
+    // allocation rate per operation
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Jws<Claims> parseTokenSharedParser() {
+        return provider.tokenParser.parseClaimsJws(idToken);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Jws<Claims> parseTokenPerRequestParser() {
+        return Jwts.parserBuilder()
+                .setSigningKeyResolver(provider.signingKeyRouter)
+                .setAllowedClockSkewSeconds(InstanceJenkinsProvider.JENKINS_ALLOWED_CLOCK_SKEW_SECONDS)
+                .build()
+                .parseClaimsJws(idToken);
+    }
+}
@@ -0,0 +1,114 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import com.yahoo.athenz.instance.provider.InstanceConfirmation;
+import com.yahoo.athenz.instance.provider.InstanceProvider;
+import com.yahoo.athenz.zts.InstanceRegisterToken;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the register token generation and validation along with the
+ * csr public key comparison of InstanceWorkloadIPTokenProvider.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstanceWorkloadIPTokenProviderBenchmark {
+
+    InstanceWorkloadIPTokenProvider provider;
+    InstanceConfirmation tokenConfirmation;
+    String registerToken;
+    String athenzPublicKey;
+    String csrPublicKey;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+
+        provider = new InstanceWorkloadIPTokenProvider();
+        provider.initialize("sys.auth.zts", "class://com.yahoo.athenz.instance.provider.impl.InstanceWorkloadIPTokenProvider",
+                null, null);
+        provider.setPrivateKey(keyPair.getPrivate(), "k0", SignatureAlgorithm.ES256);
+        provider.signingKeyResolver.addPublicKey("k0", keyPair.getPublic());
+
+        tokenConfirmation = new InstanceConfirmation();
+        tokenConfirmation.setDomain("sports");
+        tokenConfirmation.setService("api");
+        tokenConfirmation.setProvider("sys.auth.zts");
+        Map<String, String> attrs = new HashMap<>();
+        attrs.put(InstanceProvider.ZTS_INSTANCE_ID, "id001");
+        attrs.put(InstanceProvider.ZTS_REQUEST_PRINCIPAL, "sports.api");
+        attrs.put(InstanceWorkloadIPTokenProvider.ZTS_INSTANCE_WORKLOAD_IP, "10.1.1.1");
+        tokenConfirmation.setAttributes(attrs);
+        registerToken = provider.getInstanceRegisterToken(tokenConfirmation).getAttestationData();
+
+        // the same rsa public key as registered in athenz and as
+        // extracted from the csr with different line breaks
+
+        KeyPairGenerator rsaGenerator = KeyPairGenerator.getInstance("RSA");
+        rsaGenerator.initialize(2048);
+        PublicKey rsaPublicKey = rsaGenerator.generateKeyPair().getPublic();
+        athenzPublicKey = toPem(rsaPublicKey, "\n");
+        csrPublicKey = toPem(rsaPublicKey, "\r\n");
+    }
+
+    static String toPem(final PublicKey publicKey, final String lineSeparator) {
+        final String encoded = Base64.getMimeEncoder(64, lineSeparator.getBytes())
+                .encodeToString(publicKey.getEncoded());
+        return "-----BEGIN PUBLIC KEY-----" + lineSeparator + encoded + lineSeparator
+                + "-----END PUBLIC KEY-----" + lineSeparator;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public InstanceRegisterToken getInstanceRegisterToken() {
+        return provider.getInstanceRegisterToken(tokenConfirmation);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public InstanceRegisterToken getInstanceRegisterTokenContended() {
+        return provider.getInstanceRegisterToken(tokenConfirmation);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean validateRegisterToken() {
+        return provider.validateRegisterToken(registerToken, "sports", "api", "id001", "10.1.1.1",
+                false, new StringBuilder(256));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean validateRegisterTokenContended() {
+        return provider.validateRegisterToken(registerToken, "sports", "api", "id001", "10.1.1.1",
+                false, new StringBuilder(256));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean validatePublicKeys() {
+        return provider.validatePublicKeys(athenzPublicKey, csrPublicKey);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean validatePublicKeysContended() {
+        return provider.validatePublicKeys(athenzPublicKey, csrPublicKey);
+    }
+}
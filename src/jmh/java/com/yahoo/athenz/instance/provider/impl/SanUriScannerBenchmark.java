@@ -0,0 +1,74 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the SanUriScanner checks with the split based checks that the
+ * instance providers used before for requests with 1 to 20 sanURI values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SanUriScannerBenchmark {
+
+    private static final String[] PREFIXES = { "spiffe://", "athenz://instanceid/" };
+    private static final String HOSTNAME_PREFIX = "athenz://hostname/";
+    private static final String HOSTNAME = "host1.athenz.cloud";
+
+    @Param({"1", "5", "20"})
+    int uriCount;
+
+    String sanUri;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < uriCount; i++) {
+            if (i > 0) {
+                value.append(',');
+            }
+            if (i % 2 == 0) {
+                value.append("spiffe://athenz.cloud/ns/default/sa/sports.api").append(i);
+            } else {
+                value.append("athenz://instanceid/sys.auth.jenkins/id").append(i);
+            }
+        }
+        sanUri = value.toString();
+    }
+
+    @Benchmark
+    public boolean scanSupportedUris() {
+        return SanUriScanner.findUnsupportedUri(sanUri, PREFIXES) == -1;
+    }
+
+    @Benchmark
+    public boolean splitSupportedUris() {
+        for (String uri : sanUri.split(",")) {
+            if (!uri.startsWith(PREFIXES[0]) && !uri.startsWith(PREFIXES[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Benchmark
+    public boolean scanHostname() {
+        return SanUriScanner.findHostnameMismatch(sanUri, HOSTNAME_PREFIX, HOSTNAME) == -1;
+    }
+
+    @Benchmark
+    public boolean splitHostname() {
+        for (String uri : sanUri.split(",")) {
+            int idx = uri.indexOf(HOSTNAME_PREFIX);
+            if (idx != -1 && !uri.substring(idx + HOSTNAME_PREFIX.length()).equals(HOSTNAME)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,13 +1,16 @@
 package com.yahoo.athenz.auth.impl;
 
+import java.nio.file.Paths;
 import java.util.HashSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.security.web.util.matcher.IpAddressMatcher;
 
 import com.yahoo.athenz.auth.Authority;
 import com.yahoo.athenz.auth.Principal;
+import com.yahoo.athenz.auth.impl.util.CidrTrie;
+import com.yahoo.athenz.auth.impl.util.FileChangeWatcher;
+import com.yahoo.athenz.auth.impl.util.IpAddressLiteral;
 
 public class AuthHeaderAuthority implements Authority {
 
@@ -18,15 +21,133 @@ public class AuthHeaderAuthority implements Authority {
     
     public static final String AUTH_HEADER_TRUSTED_CIDR_DEFAULT = "127.0.0.1/32";
     public static final String ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR = "athenz.auth.principal.auth.header.trusted_cidr";
-    
-    protected HashSet<String> trusted_cidrs = new HashSet<>(); 
+
+    public static final String ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR_FILE = "athenz.auth.principal.auth.header.trusted_cidr_file";
+    public static final String ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR_RELOAD_INTERVAL = "athenz.auth.principal.auth.header.trusted_cidr_reload_interval";
+    public static final String AUTH_HEADER_TRUSTED_CIDR_RELOAD_INTERVAL_DEFAULT = "30";
+
+    public static final String ATHENZ_PROP_AUTH_HEADER_UNTRUSTED_LOG_INTERVAL = "athenz.auth.principal.auth.header.untrusted_log_interval";
+    public static final String AUTH_HEADER_UNTRUSTED_LOG_INTERVAL_DEFAULT = "60";
+
+    // per-thread scratch space for the parsed remote address so the
+    // trust check does not allocate on the request path
+
+    private static final ThreadLocal<long[]> ADDRESS_BUFFER = ThreadLocal.withInitial(() -> new long[2]);
+
+    // the compiled trie is immutable and replaced as a whole when the
+    // trusted cidr file changes so request threads never take a lock
+    // and never see a partially built set
+
+    protected volatile CidrTrie trustedCidrs = CidrTrie.EMPTY;
+    protected FileChangeWatcher trustedCidrsWatcher = null;
+
+    /**
+     * @deprecated the configured cidrs are compiled into trustedCidrs which
+     * is used for all checks. the set is still populated with the configured
+     * values for subclasses that read it, but changes made to it are not
+     * used. subclasses that need to change the trusted cidrs should set
+     * trustedCidrs to the result of compileTrustedCidrs instead. the set
+     * is replaced, never modified, when the trusted cidr file is reloaded
+     */
+    @Deprecated
+    protected volatile HashSet<String> trusted_cidrs = new HashSet<>();
+
+    // rejected requests from untrusted addresses are summarized per
+    // source prefix instead of logging every single request
+
+    UntrustedAddressLog untrustedAddressLog = new UntrustedAddressLog(LOG,
+            Long.parseLong(AUTH_HEADER_UNTRUSTED_LOG_INTERVAL_DEFAULT));
 
     @Override
     public void initialize() {
+
+        // compile the trusted cidrs once so that each request only
+        // needs a single walk over the address bits
+
         String[] trusted_cidrs_csv = System.getProperty(ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR, AUTH_HEADER_TRUSTED_CIDR_DEFAULT).split(",");
-        for (String cidr : trusted_cidrs_csv) {
-        	trusted_cidrs.add(cidr.trim());
+        trustedCidrs = compileTrustedCidrs(trusted_cidrs_csv);
+        trusted_cidrs = toCidrSet(trusted_cidrs_csv);
+
+        // if configured, the trusted cidr file takes precedence over the
+        // system property and is reloaded whenever it changes
+
+        final String trustedCidrFile = System.getProperty(ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR_FILE);
+        if (trustedCidrFile != null && !trustedCidrFile.isEmpty()) {
+            final long reloadInterval = Long.parseLong(System.getProperty(ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR_RELOAD_INTERVAL,
+                    AUTH_HEADER_TRUSTED_CIDR_RELOAD_INTERVAL_DEFAULT));
+            trustedCidrsWatcher = new FileChangeWatcher(Paths.get(trustedCidrFile), reloadInterval,
+                    this::reloadTrustedCidrs);
+            trustedCidrsWatcher.checkForChange();
+            trustedCidrsWatcher.start();
+        }
+
+        // the summary is flushed in the background so the last interval
+        // of a burst is reported even if no other rejection follows
+
+        untrustedAddressLog.close();
+        untrustedAddressLog = new UntrustedAddressLog(LOG, Long.parseLong(
+                System.getProperty(ATHENZ_PROP_AUTH_HEADER_UNTRUSTED_LOG_INTERVAL, AUTH_HEADER_UNTRUSTED_LOG_INTERVAL_DEFAULT)));
+        untrustedAddressLog.start();
+    }
+
+    CidrTrie compileTrustedCidrs(String[] cidrs) {
+        CidrTrie.Builder builder = new CidrTrie.Builder();
+        for (String cidr : cidrs) {
+            final String value = cidr.trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            try {
+                builder.add(value);
+            } catch (IllegalArgumentException e) {
+                LOG.error("AuthHeaderAuthority: ignoring invalid trusted cidr={} message={}", value, e.getMessage());
+            }
+        }
+        return builder.build();
+    }
+
+    private static HashSet<String> toCidrSet(String[] cidrs) {
+        HashSet<String> cidrSet = new HashSet<>();
+        for (String cidr : cidrs) {
+            final String value = cidr.trim();
+            if (!value.isEmpty()) {
+                cidrSet.add(value);
+            }
+        }
+        return cidrSet;
+    }
+
+    /**
+     * rebuild the trusted cidr set from the given file contents. the file
+     * lists cidr blocks separated by commas or new lines and lines starting
+     * with # are ignored. the new set is built completely before it's
+     * published so in-flight requests keep using the previous one
+     * @param contents trusted cidr file contents
+     */
+    void reloadTrustedCidrs(final String contents) {
+
+        StringBuilder cidrs = new StringBuilder(contents.length());
+        for (String line : contents.split("\\R")) {
+            final String value = line.trim();
+            if (!value.startsWith("#")) {
+                cidrs.append(value).append(',');
+            }
+        }
+
+        // an empty set would reject every request so we assume the file
+        // is being rewritten and keep our current set instead
+
+        final String[] values = cidrs.toString().split("[,\\s]+");
+        CidrTrie newTrustedCidrs = compileTrustedCidrs(values);
+        if (newTrustedCidrs.size() == 0) {
+            LOG.error("AuthHeaderAuthority: no valid trusted cidrs in file, keeping current set of {} cidrs",
+                    trustedCidrs.size());
+            return;
         }
+
+        trustedCidrs = newTrustedCidrs;
+        trusted_cidrs = toCidrSet(values);
+        LOG.info("AuthHeaderAuthority: reloaded {} trusted cidrs", newTrustedCidrs.size());
     }
 
     @Override
@@ -54,31 +175,41 @@ public class AuthHeaderAuthority implements Authority {
         return true;
     }
 
+    /**
+     * authenticate the user from the trusted proxy. the error message is
+     * only generated if the caller provides the errMsg buffer so the
+     * rejection path does not allocate when the caller does not need it
+     */
     @Override
     public Principal authenticate(String username, String remoteAddr, String httpMethod, StringBuilder errMsg) {
-        errMsg = errMsg == null ? new StringBuilder(512) : errMsg;
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("AuthHeaderAuthority.authenticate: valid user={}", username);
         }
 
-        if (!checkIpAddressMatch(remoteAddr)) {
-            errMsg.append("AuthHeaderAuthority:authenticate: remote ip address is not trusted: ip=")
-                .append(remoteAddr);
-            LOG.error(errMsg.toString());
+        final long[] address = ADDRESS_BUFFER.get();
+        final int family = IpAddressLiteral.parse(remoteAddr, address);
+        if (!checkIpAddressMatch(family, address)) {
+            untrustedAddressLog.record(family, address[0], address[1]);
+            if (errMsg != null) {
+                errMsg.append("AuthHeaderAuthority:authenticate: remote ip address is not trusted: ip=")
+                    .append(remoteAddr);
+            }
             return null;
         }
 
         long issueTime = 0;
         SimplePrincipal princ = getSimplePrincipal(username.toLowerCase(), username, issueTime);
         if (princ == null) {
-            errMsg.append("AuthHeaderAuthority:authenticate: failed to create principal: user=")
-                .append(username);
-            LOG.error(errMsg.toString());
+            if (errMsg != null) {
+                errMsg.append("AuthHeaderAuthority:authenticate: failed to create principal: user=")
+                    .append(username);
+            }
+            LOG.error("AuthHeaderAuthority:authenticate: failed to create principal: user={}", username);
             return null;
         }
         princ.setUnsignedCreds(username);
-        
+
         return princ;
     }
 
@@ -88,16 +219,22 @@ public class AuthHeaderAuthority implements Authority {
     }
 
     boolean checkIpAddressMatch(String remoteAddr) {
-        for (String cidr : trusted_cidrs) {
-        	try {
-                IpAddressMatcher ipAddressMatcher = new IpAddressMatcher(cidr);
-                if (ipAddressMatcher.matches(remoteAddr)) {
-                    return true;
-                }
-			} catch (IllegalArgumentException e) {
-	            LOG.warn("AuthHeaderAuthority.checkIpAddressMatch: invalid remoteAddr={} message={}", remoteAddr, e.getMessage());
-			}
+
+        // the remote address must be an ip literal. we never resolve
+        // names here since that would block the request thread
+
+        final long[] address = ADDRESS_BUFFER.get();
+        return checkIpAddressMatch(IpAddressLiteral.parse(remoteAddr, address), address);
+    }
+
+    boolean checkIpAddressMatch(int family, final long[] address) {
+        switch (family) {
+            case IpAddressLiteral.IPV4:
+                return trustedCidrs.matchesIpv4(address[1]);
+            case IpAddressLiteral.IPV6:
+                return trustedCidrs.matchesIpv6(address[0], address[1]);
+            default:
+                return false;
         }
-		return false;
     }
 }
@@ -0,0 +1,224 @@
+package com.yahoo.athenz.auth.impl;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+
+import com.yahoo.athenz.auth.impl.util.IpAddressLiteral;
+
+/**
+ * Aggregates rejections of untrusted remote addresses into periodic summary
+ * log lines with counts per source prefix (/24 for IPv4, /48 for IPv6)
+ * instead of logging every rejected request. Counting goes into a fixed
+ * size open addressing table so recording a rejection does not allocate.
+ * The first rejection after a quiet period is logged right away, while a
+ * burst of rejections produces at most one line per interval. Once started,
+ * a background daemon thread flushes the summary when the interval expires
+ * so the end of a burst is reported even if no other rejection follows.
+ */
+final class UntrustedAddressLog implements Closeable {
+
+    private static final int SLOTS = 256;
+    private static final int MASK = SLOTS - 1;
+    private static final int MAX_PROBES = 8;
+
+    private static final long IPV4_TAG = 4L << 56;
+    private static final long IPV6_TAG = 6L << 56;
+    private static final long PREFIX_MASK = (1L << 56) - 1;
+
+    private final Logger logger;
+    private final long intervalMillis;
+    private final AtomicReference<Window> window = new AtomicReference<>(new Window());
+    private final AtomicLong nextFlushTime = new AtomicLong(0);
+    private volatile long lastFlushTime = System.currentTimeMillis();
+    private ScheduledExecutorService scheduler;
+
+    UntrustedAddressLog(final Logger logger, long intervalSeconds) {
+        this.logger = logger;
+        this.intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+    }
+
+    /**
+     * start checking every second on a daemon thread if the summary is
+     * due. without a positive interval every rejection is logged right
+     * away so there is nothing to flush in the background
+     */
+    synchronized void start() {
+        if (scheduler != null || intervalMillis <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "untrusted-address-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> flush(System.currentTimeMillis()), 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * record a rejected request from an untrusted address
+     * @param family IpAddressLiteral family of the parsed address
+     * @param hi high 64 bits of the parsed address
+     * @param lo low 64 bits of the parsed address
+     */
+    void record(int family, long hi, long lo) {
+
+        // register as a writer of the current window. if the window was
+        // swapped in the meantime we retry with the new one, otherwise
+        // the flush waits for us before it reads the counts
+
+        Window current;
+        while (true) {
+            current = window.get();
+            current.writers.incrementAndGet();
+            if (current == window.get()) {
+                break;
+            }
+            current.writers.decrementAndGet();
+        }
+        try {
+            current.record(family, hi, lo);
+        } finally {
+            current.writers.decrementAndGet();
+        }
+        flush(System.currentTimeMillis());
+    }
+
+    /**
+     * log the summary of all recorded rejections if the interval since
+     * our last summary has passed. only one thread logs each summary
+     * @param now current time in milliseconds
+     * @return true if a summary line was logged
+     */
+    boolean flush(long now) {
+
+        final long next = nextFlushTime.get();
+        if (now < next || !nextFlushTime.compareAndSet(next, now + intervalMillis)) {
+            return false;
+        }
+
+        final long windowSeconds = TimeUnit.MILLISECONDS.toSeconds(now - lastFlushTime);
+        lastFlushTime = now;
+
+        // there is no need to replace an idle window. a rejection that
+        // marks it dirty after our check is reported in the next summary
+
+        if (!window.get().dirty) {
+            return false;
+        }
+
+        // swap in a new window and wait for any writer still updating
+        // the old one so every count is reported exactly once
+
+        final Window old = window.getAndSet(new Window());
+        while (old.writers.get() != 0) {
+            Thread.onSpinWait();
+        }
+
+        long total = 0;
+        StringBuilder summary = new StringBuilder(256);
+        for (int slot = 0; slot < SLOTS; slot++) {
+            final long count = old.counts.get(slot);
+            if (count == 0) {
+                continue;
+            }
+            total += count;
+            appendPrefix(summary, old.prefixes.get(slot)).append('=').append(count).append(' ');
+        }
+        final long invalid = old.invalidCount.sum();
+        if (invalid != 0) {
+            total += invalid;
+            summary.append("invalid=").append(invalid).append(' ');
+        }
+        final long other = old.otherCount.sum();
+        if (other != 0) {
+            total += other;
+            summary.append("other=").append(other).append(' ');
+        }
+
+        if (total == 0) {
+            return false;
+        }
+
+        logger.error("AuthHeaderAuthority:authenticate: rejected {} requests from untrusted remote addresses in the last {}s: {}",
+                total, windowSeconds, summary.toString().trim());
+        return true;
+    }
+
+    static StringBuilder appendPrefix(StringBuilder buffer, long prefix) {
+        final long value = prefix & PREFIX_MASK;
+        if ((prefix & ~PREFIX_MASK) == IPV4_TAG) {
+            buffer.append((value >>> 16) & 0xff).append('.')
+                    .append((value >>> 8) & 0xff).append('.')
+                    .append(value & 0xff).append(".0/24");
+        } else {
+            buffer.append(Long.toHexString((value >>> 32) & 0xffff)).append(':')
+                    .append(Long.toHexString((value >>> 16) & 0xffff)).append(':')
+                    .append(Long.toHexString(value & 0xffff)).append("::/48");
+        }
+        return buffer;
+    }
+
+    /**
+     * counts of a single summary interval. a window is never reset, it's
+     * replaced as a whole once its summary has been logged
+     */
+    private static final class Window {
+
+        final AtomicLongArray prefixes = new AtomicLongArray(SLOTS);
+        final AtomicLongArray counts = new AtomicLongArray(SLOTS);
+        final LongAdder invalidCount = new LongAdder();
+        final LongAdder otherCount = new LongAdder();
+        final AtomicInteger writers = new AtomicInteger();
+        volatile boolean dirty = false;
+
+        void record(int family, long hi, long lo) {
+            if (!dirty) {
+                dirty = true;
+            }
+            switch (family) {
+                case IpAddressLiteral.IPV4:
+                    increment(IPV4_TAG | (lo >>> 8));
+                    break;
+                case IpAddressLiteral.IPV6:
+                    increment(IPV6_TAG | (hi >>> 16));
+                    break;
+                default:
+                    invalidCount.increment();
+                    break;
+            }
+        }
+
+        private void increment(final long prefix) {
+            final int start = (int) ((prefix * 0x9E3779B97F4A7C15L) >>> 56) & MASK;
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                final int slot = (start + probe) & MASK;
+                long current = prefixes.get(slot);
+                if (current == 0 && prefixes.compareAndSet(slot, 0, prefix)) {
+                    current = prefix;
+                }
+                if (current == prefix || prefixes.get(slot) == prefix) {
+                    counts.incrementAndGet(slot);
+                    return;
+                }
+            }
+            otherCount.increment();
+        }
+    }
+}
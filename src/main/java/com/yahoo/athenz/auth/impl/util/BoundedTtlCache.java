@@ -0,0 +1,136 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Size-bounded cache with per-entry expiry built on a ConcurrentHashMap.
+ * Lookups are a single hash lookup plus an expiry check. Expired entries
+ * are removed lazily on access and when the cache reaches its capacity.
+ * If the cache is still full after purging the expired entries, a batch of
+ * arbitrary entries is evicted. The cache is meant for values that can
+ * always be recomputed, so approximate eviction is acceptable.
+ */
+public class BoundedTtlCache<K, V> {
+
+    private final ConcurrentHashMap<K, Entry<V>> entries;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    /**
+     * @param maxEntries maximum number of entries in the cache
+     * @param ttlMillis default time to live for entries in milliseconds
+     */
+    public BoundedTtlCache(int maxEntries, long ttlMillis) {
+        this(maxEntries, ttlMillis, System::currentTimeMillis);
+    }
+
+    /**
+     * @param maxEntries maximum number of entries in the cache
+     * @param ttlMillis default time to live for entries in milliseconds
+     * @param clock source of the current time in milliseconds
+     */
+    public BoundedTtlCache(int maxEntries, long ttlMillis, LongSupplier clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("cache size must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.entries = new ConcurrentHashMap<>(Math.min(maxEntries, 1024));
+    }
+
+    /**
+     * @param key cache key
+     * @return the cached value or null if not present or expired
+     */
+    public V get(final K key) {
+        final Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiryTime <= clock.getAsLong()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * add the value to the cache with the default time to live
+     * @param key cache key
+     * @param value value to cache
+     */
+    public void put(final K key, final V value) {
+        put(key, value, clock.getAsLong() + ttlMillis);
+    }
+
+    /**
+     * add the value to the cache until the given expiry time
+     * @param key cache key
+     * @param value value to cache
+     * @param expiryTime expiry time in milliseconds since epoch
+     */
+    public void put(final K key, final V value, long expiryTime) {
+        if (entries.size() >= maxEntries && !entries.containsKey(key)) {
+            evict();
+        }
+        entries.put(key, new Entry<>(value, expiryTime));
+    }
+
+    public void invalidate(final K key) {
+        entries.remove(key);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    void evict() {
+
+        // first drop all expired entries and if that's not enough
+        // to get below our limit then evict an extra 1/16th of the
+        // entries so we don't have to repeat this on every put
+
+        final long now = clock.getAsLong();
+        entries.values().removeIf(entry -> entry.expiryTime <= now);
+
+        int excess = entries.size() - maxEntries + 1;
+        if (excess <= 0) {
+            return;
+        }
+        excess += maxEntries / 16;
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (excess > 0 && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            excess -= 1;
+        }
+    }
+
+    private static final class Entry<V> {
+
+        final V value;
+        final long expiryTime;
+
+        Entry(V value, long expiryTime) {
+            this.value = value;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
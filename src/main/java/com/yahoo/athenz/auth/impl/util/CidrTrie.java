@@ -0,0 +1,212 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * Immutable binary radix trie of CIDR blocks with separate IPv4 and IPv6
+ * roots. The trie is compiled once from the configured CIDR literals and
+ * each lookup is a single walk over the bits of the parsed address.
+ */
+public final class CidrTrie {
+
+    public static final CidrTrie EMPTY = new Builder().build();
+
+    private static final int IPV4_BITS = 32;
+    private static final int IPV6_BITS = 128;
+
+    private final Table ipv4;
+    private final Table ipv6;
+    private final int size;
+
+    private CidrTrie(Table ipv4, Table ipv6, int size) {
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+        this.size = size;
+    }
+
+    /**
+     * @return number of cidr blocks compiled into the trie
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * checks if the given IPv4 address is included in any of the cidr blocks
+     * @param address 32-bit address as returned by IpAddressLiteral
+     * @return true if the address matches one of the cidr blocks
+     */
+    public boolean matchesIpv4(final long address) {
+        return ipv4.matches(0, address, IPV4_BITS);
+    }
+
+    /**
+     * checks if the given IPv6 address is included in any of the cidr blocks
+     * @param hi high 64 bits of the address
+     * @param lo low 64 bits of the address
+     * @return true if the address matches one of the cidr blocks
+     */
+    public boolean matchesIpv6(final long hi, final long lo) {
+        return ipv6.matches(hi, lo, IPV6_BITS);
+    }
+
+    /**
+     * checks if the given address literal is included in any of the cidr
+     * blocks. the value is never resolved so host names never match
+     * @param address IPv4 or IPv6 address literal
+     * @return true if the address matches one of the cidr blocks
+     */
+    public boolean matches(final String address) {
+        final long[] parsed = new long[2];
+        switch (IpAddressLiteral.parse(address, parsed)) {
+            case IpAddressLiteral.IPV4:
+                return matchesIpv4(parsed[1]);
+            case IpAddressLiteral.IPV6:
+                return matchesIpv6(parsed[0], parsed[1]);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * returns the bit at the given depth, counting from the most
+     * significant bit, of an address with the given width
+     */
+    private static int bitAt(final long hi, final long lo, final int width, final int depth) {
+        final int position = width - 1 - depth;
+        return (int) ((position >= 64 ? hi >>> (position - 64) : lo >>> position) & 1);
+    }
+
+    /**
+     * flat array representation of one address family. children[2n] and
+     * children[2n+1] are the zero/one branches of node n, 0 means no child
+     * since the root can never be a child of another node
+     */
+    private static final class Table {
+
+        final int[] children;
+        final boolean[] terminal;
+
+        Table(int[] children, boolean[] terminal) {
+            this.children = children;
+            this.terminal = terminal;
+        }
+
+        boolean matches(final long hi, final long lo, final int width) {
+            int node = 0;
+            for (int depth = 0; ; depth++) {
+                if (terminal[node]) {
+                    return true;
+                }
+                if (depth == width) {
+                    return false;
+                }
+                node = children[(node << 1) | bitAt(hi, lo, width, depth)];
+                if (node == 0) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private static final class TableBuilder {
+
+        int[] children = new int[64];
+        boolean[] terminal = new boolean[32];
+        int count = 1;
+
+        void insert(final long hi, final long lo, final int width, final int prefixLength) {
+            int node = 0;
+            for (int depth = 0; depth < prefixLength; depth++) {
+
+                // if a shorter prefix already covers this block
+                // there is no need to extend the trie any further
+
+                if (terminal[node]) {
+                    return;
+                }
+                final int slot = (node << 1) | bitAt(hi, lo, width, depth);
+                int child = children[slot];
+                if (child == 0) {
+                    child = allocate();
+                    children[slot] = child;
+                }
+                node = child;
+            }
+
+            // this block covers everything below it so we can
+            // drop any longer prefixes previously inserted
+
+            terminal[node] = true;
+            children[node << 1] = 0;
+            children[(node << 1) | 1] = 0;
+        }
+
+        private int allocate() {
+            if (count == terminal.length) {
+                terminal = Arrays.copyOf(terminal, count * 2);
+                children = Arrays.copyOf(children, count * 4);
+            }
+            return count++;
+        }
+
+        Table build() {
+            return new Table(Arrays.copyOf(children, count * 2), Arrays.copyOf(terminal, count));
+        }
+    }
+
+    public static final class Builder {
+
+        private final TableBuilder ipv4 = new TableBuilder();
+        private final TableBuilder ipv6 = new TableBuilder();
+        private int size = 0;
+
+        /**
+         * adds the given cidr block to the trie. if the value does not
+         * include a prefix length then it's treated as a single host
+         * @param cidr cidr block e.g. 10.0.0.0/8 or 2001:db8::/32
+         * @return this builder
+         * @throws IllegalArgumentException if the cidr block is not valid
+         */
+        public Builder add(final String cidr) {
+
+            if (cidr == null || cidr.isEmpty()) {
+                throw new IllegalArgumentException("empty cidr value");
+            }
+
+            final int idx = cidr.indexOf('/');
+            final String addressPart = idx == -1 ? cidr : cidr.substring(0, idx);
+
+            final long[] address = new long[2];
+            final int family = IpAddressLiteral.parse(addressPart, address);
+            if (family == IpAddressLiteral.INVALID) {
+                throw new IllegalArgumentException("invalid cidr address: " + cidr);
+            }
+
+            final int maxBits = family == IpAddressLiteral.IPV4 ? IPV4_BITS : IPV6_BITS;
+            int prefixLength = maxBits;
+            if (idx != -1) {
+                try {
+                    prefixLength = Integer.parseInt(cidr.substring(idx + 1));
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("invalid cidr prefix length: " + cidr, ex);
+                }
+                if (prefixLength < 0 || prefixLength > maxBits) {
+                    throw new IllegalArgumentException("invalid cidr prefix length: " + cidr);
+                }
+            }
+
+            if (family == IpAddressLiteral.IPV4) {
+                ipv4.insert(address[0], address[1], IPV4_BITS, prefixLength);
+            } else {
+                ipv6.insert(address[0], address[1], IPV6_BITS, prefixLength);
+            }
+            size += 1;
+            return this;
+        }
+
+        public CidrTrie build() {
+            return new CidrTrie(ipv4.build(), ipv6.build(), size);
+        }
+    }
+}
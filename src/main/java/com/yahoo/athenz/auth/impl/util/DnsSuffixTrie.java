@@ -0,0 +1,243 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable trie of dns suffixes keyed by their labels in reverse order,
+ * e.g. athenz.cloud is stored as cloud -&gt; athenz. The trie is compiled
+ * once from the configured suffixes and each lookup is a single walk over
+ * the labels of the hostname from right to left, so the cost depends on
+ * the length of the hostname and not on the number of suffixes. Labels
+ * are compared case-insensitively and lookups do not allocate.
+ */
+public final class DnsSuffixTrie {
+
+    public static final DnsSuffixTrie EMPTY = new Builder().build();
+
+    private final Node root;
+    private final int size;
+
+    private DnsSuffixTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * @return number of suffixes compiled into the trie
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * checks if the hostname is a subdomain of any of the suffixes. the
+     * hostname must have at least one label in front of the suffix
+     * @param hostname dns hostname
+     * @return true if the hostname ends with one of the suffixes
+     */
+    public boolean matches(final String hostname) {
+        return longestMatch(hostname) != null;
+    }
+
+    /**
+     * returns the longest suffix the hostname is a subdomain of
+     * @param hostname dns hostname
+     * @return the matching suffix or null if there is no match
+     */
+    public String longestMatch(final String hostname) {
+        String match = null;
+        Node node = root;
+        int end = hostname == null ? 0 : hostname.length();
+        while (end > 0 && node != null) {
+            final int start = hostname.lastIndexOf('.', end - 1) + 1;
+
+            // a suffix only matches if there are more labels in front
+
+            if (start <= 1) {
+                break;
+            }
+            node = node.child(hostname, start, end);
+            if (node != null && node.suffix != null) {
+                match = node.suffix;
+            }
+            end = start - 1;
+        }
+        return match;
+    }
+
+    /**
+     * returns the set of all suffixes the hostname is a subdomain of,
+     * e.g. both athenz.cloud and zts.athenz.cloud for api.zts.athenz.cloud.
+     * the returned set is shared and must not be modified
+     * @param hostname dns hostname
+     * @return the matching suffixes or an empty set if there is no match
+     */
+    public Set<String> allMatches(final String hostname) {
+        return hostname == null ? Collections.emptySet() : allMatches(hostname, 0, hostname.length());
+    }
+
+    /**
+     * same as allMatches(String) for the hostname at the given range of
+     * the value so callers can check lists of names without splitting them
+     * @param value string containing the hostname
+     * @param offset start index of the hostname
+     * @param limit end index (exclusive) of the hostname
+     * @return the matching suffixes or an empty set if there is no match
+     */
+    public Set<String> allMatches(final String value, final int offset, final int limit) {
+        Set<String> matches = Collections.emptySet();
+        Node node = root;
+        int end = limit;
+        while (end > offset && node != null) {
+            final int start = value.lastIndexOf('.', end - 1) + 1;
+            if (start <= offset + 1) {
+                break;
+            }
+            node = node.child(value, start, end);
+            if (node != null && node.suffixes != null) {
+                matches = node.suffixes;
+            }
+            end = start - 1;
+        }
+        return matches;
+    }
+
+    /**
+     * compute the hash code of a label the same way as the lower case
+     * label string would compute it
+     */
+    static int labelHash(final String value, final int start, final int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(value.charAt(i));
+        }
+        return hash;
+    }
+
+    private static final class Node {
+
+        final String[] labels;
+        final int[] hashes;
+        final Node[] children;
+        final int mask;
+
+        // the suffix ending at this node along with all the shorter
+        // suffixes on the path to the root, or null if no suffix ends here
+
+        final String suffix;
+        final Set<String> suffixes;
+
+        Node(String[] labels, int[] hashes, Node[] children, String suffix, Set<String> suffixes) {
+            this.labels = labels;
+            this.hashes = hashes;
+            this.children = children;
+            this.mask = labels.length - 1;
+            this.suffix = suffix;
+            this.suffixes = suffixes;
+        }
+
+        Node child(final String hostname, final int start, final int end) {
+            if (labels.length == 0) {
+                return null;
+            }
+            final int hash = labelHash(hostname, start, end);
+            final int length = end - start;
+            int index = (hash ^ (hash >>> 16)) & mask;
+            while (labels[index] != null) {
+                if (hashes[index] == hash && labels[index].length() == length
+                        && labels[index].regionMatches(true, 0, hostname, start, length)) {
+                    return children[index];
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+    }
+
+    public static final class Builder {
+
+        private final NodeBuilder root = new NodeBuilder();
+        private int size = 0;
+
+        /**
+         * adds the given dns suffix to the trie. a leading dot is ignored
+         * @param suffix dns suffix e.g. athenz.cloud
+         * @return this builder
+         * @throws IllegalArgumentException if the suffix is not valid
+         */
+        public Builder add(final String suffix) {
+
+            if (suffix == null) {
+                throw new IllegalArgumentException("empty dns suffix");
+            }
+            final String value = suffix.startsWith(".") ? suffix.substring(1) : suffix;
+            if (value.isEmpty() || value.endsWith(".") || value.contains("..")) {
+                throw new IllegalArgumentException("invalid dns suffix: " + suffix);
+            }
+
+            NodeBuilder node = root;
+            int end = value.length();
+            while (end > 0) {
+                final int start = value.lastIndexOf('.', end - 1) + 1;
+                final String label = value.substring(start, end).toLowerCase(Locale.ROOT);
+                node = node.children.computeIfAbsent(label, key -> new NodeBuilder());
+                end = start - 1;
+            }
+            if (node.suffix == null) {
+                node.suffix = suffix;
+                size += 1;
+            }
+            return this;
+        }
+
+        public DnsSuffixTrie build() {
+            return new DnsSuffixTrie(root.build(Collections.emptyList()), size);
+        }
+    }
+
+    private static final class NodeBuilder {
+
+        final LinkedHashMap<String, NodeBuilder> children = new LinkedHashMap<>();
+        String suffix;
+
+        Node build(final List<String> parentSuffixes) {
+
+            List<String> suffixes = parentSuffixes;
+            if (suffix != null) {
+                suffixes = new ArrayList<>(parentSuffixes);
+                suffixes.add(suffix);
+            }
+
+            // open addressing table with a load factor of at most 50%
+
+            int capacity = 0;
+            if (!children.isEmpty()) {
+                capacity = Integer.highestOneBit(children.size()) << 2;
+            }
+            String[] labels = new String[capacity];
+            int[] hashes = new int[capacity];
+            Node[] nodes = new Node[capacity];
+            for (Map.Entry<String, NodeBuilder> entry : children.entrySet()) {
+                final String label = entry.getKey();
+                final int hash = label.hashCode();
+                int index = (hash ^ (hash >>> 16)) & (capacity - 1);
+                while (labels[index] != null) {
+                    index = (index + 1) & (capacity - 1);
+                }
+                labels[index] = label;
+                hashes[index] = hash;
+                nodes[index] = entry.getValue().build(suffixes);
+            }
+            final Set<String> suffixSet = suffix == null ? null
+                    : Collections.unmodifiableSet(new LinkedHashSet<>(suffixes));
+            return new Node(labels, hashes, nodes, suffix, suffixSet);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Polls a file for changes on a background daemon thread and hands the
+ * new contents to the listener. Polling on the modification time and size
+ * is used instead of a WatchService since config files are frequently
+ * replaced through symlink swaps (e.g. kubernetes config maps) which a
+ * WatchService on the parent directory does not reliably report.
+ * The listener is always invoked from a single thread so it can rebuild
+ * its state without any locking and publish it with a volatile write.
+ */
+public class FileChangeWatcher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileChangeWatcher.class);
+
+    private final Path path;
+    private final long intervalSeconds;
+    private final Consumer<String> listener;
+    private ScheduledExecutorService scheduler;
+    private long lastModified = -1;
+    private long lastSize = -1;
+
+    public FileChangeWatcher(final Path path, long intervalSeconds, final Consumer<String> listener) {
+        this.path = path;
+        this.intervalSeconds = intervalSeconds;
+        this.listener = listener;
+    }
+
+    /**
+     * start polling the file on the configured interval. if the interval
+     * is not positive the file is only loaded by explicit checkForChange calls
+     */
+    public synchronized void start() {
+        if (scheduler != null || intervalSeconds <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-watcher-" + path.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::checkForChange, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * check if the file has been modified since the last check and if so
+     * read its contents and pass them to the listener
+     * @return true if the listener was invoked with new contents
+     */
+    public synchronized boolean checkForChange() {
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            final long modified = attrs.lastModifiedTime().toMillis();
+            final long size = attrs.size();
+            if (modified == lastModified && size == lastSize) {
+                return false;
+            }
+            final String contents = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+            lastModified = modified;
+            lastSize = size;
+            listener.accept(contents);
+            return true;
+        } catch (IOException ex) {
+            LOG.error("Unable to read watched file {}: {}", path, ex.getMessage());
+        } catch (RuntimeException ex) {
+            LOG.error("Unable to process watched file {}", path, ex);
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
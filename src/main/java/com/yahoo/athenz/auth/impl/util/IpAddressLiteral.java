@@ -0,0 +1,270 @@
+package com.yahoo.athenz.auth.impl.util;
+
+/**
+ * Strict parser for IPv4 and IPv6 address literals. Unlike
+ * InetAddress.getByName, the parser never attempts to resolve names,
+ * does not allocate, and gives up on the first invalid character so
+ * the work done for any input is bounded by {@link #MAX_LENGTH}.
+ *
+ * The parsed address is stored in a caller supplied long[2]: out[0]
+ * holds the high and out[1] the low 64 bits of an IPv6 address. For
+ * IPv4 addresses out[0] is 0 and out[1] holds the 32-bit address.
+ * IPv4-mapped IPv6 addresses (::ffff:a.b.c.d) are reported as IPv4 to
+ * match the behavior of InetAddress. IPv6 literals may be enclosed in
+ * brackets and carry a %zone suffix, both of which are ignored.
+ */
+public final class IpAddressLiteral {
+
+    public static final int INVALID = 0;
+    public static final int IPV4 = 4;
+    public static final int IPV6 = 6;
+
+    // longest valid literal: ffff:ffff:ffff:ffff:ffff:ffff:255.255.255.255
+
+    public static final int MAX_LENGTH = 45;
+
+    // longest accepted input: a bracketed literal followed by a % and
+    // a zone id of at most MAX_ZONE_LENGTH characters
+
+    public static final int MAX_ZONE_LENGTH = 32;
+    public static final int MAX_INPUT_LENGTH = MAX_LENGTH + MAX_ZONE_LENGTH + 3;
+
+    private IpAddressLiteral() {
+    }
+
+    /**
+     * parse the given address literal
+     * @param value address literal
+     * @param out array of at least two elements for the parsed address
+     * @return IPV4 or IPV6 if the value is a valid literal, INVALID otherwise
+     */
+    public static int parse(final String value, final long[] out) {
+
+        if (value == null) {
+            return INVALID;
+        }
+
+        final int length = value.length();
+        if (length == 0 || length > MAX_INPUT_LENGTH) {
+            return INVALID;
+        }
+
+        // servlet containers report IPv6 remote addresses in brackets and
+        // link-local addresses may carry a %zone suffix. neither is part
+        // of the address so we only strip them from IPv6 literals
+
+        int start = 0;
+        int end = length;
+        boolean bracketed = false;
+        if (value.charAt(0) == '[') {
+            if (length < 2 || value.charAt(length - 1) != ']') {
+                return INVALID;
+            }
+            bracketed = true;
+            start = 1;
+            end = length - 1;
+        }
+
+        boolean zoned = false;
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) == '%') {
+                if (i == end - 1 || end - i - 1 > MAX_ZONE_LENGTH) {
+                    return INVALID;
+                }
+                zoned = true;
+                end = i;
+                break;
+            }
+        }
+
+        if (end - start == 0 || end - start > MAX_LENGTH) {
+            return INVALID;
+        }
+
+        final int colon = value.indexOf(':', start);
+        if (colon == -1 || colon >= end) {
+            if (bracketed || zoned) {
+                return INVALID;
+            }
+            final long address = parseIpv4(value, start, end);
+            if (address < 0) {
+                return INVALID;
+            }
+            out[0] = 0;
+            out[1] = address;
+            return IPV4;
+        }
+
+        return parseIpv6(value, start, end, out);
+    }
+
+    /**
+     * parse a dotted-quad IPv4 literal within the given range. leading
+     * zeros are rejected since other parsers treat them as octal
+     * @param value string containing the literal
+     * @param start index of the first character
+     * @param end index after the last character
+     * @return 32-bit address as a non-negative long or -1 if invalid
+     */
+    static long parseIpv4(final String value, int start, int end) {
+
+        long address = 0;
+        int octets = 0;
+        int digits = 0;
+        int octet = 0;
+
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || octets == 3) {
+                    return -1;
+                }
+                address = (address << 8) | octet;
+                octets += 1;
+                digits = 0;
+                octet = 0;
+            } else if (c >= '0' && c <= '9') {
+                if (digits > 0 && octet == 0) {
+                    return -1;
+                }
+                octet = octet * 10 + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+                digits += 1;
+            } else {
+                return -1;
+            }
+        }
+
+        if (digits == 0 || octets != 3) {
+            return -1;
+        }
+        return (address << 8) | octet;
+    }
+
+    private static int parseIpv6(final String value, final int start, final int end, final long[] out) {
+
+        // groups before the :: are placed directly at their index while
+        // groups after it are shifted into a right-aligned tail value
+
+        long headHi = 0;
+        long headLo = 0;
+        long tailHi = 0;
+        long tailLo = 0;
+        int headGroups = 0;
+        int tailGroups = 0;
+        boolean compressed = false;
+
+        int i = start;
+        if (value.charAt(start) == ':') {
+            if (end - start < 2 || value.charAt(start + 1) != ':') {
+                return INVALID;
+            }
+            compressed = true;
+            i = start + 2;
+        }
+
+        while (i < end) {
+
+            final int groupStart = i;
+            int group = 0;
+            int digits = 0;
+            while (i < end) {
+                final int hex = hexValue(value.charAt(i));
+                if (hex < 0) {
+                    break;
+                }
+                if (++digits > 4) {
+                    return INVALID;
+                }
+                group = (group << 4) | hex;
+                i += 1;
+            }
+
+            // an embedded IPv4 address takes the place of the last two groups
+
+            int groupCount = 1;
+            long groups = group;
+            if (i < end && value.charAt(i) == '.') {
+                groups = parseIpv4(value, groupStart, end);
+                if (groups < 0) {
+                    return INVALID;
+                }
+                groupCount = 2;
+                i = end;
+            } else if (digits == 0) {
+                return INVALID;
+            }
+
+            for (int g = groupCount - 1; g >= 0; g--) {
+                final long groupValue = (groups >>> (16 * g)) & 0xffff;
+                if (compressed) {
+                    tailHi = (tailHi << 16) | (tailLo >>> 48);
+                    tailLo = (tailLo << 16) | groupValue;
+                    tailGroups += 1;
+                } else {
+                    if (headGroups < 4) {
+                        headHi |= groupValue << (48 - 16 * headGroups);
+                    } else if (headGroups < 8) {
+                        headLo |= groupValue << (48 - 16 * (headGroups - 4));
+                    }
+                    headGroups += 1;
+                }
+            }
+            if (headGroups + tailGroups > 8) {
+                return INVALID;
+            }
+
+            if (i == end) {
+                break;
+            }
+            if (value.charAt(i) != ':') {
+                return INVALID;
+            }
+            i += 1;
+            if (i == end) {
+                return INVALID;
+            }
+            if (value.charAt(i) == ':') {
+                if (compressed) {
+                    return INVALID;
+                }
+                compressed = true;
+                i += 1;
+            }
+        }
+
+        // the :: must stand for at least one group of zeros and
+        // without it we must have all 8 groups
+
+        if (compressed ? headGroups + tailGroups > 7 : headGroups != 8) {
+            return INVALID;
+        }
+
+        final long hi = headHi | tailHi;
+        final long lo = headLo | tailLo;
+        if (hi == 0 && (lo >>> 32) == 0xffffL) {
+            out[0] = 0;
+            out[1] = lo & 0xffffffffL;
+            return IPV4;
+        }
+
+        out[0] = hi;
+        out[1] = lo;
+        return IPV6;
+    }
+
+    private static int hexValue(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
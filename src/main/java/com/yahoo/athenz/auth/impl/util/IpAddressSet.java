@@ -0,0 +1,186 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import java.util.Collection;
+
+/**
+ * Immutable set of parsed IP addresses. IPv4 addresses are kept as ints
+ * and IPv6 addresses as pairs of longs in separate open addressing tables,
+ * so the same address matches regardless of its textual form, e.g. the
+ * compressed, expanded or zero padded forms of an IPv6 address, and a
+ * lookup with an already parsed address does not allocate.
+ */
+public final class IpAddressSet {
+
+    public static final IpAddressSet EMPTY = of(null);
+
+    private final int[] ipv4;
+    private final boolean[] ipv4Used;
+    private final long[] ipv6Hi;
+    private final long[] ipv6Lo;
+    private final boolean[] ipv6Used;
+    private final int size;
+
+    private IpAddressSet(int ipv4Count, int ipv6Count) {
+        ipv4 = new int[capacity(ipv4Count)];
+        ipv4Used = new boolean[ipv4.length];
+        ipv6Hi = new long[capacity(ipv6Count)];
+        ipv6Lo = new long[ipv6Hi.length];
+        ipv6Used = new boolean[ipv6Hi.length];
+        size = 0;
+    }
+
+    private IpAddressSet(IpAddressSet set, int size) {
+        ipv4 = set.ipv4;
+        ipv4Used = set.ipv4Used;
+        ipv6Hi = set.ipv6Hi;
+        ipv6Lo = set.ipv6Lo;
+        ipv6Used = set.ipv6Used;
+        this.size = size;
+    }
+
+    /**
+     * builds the set from the given address literals. values that are
+     * not valid IPv4 or IPv6 literals are ignored
+     * @param addresses collection of address literals
+     * @return set of the parsed addresses
+     */
+    public static IpAddressSet of(final Collection<String> addresses) {
+
+        if (addresses == null || addresses.isEmpty()) {
+            return new IpAddressSet(0, 0);
+        }
+
+        // size both tables for the worst case so we only parse once
+
+        IpAddressSet set = new IpAddressSet(addresses.size(), addresses.size());
+        final long[] parsed = new long[2];
+        int size = 0;
+        for (String address : addresses) {
+            final int family = IpAddressLiteral.parse(address, parsed);
+            if (family == IpAddressLiteral.IPV4 && set.addIpv4((int) parsed[1])) {
+                size += 1;
+            } else if (family == IpAddressLiteral.IPV6 && set.addIpv6(parsed[0], parsed[1])) {
+                size += 1;
+            }
+        }
+        return new IpAddressSet(set, size);
+    }
+
+    /**
+     * @return number of unique addresses in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * checks if the given IPv4 address is in the set
+     * @param address 32-bit address
+     * @return true if the address is in the set
+     */
+    public boolean containsIpv4(final int address) {
+        final int mask = ipv4.length - 1;
+        int index = ipv4Index(address, mask);
+        while (ipv4Used[index]) {
+            if (ipv4[index] == address) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * checks if the given IPv6 address is in the set
+     * @param hi high 64 bits of the address
+     * @param lo low 64 bits of the address
+     * @return true if the address is in the set
+     */
+    public boolean containsIpv6(final long hi, final long lo) {
+        final int mask = ipv6Hi.length - 1;
+        int index = ipv6Index(hi, lo, mask);
+        while (ipv6Used[index]) {
+            if (ipv6Hi[index] == hi && ipv6Lo[index] == lo) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * checks if an address already parsed with IpAddressLiteral is in the set
+     * @param family address family returned by IpAddressLiteral.parse
+     * @param parsed parsed address as returned by IpAddressLiteral.parse
+     * @return true if the address is in the set
+     */
+    public boolean contains(final int family, final long[] parsed) {
+        switch (family) {
+            case IpAddressLiteral.IPV4:
+                return containsIpv4((int) parsed[1]);
+            case IpAddressLiteral.IPV6:
+                return containsIpv6(parsed[0], parsed[1]);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * checks if the given address literal is in the set. the value is
+     * never resolved so host names never match
+     * @param address IPv4 or IPv6 address literal
+     * @return true if the address is in the set
+     */
+    public boolean contains(final String address) {
+        final long[] parsed = new long[2];
+        return contains(IpAddressLiteral.parse(address, parsed), parsed);
+    }
+
+    private boolean addIpv4(final int address) {
+        final int mask = ipv4.length - 1;
+        int index = ipv4Index(address, mask);
+        while (ipv4Used[index]) {
+            if (ipv4[index] == address) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        ipv4[index] = address;
+        ipv4Used[index] = true;
+        return true;
+    }
+
+    private boolean addIpv6(final long hi, final long lo) {
+        final int mask = ipv6Hi.length - 1;
+        int index = ipv6Index(hi, lo, mask);
+        while (ipv6Used[index]) {
+            if (ipv6Hi[index] == hi && ipv6Lo[index] == lo) {
+                return false;
+            }
+            index = (index + 1) & mask;
+        }
+        ipv6Hi[index] = hi;
+        ipv6Lo[index] = lo;
+        ipv6Used[index] = true;
+        return true;
+    }
+
+    /**
+     * table capacity with a load factor of at most 50% and at least one
+     * free slot so lookups in an empty table terminate
+     */
+    private static int capacity(final int count) {
+        return count == 0 ? 1 : Integer.highestOneBit(count) << 2;
+    }
+
+    private static int ipv4Index(final int address, final int mask) {
+        final int hash = address * 0x9e3779b9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private static int ipv6Index(final long hi, final long lo, final int mask) {
+        final long hash = (hi * 0x9e3779b97f4a7c15L) ^ lo;
+        final int folded = (int) (hash ^ (hash >>> 32));
+        return (folded ^ (folded >>> 16)) & mask;
+    }
+}
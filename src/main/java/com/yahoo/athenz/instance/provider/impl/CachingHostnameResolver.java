@@ -0,0 +1,186 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import com.yahoo.athenz.auth.impl.util.BoundedTtlCache;
+import com.yahoo.athenz.common.server.dns.HostnameResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Caching decorator for the hostname resolver injected by the server.
+ * Successful lookups are cached for the positive ttl and lookups without
+ * any addresses for the shorter negative ttl. Concurrent lookups for a
+ * name that is not cached are coalesced into a single lookup. Names that
+ * are still requested once 80% of their ttl has passed are refreshed in
+ * the background so hot names never block on the resolver. A failed
+ * background refresh keeps the current addresses until they expire. The
+ * names are cached in a BoundedTtlCache so their number is bounded.
+ */
+final class CachingHostnameResolver implements HostnameResolver, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachingHostnameResolver.class);
+
+    private static final double REFRESH_AHEAD_FRACTION = 0.8;
+
+    private final HostnameResolver resolver;
+    private final long positiveTtlMillis;
+    private final long negativeTtlMillis;
+    private final Executor refreshExecutor;
+    private final ExecutorService ownedExecutor;
+    private final LongSupplier clock;
+    private final BoundedTtlCache<String, Entry> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<Set<String>>> lookups = new ConcurrentHashMap<>();
+
+    /**
+     * @param resolver hostname resolver to cache the results of
+     * @param maxEntries maximum number of cached names
+     * @param positiveTtlMillis how long the addresses of a name are cached
+     * @param negativeTtlMillis how long lookups without addresses are cached
+     */
+    CachingHostnameResolver(HostnameResolver resolver, int maxEntries, long positiveTtlMillis,
+            long negativeTtlMillis) {
+        this(resolver, maxEntries, positiveTtlMillis, negativeTtlMillis, null, System::currentTimeMillis);
+    }
+
+    CachingHostnameResolver(HostnameResolver resolver, int maxEntries, long positiveTtlMillis,
+            long negativeTtlMillis, Executor refreshExecutor, LongSupplier clock) {
+        this.entries = new BoundedTtlCache<>(maxEntries, positiveTtlMillis, clock);
+        this.resolver = resolver;
+        this.positiveTtlMillis = positiveTtlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.clock = clock;
+        if (refreshExecutor == null) {
+            ownedExecutor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "dns-refresh");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.refreshExecutor = ownedExecutor;
+        } else {
+            ownedExecutor = null;
+            this.refreshExecutor = refreshExecutor;
+        }
+    }
+
+    @Override
+    public boolean isValidHostname(String hostname) {
+        return resolver.isValidHostname(hostname);
+    }
+
+    @Override
+    public Set<String> getAllByName(String hostname) {
+
+        if (hostname == null) {
+            return resolver.getAllByName(null);
+        }
+
+        final Entry entry = entries.get(hostname);
+        if (entry != null) {
+            if (entry.refreshTime <= clock.getAsLong() && entry.refreshing.compareAndSet(false, true)) {
+                refresh(hostname, entry);
+            }
+            return entry.addresses;
+        }
+        return lookup(hostname);
+    }
+
+    private Set<String> lookup(final String hostname) {
+
+        // only one thread looks up the name while all other threads
+        // requesting the same name wait for its result
+
+        final CompletableFuture<Set<String>> future = new CompletableFuture<>();
+        final CompletableFuture<Set<String>> pending = lookups.putIfAbsent(hostname, future);
+        if (pending != null) {
+            return pending.join();
+        }
+        try {
+            final Set<String> addresses = resolve(hostname);
+            cache(hostname, addresses);
+            future.complete(addresses);
+            return addresses;
+        } finally {
+
+            // make sure waiting threads are released even if the
+            // lookup failed unexpectedly
+
+            lookups.remove(hostname, future);
+            future.complete(Collections.emptySet());
+        }
+    }
+
+    private void refresh(final String hostname, final Entry entry) {
+        try {
+            refreshExecutor.execute(() -> {
+                final Set<String> addresses = resolve(hostname);
+                if (addresses.isEmpty()) {
+                    LOGGER.info("Background lookup for {} returned no addresses, keeping cached entry", hostname);
+                    return;
+                }
+                cache(hostname, addresses);
+            });
+        } catch (RejectedExecutionException ex) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    private Set<String> resolve(final String hostname) {
+        Set<String> addresses;
+        try {
+            addresses = resolver.getAllByName(hostname);
+        } catch (RuntimeException ex) {
+            LOGGER.error("Unable to resolve hostname {}: {}", hostname, ex.getMessage());
+            addresses = null;
+        }
+        if (addresses == null || addresses.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(new HashSet<>(addresses));
+    }
+
+    private void cache(final String hostname, final Set<String> addresses) {
+
+        final long now = clock.getAsLong();
+        if (addresses.isEmpty()) {
+            entries.put(hostname, new Entry(addresses, Long.MAX_VALUE), now + negativeTtlMillis);
+        } else {
+            entries.put(hostname, new Entry(addresses, now + (long) (positiveTtlMillis * REFRESH_AHEAD_FRACTION)),
+                    now + positiveTtlMillis);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdownNow();
+        }
+    }
+
+    private static final class Entry {
+
+        final Set<String> addresses;
+        final long refreshTime;
+        final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        Entry(Set<String> addresses, long refreshTime) {
+            this.addresses = addresses;
+            this.refreshTime = refreshTime;
+        }
+    }
+}
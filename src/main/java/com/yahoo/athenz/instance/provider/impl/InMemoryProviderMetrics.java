@@ -0,0 +1,76 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default in-memory provider metrics. Rejections are counted with one
+ * LongAdder per reason and latencies go into one LatencyHistogram per
+ * stage, so recording from many request threads does not contend on a
+ * shared counter. The values are cumulative since startup and are
+ * exported with snapshot() for the server to scrape.
+ */
+public class InMemoryProviderMetrics implements ProviderMetrics {
+
+    private final LongAdder[] rejections;
+    private final LatencyHistogram[] latencies;
+
+    public InMemoryProviderMetrics() {
+        rejections = new LongAdder[ProviderRejectionException.Reason.values().length];
+        for (int i = 0; i < rejections.length; i++) {
+            rejections[i] = new LongAdder();
+        }
+        latencies = new LatencyHistogram[Stage.values().length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void recordLatency(Stage stage, long nanos) {
+        latencies[stage.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordRejection(ProviderRejectionException.Reason reason) {
+        rejections[reason.ordinal()].increment();
+    }
+
+    /**
+     * export the current metric values with keys in the form of
+     * rejections.&lt;reason&gt; for the rejection counts and
+     * latency.&lt;stage&gt;.{count,avg_us,p50_us,p90_us,p99_us,max_us}
+     * for the stage latencies in microseconds. only stages with recorded
+     * values are included
+     * @return sorted map of metric names and values
+     */
+    public Map<String, Long> snapshot() {
+
+        Map<String, Long> metrics = new TreeMap<>();
+        for (ProviderRejectionException.Reason reason : ProviderRejectionException.Reason.values()) {
+            metrics.put("rejections." + reason.name().toLowerCase(Locale.ROOT),
+                    rejections[reason.ordinal()].sum());
+        }
+        for (Stage stage : Stage.values()) {
+            final LatencyHistogram.Snapshot snapshot = latencies[stage.ordinal()].snapshot();
+            if (snapshot.count == 0) {
+                continue;
+            }
+            final String prefix = "latency." + stage.name().toLowerCase(Locale.ROOT) + ".";
+            metrics.put(prefix + "count", snapshot.count);
+            metrics.put(prefix + "avg_us", toMicros(snapshot.sum / snapshot.count));
+            metrics.put(prefix + "p50_us", toMicros(snapshot.valueAtPercentile(50)));
+            metrics.put(prefix + "p90_us", toMicros(snapshot.valueAtPercentile(90)));
+            metrics.put(prefix + "p99_us", toMicros(snapshot.valueAtPercentile(99)));
+            metrics.put(prefix + "max_us", toMicros(snapshot.max));
+        }
+        return metrics;
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
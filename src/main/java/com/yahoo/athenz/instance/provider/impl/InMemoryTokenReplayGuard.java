@@ -0,0 +1,199 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * In-memory token replay guard. The tokens are spread over a fixed number
+ * of lock-striped segments, each holding at most its share of the
+ * configured maximum number of entries. When a segment is full new tokens
+ * are rejected (fail closed) rather than evicting tokens that are still
+ * valid. Expired tokens are removed by a two level timing wheel per
+ * segment with one second ticks: 64 slots for the next minute and 64 slots
+ * of 64 seconds for the following hour. Tokens valid for longer are kept
+ * in the last slot and moved down again as time advances. The wheel is
+ * advanced by the requests themselves, so there are no background tasks
+ * and every check is O(1) amortized.
+ */
+public class InMemoryTokenReplayGuard implements TokenReplayGuard {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryTokenReplayGuard.class);
+
+    private static final int SEGMENTS = 64;
+    private static final long TICK_MILLIS = 1000;
+
+    static final int WHEEL_BITS = 6;
+    static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final Segment[] segments;
+    private final LongSupplier clock;
+
+    /**
+     * @param maxEntries maximum number of tokens tracked at the same time
+     */
+    public InMemoryTokenReplayGuard(int maxEntries) {
+        this(maxEntries, System::currentTimeMillis);
+    }
+
+    InMemoryTokenReplayGuard(int maxEntries, LongSupplier clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("replay guard size must be positive: " + maxEntries);
+        }
+        this.clock = clock;
+        final int segmentEntries = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        final long startTick = clock.getAsLong() / TICK_MILLIS;
+        segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentEntries, startTick);
+        }
+    }
+
+    @Override
+    public boolean recordToken(final String tokenId, long expiryTime) {
+
+        final long now = clock.getAsLong();
+        if (expiryTime <= now) {
+            return false;
+        }
+
+        // spread the hash code bits so ids with common suffixes
+        // still end up in different segments
+
+        final int hash = tokenId.hashCode();
+        final Segment segment = segments[(hash ^ (hash >>> 16)) & (SEGMENTS - 1)];
+        final long expiryTick = (expiryTime + TICK_MILLIS - 1) / TICK_MILLIS;
+        synchronized (segment) {
+            segment.advance(now / TICK_MILLIS);
+            if (segment.entries.containsKey(tokenId)) {
+                return false;
+            }
+            if (segment.entries.size() >= segment.maxEntries) {
+                LOGGER.error("Token replay guard segment is full with {} entries, rejecting token",
+                        segment.maxEntries);
+                return false;
+            }
+            segment.entries.put(tokenId, expiryTick);
+            segment.schedule(tokenId, expiryTick);
+            return true;
+        }
+    }
+
+    /**
+     * @return number of tokens currently tracked including expired
+     *      tokens that have not been removed by the wheel yet
+     */
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    static final class Segment {
+
+        final int maxEntries;
+        final HashMap<String, Long> entries = new HashMap<>();
+        final ArrayList<ArrayList<String>> seconds = new ArrayList<>(WHEEL_SIZE);
+        final ArrayList<ArrayList<String>> minutes = new ArrayList<>(WHEEL_SIZE);
+        ArrayList<String> spare = new ArrayList<>();
+        long currentTick;
+
+        Segment(int maxEntries, long currentTick) {
+            this.maxEntries = maxEntries;
+            this.currentTick = currentTick;
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                seconds.add(new ArrayList<>());
+                minutes.add(new ArrayList<>());
+            }
+        }
+
+        void schedule(final String tokenId, long expiryTick) {
+            final long delta = expiryTick - currentTick;
+            if (delta < WHEEL_SIZE) {
+                seconds.get((int) (expiryTick & WHEEL_MASK)).add(tokenId);
+            } else if (delta < WHEEL_SIZE * WHEEL_SIZE) {
+                minutes.get((int) ((expiryTick >>> WHEEL_BITS) & WHEEL_MASK)).add(tokenId);
+            } else {
+                minutes.get((int) (((currentTick >>> WHEEL_BITS) + WHEEL_MASK) & WHEEL_MASK)).add(tokenId);
+            }
+        }
+
+        void advance(long nowTick) {
+
+            // after a long idle period it's cheaper to rebuild the
+            // wheel than to process every tick that we have missed
+
+            if (nowTick - currentTick >= WHEEL_SIZE * WHEEL_SIZE) {
+                rebuild(nowTick);
+                return;
+            }
+
+            while (currentTick < nowTick) {
+                currentTick += 1;
+
+                // at the start of every minute the tokens in the next
+                // minute slot are moved down to the seconds wheel
+
+                if ((currentTick & WHEEL_MASK) == 0) {
+                    processSlot(minutes, (int) ((currentTick >>> WHEEL_BITS) & WHEEL_MASK));
+                }
+                processSlot(seconds, (int) (currentTick & WHEEL_MASK));
+            }
+        }
+
+        private void processSlot(ArrayList<ArrayList<String>> wheel, int index) {
+
+            // swap the slot with our spare list so rescheduled tokens
+            // never end up in the list we're iterating
+
+            if (wheel.get(index).isEmpty()) {
+                return;
+            }
+            final ArrayList<String> tokenIds = wheel.set(index, spare);
+            for (String tokenId : tokenIds) {
+                reschedule(tokenId);
+            }
+            tokenIds.clear();
+            spare = tokenIds;
+        }
+
+        private void reschedule(final String tokenId) {
+            final Long expiryTick = entries.get(tokenId);
+            if (expiryTick == null) {
+                return;
+            }
+            if (expiryTick <= currentTick) {
+                entries.remove(tokenId);
+            } else {
+                schedule(tokenId, expiryTick);
+            }
+        }
+
+        private void rebuild(long nowTick) {
+            currentTick = nowTick;
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                seconds.get(i).clear();
+                minutes.get(i).clear();
+            }
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, Long> entry = iterator.next();
+                if (entry.getValue() <= nowTick) {
+                    iterator.remove();
+                } else {
+                    schedule(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+}
@@ -1,9 +1,14 @@
 package com.yahoo.athenz.instance.provider.impl;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yahoo.athenz.auth.Authorizer;
 import com.yahoo.athenz.auth.KeyStore;
 import com.yahoo.athenz.auth.Principal;
 import com.yahoo.athenz.auth.impl.SimplePrincipal;
+import com.yahoo.athenz.auth.impl.util.BoundedTtlCache;
 import com.yahoo.athenz.auth.token.jwts.JwtsSigningKeyResolver;
 import com.yahoo.athenz.common.server.http.HttpDriver;
 import com.yahoo.athenz.common.server.util.config.dynamic.DynamicConfigLong;
@@ -14,14 +19,22 @@ import com.yahoo.rdl.JSON;
 import com.yahoo.rdl.Struct;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SigningKeyResolver;
 import org.eclipse.jetty.util.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
+import java.util.function.LongSupplier;
 
 import static com.yahoo.athenz.common.server.util.config.ConfigManagerSingleton.CONFIG_MANAGER;
 
@@ -31,6 +44,27 @@ public class InstanceJenkinsProvider implements InstanceProvider {
 
     private static final String URI_INSTANCE_ID_PREFIX = "athenz://instanceid/";
     private static final String URI_SPIFFE_PREFIX = "spiffe://";
+    private static final String[] URI_SUPPORTED_PREFIXES = { URI_SPIFFE_PREFIX, URI_INSTANCE_ID_PREFIX };
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+    // messages for rejections that do not include any request details
+
+    private static final String AUTHORIZER_NOT_AVAILABLE_MESSAGE = "Authorizer not available";
+    private static final String SAN_IP_NOT_ALLOWED_MESSAGE = "Request must not have any sanIP addresses";
+    private static final String HOSTNAME_NOT_ALLOWED_MESSAGE = "Request must not have any sanDNS values";
+    private static final String INVALID_SAN_URI_MESSAGE = "Unable to validate certificate request sanURI values";
+    private static final String MISSING_ID_TOKEN_MESSAGE = "Jenkins ID Token must be provided";
+    private static final String INVALID_SAN_DNS_MESSAGE = "Unable to validate certificate request sanDNS entries";
+    private static final String REFRESH_NOT_SUPPORTED_MESSAGE = "GitHub Action X.509 Certificates cannot be refreshed";
+
+    private static final ThreadLocal<MessageDigest> SHA256_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    });
 
     static final String JENKINS_PROP_PROVIDER_DNS_SUFFIX  = "athenz.zts.jenkins.provider_dns_suffix";
     static final String JENKINS_PROP_BOOT_TIME_OFFSET     = "athenz.zts.jenkins.boot_time_offset";
@@ -38,19 +72,59 @@ public class InstanceJenkinsProvider implements InstanceProvider {
     static final String JENKINS_PROP_AUDIENCE             = "athenz.zts.jenkins.audience";
     static final String JENKINS_PROP_ISSUER               = "athenz.zts.jenkins.issuer";
     static final String JENKINS_PROP_JWKS_URI             = "athenz.zts.jenkins.jwks_uri";
+    static final String JENKINS_PROP_TOKEN_CACHE_SIZE     = "athenz.zts.jenkins.token_cache_max_entries";
+    static final String JENKINS_PROP_JWKS_REFRESH_INTERVAL = "athenz.zts.jenkins.jwks_refresh_interval";
+    static final String JENKINS_PROP_JWKS_REFRESH_JITTER   = "athenz.zts.jenkins.jwks_refresh_jitter";
+    static final String JENKINS_PROP_JWKS_UNKNOWN_KID_INTERVAL = "athenz.zts.jenkins.jwks_unknown_kid_refresh_interval";
+    static final String JENKINS_PROP_JWKS_UNKNOWN_KID_WAIT = "athenz.zts.jenkins.jwks_unknown_kid_wait_ms";
+    static final String JENKINS_PROP_DISCOVERY_TIMEOUT     = "athenz.zts.jenkins.discovery_timeout_ms";
+    static final String JENKINS_PROP_DISCOVERY_INTERVAL    = "athenz.zts.jenkins.discovery_interval";
+    static final String JENKINS_PROP_SNAPSHOT_FILE         = "athenz.zts.jenkins.oidc_snapshot_file";
+    static final String JENKINS_PROP_SNAPSHOT_MAX_AGE      = "athenz.zts.jenkins.oidc_snapshot_max_age";
+    static final String JENKINS_PROP_AUTHZ_CACHE_SIZE      = "athenz.zts.jenkins.authz_cache_max_entries";
+    static final String JENKINS_PROP_AUTHZ_CACHE_TTL       = "athenz.zts.jenkins.authz_cache_ttl";
+    static final String JENKINS_PROP_ISSUERS_CONFIG_FILE   = "athenz.zts.jenkins.issuers_config_file";
+    static final String JENKINS_PROP_REPLAY_GUARD_SIZE     = "athenz.zts.jenkins.replay_guard_max_entries";
+    static final String JENKINS_PROP_REPLAY_GUARD_CLASS    = "athenz.zts.jenkins.replay_guard_class";
+    static final String JENKINS_PROP_REJECTION_LOG_INTERVAL = "athenz.zts.jenkins.rejection_log_interval";
+    static final String JENKINS_PROP_ISSUER_USE_PROVIDER_SSL_CONTEXT = "athenz.zts.jenkins.issuer_use_provider_ssl_context";
 
     static final String JENKINS_ISSUER          = "https://jenkins.athenz.svc.cluster.local/oidc";
     static final String JENKINS_ISSUER_JWKS_URI = "https://jenkins.athenz.svc.cluster.local/oidc/jwks";
 
+    static final long JENKINS_ALLOWED_CLOCK_SKEW_SECONDS = 60;
+
     Set<String> dnsSuffixes = null;
+    SanDnsSuffixValidator sanDnsSuffixValidator = null;
     String jenkinsIssuer = null;
     String provider = null;
     String audience = null;
-    JwtsSigningKeyResolver signingKeyResolver = null;
+    RefreshingJwksKeyResolver signingKeyResolver = null;
     JwtsSigningKeyResolver keyStoreSigningKeyResolver = null;
+    KeyIdSigningKeyRouter signingKeyRouter = null;
+    JwtParser tokenParser = null;
+    BoundedTtlCache<String, Claims> verifiedTokenCache = null;
+    BoundedTtlCache<AuthzDecisionKey, Boolean> authzDecisionCache = null;
     Authorizer authorizer = null;
+    ScheduledExecutorService discoveryScheduler = null;
+    long discoveryTimeoutMillis;
+    SSLContext sslContext = null;
+    OidcSnapshotStore snapshotStore = null;
+    JwksResolverPool jwksResolverPool = null;
+    JenkinsIssuer defaultIssuer = null;
+    Map<String, JenkinsIssuer> issuers = Collections.emptyMap();
+    TokenReplayGuard tokenReplayGuard = null;
     DynamicConfigLong bootTimeOffsetSeconds;
-    long certExpiryTime;
+    DynamicConfigLong certExpiryTime;
+    volatile CertAttributes certAttributes;
+
+    // rejected requests are logged at most once per interval per reason
+
+    RejectionLog rejectionLog = new RejectionLog(LOGGER, 1);
+
+    // per stage latencies and rejection counts for the server to scrape
+
+    ProviderMetrics providerMetrics = new InMemoryProviderMetrics();
 
     @Override
     public Scheme getProviderScheme() {
@@ -74,6 +148,7 @@ public class InstanceJenkinsProvider implements InstanceProvider {
         final String dnsSuffix = System.getProperty(JENKINS_PROP_PROVIDER_DNS_SUFFIX, "jenkins.athenz.io");
         dnsSuffixes = new HashSet<>();
         dnsSuffixes.addAll(Arrays.asList(dnsSuffix.split(",")));
+        sanDnsSuffixValidator = new SanDnsSuffixValidator(dnsSuffixes);
 
         // how long the instance must be booted in the past before we
         // stop validating the instance requests
@@ -83,31 +158,299 @@ public class InstanceJenkinsProvider implements InstanceProvider {
 
         // get default/max expiry time for any generated tokens - 6 hours
 
-        certExpiryTime = Long.parseLong(System.getProperty(JENKINS_PROP_CERT_EXPIRY_MINUTES, "360"));
+        certExpiryTime = new DynamicConfigLong(CONFIG_MANAGER, JENKINS_PROP_CERT_EXPIRY_MINUTES, 360L);
+        certAttributes = new CertAttributes(certExpiryTime.get());
+
+        // how often we log rejected requests for the same reason
+
+        rejectionLog = new RejectionLog(LOGGER, Long.parseLong(
+                System.getProperty(JENKINS_PROP_REJECTION_LOG_INTERVAL, "1")));
 
         // initialize our jwt key resolver
 
+        // if the jwks uri is not configured we start with the default
+        // value and discover the actual one in the background so our
+        // startup does not depend on the issuer being available
+
+        // issuer discovery and jwks fetches use the jdk default trust store
+        // since the provider's ssl context may only trust the athenz ca
+        // while issuers typically use public ca certificates. deployments
+        // with a private ca issuer can use the provider's context instead
+
+        this.sslContext = Boolean.parseBoolean(System.getProperty(JENKINS_PROP_ISSUER_USE_PROVIDER_SSL_CONTEXT, "false"))
+                ? sslContext : null;
         jenkinsIssuer = System.getProperty(JENKINS_PROP_ISSUER, JENKINS_ISSUER);
-        signingKeyResolver = new JwtsSigningKeyResolver(extractJenkinsIssuerJwksUri(jenkinsIssuer), null);
+        final String configuredJwksUri = System.getProperty(JENKINS_PROP_JWKS_URI);
+        String jwksUri = StringUtil.isEmpty(configuredJwksUri) ? JENKINS_ISSUER_JWKS_URI : configuredJwksUri;
+
+        // if configured, we load the last discovered jwks uri and keys
+        // from our local snapshot so we can verify tokens right away
+        // after a restart even if the issuer is not reachable. snapshots
+        // older than 24 hours by default are ignored
+
+        final String snapshotFile = System.getProperty(JENKINS_PROP_SNAPSHOT_FILE);
+        snapshotStore = StringUtil.isEmpty(snapshotFile) ? null
+                : new OidcSnapshotStore(Paths.get(snapshotFile), jenkinsIssuer, TimeUnit.SECONDS.toMillis(
+                        Long.parseLong(System.getProperty(JENKINS_PROP_SNAPSHOT_MAX_AGE, "86400"))));
+        if (snapshotStore != null && snapshotStore.load() && StringUtil.isEmpty(configuredJwksUri)) {
+            jwksUri = snapshotStore.getJwksUri();
+        }
+
+        signingKeyResolver = new RefreshingJwksKeyResolver(jwksUri, getTimedJwksFetcher(jwksUri, this.sslContext));
+        if (snapshotStore != null) {
+            final String snapshotJwks = snapshotStore.getJwks(jwksUri);
+            if (snapshotJwks != null && signingKeyResolver.loadKeys(snapshotJwks)) {
+                LOGGER.info("Loaded {} jwks keys for issuer {} from snapshot {}",
+                        signingKeyResolver.getKeyCount(), jenkinsIssuer, snapshotFile);
+            }
+        }
         keyStoreSigningKeyResolver = new JwtsSigningKeyResolver(null, null);
+
+        // tokens are routed to the jwks or key store key based on their
+        // key id. the jwt parser is immutable and thread-safe so we build
+        // it once and share it across all certificate requests
+
+        signingKeyRouter = new KeyIdSigningKeyRouter(signingKeyResolver, keyStoreSigningKeyResolver);
+        signingKeyResolver.setRefreshListener(this::onJwksRefresh);
+        tokenParser = buildJwtParser(signingKeyRouter);
+
+        // the jwks is refreshed in the background so request threads
+        // never block on the issuer. by default every 10 mins +/- 10%.
+        // all resolvers share the refresh threads of our pool
+
+        jwksResolverPool = new JwksResolverPool(2, uri -> getTimedJwksFetcher(uri, this.sslContext),
+                Long.parseLong(System.getProperty(JENKINS_PROP_JWKS_REFRESH_INTERVAL, "600")),
+                Double.parseDouble(System.getProperty(JENKINS_PROP_JWKS_REFRESH_JITTER, "10")) / 100,
+                Long.parseLong(System.getProperty(JENKINS_PROP_JWKS_UNKNOWN_KID_INTERVAL, "30")),
+                Long.parseLong(System.getProperty(JENKINS_PROP_JWKS_UNKNOWN_KID_WAIT, "2000")));
+        jwksResolverPool.start(signingKeyResolver);
+
+        // our default issuer is always configured while any additional
+        // issuers, e.g. one per jenkins controller, are loaded from the
+        // optional issuers config file. the default issuer keeps the
+        // domain:subject resource so existing policies remain valid
+
+        defaultIssuer = new JenkinsIssuer(jenkinsIssuer, audience, bootTimeOffsetSeconds::get, tokenParser, "");
+        issuers = loadIssuers(System.getProperty(JENKINS_PROP_ISSUERS_CONFIG_FILE));
+
+        // optional cache of verified tokens since jobs frequently request
+        // certificates for several services with the same id token. the
+        // cache is disabled by default
+
+        final int tokenCacheSize = Integer.parseInt(System.getProperty(JENKINS_PROP_TOKEN_CACHE_SIZE, "0"));
+        if (tokenCacheSize > 0) {
+            verifiedTokenCache = new BoundedTtlCache<>(tokenCacheSize, TimeUnit.SECONDS.toMillis(timeout));
+        }
+
+        // optional cache of authorization decisions for the job subjects.
+        // both allow and deny results are cached so policy changes take
+        // effect within the configured ttl (default 30 secs) unless the
+        // cache is explicitly invalidated. the cache is disabled by default
+
+        final int authzCacheSize = Integer.parseInt(System.getProperty(JENKINS_PROP_AUTHZ_CACHE_SIZE, "0"));
+        if (authzCacheSize > 0) {
+            final long authzCacheTtl = Long.parseLong(System.getProperty(JENKINS_PROP_AUTHZ_CACHE_TTL, "30"));
+            authzDecisionCache = new BoundedTtlCache<>(authzCacheSize, TimeUnit.SECONDS.toMillis(authzCacheTtl));
+        }
+
+        // optional replay guard so an id token can only be used once for
+        // each service identity. a custom guard, e.g. backed by a store
+        // shared between servers, can be configured with its class name
+
+        tokenReplayGuard = newTokenReplayGuard(System.getProperty(JENKINS_PROP_REPLAY_GUARD_CLASS),
+                Integer.parseInt(System.getProperty(JENKINS_PROP_REPLAY_GUARD_SIZE, "0")));
+
+        if (StringUtil.isEmpty(configuredJwksUri)) {
+            startJwksUriDiscovery(
+                    Long.parseLong(System.getProperty(JENKINS_PROP_DISCOVERY_TIMEOUT, "5000")),
+                    Long.parseLong(System.getProperty(JENKINS_PROP_DISCOVERY_INTERVAL, "3600")));
+        }
     }
 
-    HttpDriver getHttpDriver(String url) {
-        return new HttpDriver.Builder(url, null).build();
+    /**
+     * build the issuer map with our default issuer and the issuers from the
+     * given config file. The file contains a json object with an issuers
+     * array where each entry has the issuer, jwks_uri and the optional
+     * audience and boot_time_offset (in seconds) values, for example:
+     * {"issuers":[{"issuer":"https://jenkins1.athenz.io/oidc","jwks_uri":"https://jenkins1.athenz.io/oidc/jwks"}]}
+     * @param configFile path to the issuers config file, may be null
+     * @return immutable map of issuers by their issuer value
+     */
+    Map<String, JenkinsIssuer> loadIssuers(final String configFile) {
+
+        Map<String, JenkinsIssuer> issuerMap = new HashMap<>();
+        issuerMap.put(defaultIssuer.issuer, defaultIssuer);
+        if (StringUtil.isEmpty(configFile)) {
+            return Collections.unmodifiableMap(issuerMap);
+        }
+
+        JsonNode config;
+        try {
+            config = JSON_MAPPER.readTree(Paths.get(configFile).toFile());
+        } catch (IOException ex) {
+            LOGGER.error("Unable to load jenkins issuers config {}: {}", configFile, ex.getMessage());
+            return Collections.unmodifiableMap(issuerMap);
+        }
+
+        // issuers with the same jwks uri share the resolver as well as
+        // the parser so the keys are only fetched and indexed once
+
+        Map<String, JwtParser> parsers = new HashMap<>();
+        for (JsonNode entry : config.path("issuers")) {
+            final String issuer = entry.path("issuer").asText(null);
+            final String jwksUri = entry.path("jwks_uri").asText(null);
+            if (StringUtil.isEmpty(issuer) || StringUtil.isEmpty(jwksUri)) {
+                LOGGER.error("Skipping jenkins issuer config without issuer/jwks_uri: {}", entry);
+                continue;
+            }
+            if (issuerMap.containsKey(issuer)) {
+                LOGGER.error("Skipping duplicate jenkins issuer config: {}", issuer);
+                continue;
+            }
+            final JwtParser parser = parsers.computeIfAbsent(jwksUri, uri -> {
+                RefreshingJwksKeyResolver resolver = jwksResolverPool.getResolver(uri);
+                KeyIdSigningKeyRouter router = new KeyIdSigningKeyRouter(resolver, keyStoreSigningKeyResolver);
+                resolver.setRefreshListener((refreshUri, jwks) -> router.invalidateAll());
+                return buildJwtParser(router);
+            });
+            final String issuerAudience = entry.path("audience").asText(audience);
+            final LongSupplier bootTimeOffset = entry.hasNonNull("boot_time_offset")
+                    ? fixedBootTimeOffset(entry.get("boot_time_offset").asLong()) : bootTimeOffsetSeconds::get;
+            issuerMap.put(issuer, new JenkinsIssuer(issuer, issuerAudience, bootTimeOffset, parser, issuer + ":"));
+        }
+        LOGGER.info("Configured {} jenkins issuers from {}", issuerMap.size(), configFile);
+        return Collections.unmodifiableMap(issuerMap);
     }
 
-    String extractJenkinsIssuerJwksUri(final String issuer) {
+    static TokenReplayGuard newTokenReplayGuard(final String className, int maxEntries) {
 
-        // if we have the value configured then that's what we're going to use
+        if (!StringUtil.isEmpty(className)) {
+            try {
+                return (TokenReplayGuard) Class.forName(className).getDeclaredConstructor().newInstance();
+            } catch (Exception ex) {
+                throw new IllegalArgumentException("Invalid token replay guard class: " + className, ex);
+            }
+        }
+        return maxEntries > 0 ? new InMemoryTokenReplayGuard(maxEntries) : null;
+    }
+
+    private static LongSupplier fixedBootTimeOffset(final long bootTimeOffset) {
+        return () -> bootTimeOffset;
+    }
+
+    void startJwksUriDiscovery(long timeoutMillis, long intervalSeconds) {
+
+        // we use two threads so one can enforce the deadline on the
+        // discovery request running on the other one
+
+        discoveryTimeoutMillis = timeoutMillis;
+        discoveryScheduler = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "jenkins-oidc-discovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (intervalSeconds > 0) {
+            discoveryScheduler.scheduleWithFixedDelay(this::discoverJwksUri, 0, intervalSeconds, TimeUnit.SECONDS);
+        } else {
+            discoveryScheduler.execute(this::discoverJwksUri);
+        }
+    }
+
+    /**
+     * retrieve the jwks uri from the issuer's openid configuration within
+     * the configured deadline and switch our resolver to it if changed
+     * @return true if the resolver was switched to a new jwks uri
+     */
+    boolean discoverJwksUri() {
+
+        Future<String> discovery = discoveryScheduler.submit(() -> extractJenkinsIssuerJwksUri(jenkinsIssuer));
+        String jwksUri;
+        try {
+            jwksUri = discovery.get(discoveryTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            discovery.cancel(true);
+            LOGGER.error("OpenID discovery from issuer {} did not complete within {}ms",
+                    jenkinsIssuer, discoveryTimeoutMillis);
+            return false;
+        } catch (InterruptedException ex) {
+            discovery.cancel(true);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ex) {
+            LOGGER.error("OpenID discovery from issuer {} failed", jenkinsIssuer, ex.getCause());
+            return false;
+        }
 
-        String jwksUri = System.getProperty(JENKINS_PROP_JWKS_URI);
-        if (!StringUtil.isEmpty(jwksUri)) {
-            return jwksUri;
+        if (StringUtil.isEmpty(jwksUri) || jwksUri.equals(signingKeyResolver.getJwksUri())) {
+            return false;
+        }
+        LOGGER.info("Switching jwks uri for issuer {} to {}", jenkinsIssuer, jwksUri);
+        if (snapshotStore != null) {
+            snapshotStore.updateJwksUri(jwksUri);
         }
+        signingKeyResolver.setJwksUri(jwksUri, getTimedJwksFetcher(jwksUri, sslContext));
+        return true;
+    }
+
+    void onJwksRefresh(final String jwksUri, final String jwks) {
 
-        // otherwise we'll assume the issuer follows the standard and
-        // includes the jwks uri in its openid configuration
+        // keys that were rotated out must not be resolved from the
+        // router index any longer
+
+        signingKeyRouter.invalidateAll();
+        if (snapshotStore != null) {
+            snapshotStore.updateJwks(jwksUri, jwks);
+        }
+    }
 
+    static JwtParser buildJwtParser(SigningKeyResolver resolver) {
+        return Jwts.parserBuilder()
+                .setSigningKeyResolver(resolver)
+                .setAllowedClockSkewSeconds(JENKINS_ALLOWED_CLOCK_SKEW_SECONDS)
+                .build();
+    }
+
+    Callable<String> getJwksFetcher(final String jwksUri, SSLContext sslContext) {
+        return RefreshingJwksKeyResolver.httpFetcher(jwksUri, sslContext);
+    }
+
+    Callable<String> getTimedJwksFetcher(final String jwksUri, SSLContext sslContext) {
+        final Callable<String> fetcher = getJwksFetcher(jwksUri, sslContext);
+        return () -> {
+            final long start = System.nanoTime();
+            try {
+                return fetcher.call();
+            } finally {
+                providerMetrics.recordLatency(ProviderMetrics.Stage.JWKS_FETCH, System.nanoTime() - start);
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        if (discoveryScheduler != null) {
+            discoveryScheduler.shutdownNow();
+        }
+        if (signingKeyResolver != null) {
+            signingKeyResolver.close();
+        }
+        if (jwksResolverPool != null) {
+            jwksResolverPool.close();
+        }
+    }
+
+    HttpDriver getHttpDriver(String url) {
+        return new HttpDriver.Builder(url, sslContext).build();
+    }
+
+    /**
+     * retrieve the jwks uri from the issuer's openid configuration
+     * @param issuer the issuer uri
+     * @return the jwks uri or null if not available
+     */
+    String extractJenkinsIssuerJwksUri(final String issuer) {
+
+        String jwksUri = null;
         try (HttpDriver httpDriver = getHttpDriver(issuer)) {
             String openIdConfig = httpDriver.doGet("/.well-known/openid-configuration", null);
             if (!StringUtil.isEmpty(openIdConfig)) {
@@ -119,29 +462,64 @@ public class InstanceJenkinsProvider implements InstanceProvider {
         } catch (Exception ex) {
             LOGGER.error("Unable to retrieve openid configuration from issuer: {}", issuer, ex);
         }
+        return jwksUri;
+    }
 
-        // if we still don't have a value we'll just return the default value
-
-        return StringUtil.isEmpty(jwksUri) ? JENKINS_ISSUER_JWKS_URI : jwksUri;
+    private ResourceException forbiddenError(ProviderRejectionException.Reason reason, final String message) {
+        return forbiddenError(new ProviderRejectionException(reason, message));
     }
 
-    private ResourceException forbiddenError(String message) {
-        LOGGER.error(message);
-        return new ResourceException(ResourceException.FORBIDDEN, message);
+    private ResourceException forbiddenError(ProviderRejectionException rejection) {
+        providerMetrics.recordRejection(rejection.getReason());
+        rejectionLog.record(rejection);
+        return rejection;
     }
 
     @Override
     public void setAuthorizer(Authorizer authorizer) {
         this.authorizer = authorizer;
+        invalidateAuthorizationCache();
+    }
+
+    public void setTokenReplayGuard(TokenReplayGuard tokenReplayGuard) {
+        this.tokenReplayGuard = tokenReplayGuard;
+    }
+
+    public void setProviderMetrics(ProviderMetrics providerMetrics) {
+        this.providerMetrics = providerMetrics;
+    }
+
+    public ProviderMetrics getProviderMetrics() {
+        return providerMetrics;
+    }
+
+    /**
+     * Drop all cached authorization decisions, e.g. after a policy
+     * update, so the following requests are checked by the authorizer.
+     */
+    public void invalidateAuthorizationCache() {
+        if (authzDecisionCache != null) {
+            authzDecisionCache.invalidateAll();
+        }
     }
 
     @Override
     public InstanceConfirmation confirmInstance(InstanceConfirmation confirmation) {
+        final long start = System.nanoTime();
+        try {
+            return validateInstanceRequest(confirmation);
+        } finally {
+            providerMetrics.recordLatency(ProviderMetrics.Stage.CONFIRM_INSTANCE, System.nanoTime() - start);
+        }
+    }
+
+    InstanceConfirmation validateInstanceRequest(InstanceConfirmation confirmation) {
 
         // before running any checks make sure we have a valid authorizer
 
         if (authorizer == null) {
-            throw forbiddenError("Authorizer not available");
+            throw forbiddenError(ProviderRejectionException.Reason.AUTHORIZER_UNAVAILABLE,
+                    AUTHORIZER_NOT_AVAILABLE_MESSAGE);
         }
 
         final String instanceDomain = confirmation.getDomain();
@@ -152,19 +530,19 @@ public class InstanceJenkinsProvider implements InstanceProvider {
 
         if (!StringUtil.isEmpty(InstanceUtils.getInstanceProperty(instanceAttributes,
                 InstanceProvider.ZTS_INSTANCE_SAN_IP))) {
-            throw forbiddenError("Request must not have any sanIP addresses");
+            throw forbiddenError(ProviderRejectionException.Reason.SAN_IP_NOT_ALLOWED, SAN_IP_NOT_ALLOWED_MESSAGE);
         }
 
         if (!StringUtil.isEmpty(InstanceUtils.getInstanceProperty(instanceAttributes,
                 InstanceProvider.ZTS_INSTANCE_HOSTNAME))) {
-            throw forbiddenError("Request must not have any sanDNS values");
+            throw forbiddenError(ProviderRejectionException.Reason.HOSTNAME_NOT_ALLOWED, HOSTNAME_NOT_ALLOWED_MESSAGE);
         }
 
         // validate san URI
 
         if (!validateSanUri(InstanceUtils.getInstanceProperty(instanceAttributes,
                 InstanceProvider.ZTS_INSTANCE_SAN_URI))) {
-            throw forbiddenError("Unable to validate certificate request sanURI values");
+            throw forbiddenError(ProviderRejectionException.Reason.INVALID_SAN_URI, INVALID_SAN_URI_MESSAGE);
         }
 
         // we need to validate the token which is our attestation
@@ -173,43 +551,73 @@ public class InstanceJenkinsProvider implements InstanceProvider {
 
         final String attestationData = confirmation.getAttestationData();
         if (StringUtil.isEmpty(attestationData)) {
-            throw forbiddenError("Jenkins ID Token must be provided");
+            throw forbiddenError(ProviderRejectionException.Reason.MISSING_ATTESTATION_DATA, MISSING_ID_TOKEN_MESSAGE);
         }
 
         StringBuilder errMsg = new StringBuilder(256);
         final String reqInstanceId = InstanceUtils.getInstanceProperty(instanceAttributes,
                 InstanceProvider.ZTS_INSTANCE_ID);
-        if (!validateOIDCToken(attestationData, instanceDomain, instanceService, reqInstanceId, errMsg)) {
-            throw forbiddenError("Unable to validate Certificate Request with the provided ID Token: " + errMsg.toString());
+        final Claims claims = validateOIDCTokenClaims(attestationData, instanceDomain, instanceService,
+                reqInstanceId, errMsg);
+        if (claims == null) {
+            throw forbiddenError(ProviderRejectionException.Reason.INVALID_ATTESTATION_DATA,
+                    "Unable to validate Certificate Request with the provided ID Token: " + errMsg.toString());
         }
 
-        // validate the certificate san DNS names
+        // validate the certificate san DNS names. our suffix trie rejects
+        // names outside of our suffixes and narrows down the suffixes
+        // that the names are checked against
 
+        final long sanStart = System.nanoTime();
+        final Set<String> sanDnsSuffixes = sanDnsSuffixValidator.dnsSuffixesFor(
+                InstanceUtils.getInstanceProperty(instanceAttributes, InstanceProvider.ZTS_INSTANCE_SAN_DNS));
         StringBuilder instanceId = new StringBuilder(256);
-        if (!InstanceUtils.validateCertRequestSanDnsNames(instanceAttributes, instanceDomain,
-                instanceService, dnsSuffixes, null, null, false, instanceId, null)) {
-            throw forbiddenError("Unable to validate certificate request sanDNS entries");
+        final boolean sanDnsValid = sanDnsSuffixes != null && InstanceUtils.validateCertRequestSanDnsNames(
+                instanceAttributes, instanceDomain, instanceService, sanDnsSuffixes, null, null, false, instanceId, null);
+        providerMetrics.recordLatency(ProviderMetrics.Stage.SAN_VALIDATION, System.nanoTime() - sanStart);
+        if (!sanDnsValid) {
+            throw forbiddenError(ProviderRejectionException.Reason.INVALID_SAN_DNS, INVALID_SAN_DNS_MESSAGE);
+        }
+
+        // finally make sure the token has not been used for this service
+        // before. we only record tokens once all other checks have passed
+        // so a rejected request can be retried with the same token
+
+        if (tokenReplayGuard != null && !checkTokenReplay(attestationData, claims, instanceDomain,
+                instanceService, errMsg)) {
+            throw forbiddenError(ProviderRejectionException.Reason.INVALID_ATTESTATION_DATA,
+                    "Unable to validate Certificate Request with the provided ID Token: " + errMsg.toString());
         }
 
         // set our cert attributes in the return object.
         // for GitHub Actions we do not allow refresh of those certificates, and
         // the issued certificate can only be used by clients and not servers
 
-        Map<String, String> attributes = new HashMap<>();
-        attributes.put(InstanceProvider.ZTS_CERT_REFRESH, "false");
-        attributes.put(InstanceProvider.ZTS_CERT_USAGE, ZTS_CERT_USAGE_CLIENT);
-        attributes.put(InstanceProvider.ZTS_CERT_EXPIRY_TIME, Long.toString(certExpiryTime));
-
-        confirmation.setAttributes(attributes);
+        confirmation.setAttributes(getCertAttributes().attributes);
         return confirmation;
     }
 
+    /**
+     * returns the shared cert attributes for our confirmations. the map
+     * is only rebuilt when the configured cert expiry time has changed
+     * @return cert attributes for the current expiry time
+     */
+    CertAttributes getCertAttributes() {
+        CertAttributes attributes = certAttributes;
+        final long expiryTime = certExpiryTime.get();
+        if (attributes.expiryTime != expiryTime) {
+            attributes = new CertAttributes(expiryTime);
+            certAttributes = attributes;
+        }
+        return attributes;
+    }
+
     @Override
     public InstanceConfirmation refreshInstance(InstanceConfirmation confirmation) {
 
         // we do not allow refresh of GitHub actions certificates
 
-        throw forbiddenError("GitHub Action X.509 Certificates cannot be refreshed");
+        throw forbiddenError(ProviderRejectionException.Reason.REFRESH_NOT_SUPPORTED, REFRESH_NOT_SUPPORTED_MESSAGE);
     }
 
     /**
@@ -224,78 +632,212 @@ public class InstanceJenkinsProvider implements InstanceProvider {
             return true;
         }
 
-        for (String uri: sanUri.split(",")) {
-            if (uri.startsWith(URI_SPIFFE_PREFIX) || uri.startsWith(URI_INSTANCE_ID_PREFIX)) {
-                continue;
-            }
-            LOGGER.error("Request contains unsupported uri value: {}", uri);
+        final int uriIdx = SanUriScanner.findUnsupportedUri(sanUri, URI_SUPPORTED_PREFIXES);
+        if (uriIdx != -1) {
+            LOGGER.error("Request contains unsupported uri value: {}",
+                    sanUri.substring(uriIdx, SanUriScanner.entryEnd(sanUri, uriIdx)));
             return false;
         }
 
         return true;
     }
 
-    boolean validateOIDCToken(final String jwToken, final String domainName, final String serviceName,
+    /**
+     * validates the token signature and claims without recording the
+     * token in the replay guard
+     * @return the verified claims or null if the token is not valid
+     */
+    Claims validateOIDCTokenClaims(final String jwToken, final String domainName, final String serviceName,
             final String instanceId, StringBuilder errMsg) {
 
-        Jws<Claims> claims;
-        try {
-             claims = Jwts.parserBuilder()
-                    .setSigningKeyResolver(signingKeyResolver)
-                    .setAllowedClockSkewSeconds(60)
-                    .build()
-                    .parseClaimsJws(jwToken);
-        } catch (Exception e) {
-            errMsg.append("Unable to parse and validate token with JWKs: ").append(e.getMessage());
-            try {
-                 claims = Jwts.parserBuilder()
-                        .setSigningKeyResolver(keyStoreSigningKeyResolver)
-                        .setAllowedClockSkewSeconds(60)
-                        .build()
-                        .parseClaimsJws(jwToken);
-            } catch (Exception ex) {
-                errMsg.append("Unable to parse and validate token with Key Store: ").append(ex.getMessage());
-            	return false;
-            }
+        Claims claimsBody = parseToken(jwToken, errMsg);
+        if (claimsBody == null) {
+            return null;
         }
 
-        // verify the issuer in set to GitHub Actions
+        // verify the issuer is one of our configured jenkins issuers
 
-        Claims claimsBody = claims.getBody();
-        if (!jenkinsIssuer.equals(claimsBody.getIssuer())) {
+        final JenkinsIssuer tokenIssuer = issuers.get(claimsBody.getIssuer());
+        if (tokenIssuer == null) {
             errMsg.append("token issuer is not Jenkins: ").append(claimsBody.getIssuer());
-            return false;
+            return null;
         }
 
         // verify that token audience is set for our service
 
-        if (!audience.equals(claimsBody.getAudience())) {
+        if (!tokenIssuer.audience.equals(claimsBody.getAudience())) {
             errMsg.append("token audience is not ZTS Server audience: ").append(claimsBody.getAudience());
-            return false;
+            return null;
         }
 
         // need to verify that the issue time is within our configured bootstrap time
 
         Date issueDate = claimsBody.getIssuedAt();
         if (issueDate == null || issueDate.getTime() < System.currentTimeMillis() -
-                TimeUnit.SECONDS.toMillis(bootTimeOffsetSeconds.get())) {
+                TimeUnit.SECONDS.toMillis(tokenIssuer.bootTimeOffsetSeconds.getAsLong())) {
             errMsg.append("job start time is not recent enough, issued at: ").append(issueDate);
-            return false;
+            return null;
         }
 
         // verify the domain and service names in the token based on our configuration
 
-        return validateTenantDomainToken(claimsBody, domainName, serviceName, errMsg);
+        if (!validateTenantDomainToken(claimsBody, tokenIssuer, domainName, serviceName, errMsg)) {
+            return null;
+        }
+
+        return claimsBody;
+    }
+
+    boolean checkTokenReplay(final String jwToken, final Claims claims, final String domainName,
+            final String serviceName, StringBuilder errMsg) {
+
+        // jobs may request certificates for several services with the
+        // same token so the token is tracked per service identity
+
+        final String jti = claims.getId();
+        final String tokenId = (StringUtil.isEmpty(jti) ? tokenDigest(jwToken) : jti)
+                + ':' + domainName + '.' + serviceName;
+        final JenkinsIssuer tokenIssuer = issuers.getOrDefault(claims.getIssuer(), defaultIssuer);
+        if (!tokenReplayGuard.recordToken(tokenId, tokenUsableUntil(tokenIssuer, claims))) {
+            errMsg.append("token has already been used for ").append(domainName).append('.').append(serviceName);
+            return false;
+        }
+        return true;
     }
 
-    boolean validateTenantDomainToken(final Claims claims, final String domainName, final String serviceName,
-            StringBuilder errMsg) {
+    /**
+     * parse the token and verify its signature. if the verified token cache
+     * is enabled, the signature is only verified for the first request
+     * with the given token while the claims checks are carried out by
+     * the caller for every request
+     * @param jwToken the compact jwt
+     * @param errMsg buffer for the error message
+     * @return verified claims or null if the token is not valid
+     */
+    Claims parseToken(final String jwToken, StringBuilder errMsg) {
+
+        final String cacheKey = verifiedTokenCache == null ? null : tokenDigest(jwToken);
+        if (cacheKey != null) {
+            final Claims claims = verifiedTokenCache.get(cacheKey);
+            if (claims != null) {
+                return claims;
+            }
+        }
+
+        // with multiple issuers we select the parser based on the
+        // unverified issuer claim. the claim is part of the signed payload
+        // so a token routed to the wrong issuer fails verification.
+        // the token is verified once against the key selected by its
+        // key id from either the jwks or the key store
+
+        JenkinsIssuer tokenIssuer = issuers.size() == 1 ? defaultIssuer
+                : issuers.getOrDefault(unverifiedIssuer(jwToken), defaultIssuer);
+
+        Jws<Claims> claims;
+        final long start = System.nanoTime();
+        try {
+            claims = tokenIssuer.tokenParser.parseClaimsJws(jwToken);
+        } catch (Exception ex) {
+            errMsg.append("Unable to parse and validate token with JWKs: ").append(ex.getMessage());
+            return null;
+        } finally {
+            providerMetrics.recordLatency(ProviderMetrics.Stage.TOKEN_VALIDATION, System.nanoTime() - start);
+        }
+
+        // jackson keeps the last value of a duplicated claim while we
+        // routed the token based on the first one so we must verify that
+        // the issuer claim matches the issuer whose keys verified the token
+
+        final Claims claimsBody = claims.getBody();
+        if (!tokenIssuer.issuer.equals(claimsBody.getIssuer())) {
+            errMsg.append("token issuer does not match verifying issuer ").append(tokenIssuer.issuer)
+                    .append(": ").append(claimsBody.getIssuer());
+            return null;
+        }
+        if (cacheKey != null) {
+            cacheVerifiedToken(cacheKey, claimsBody);
+        }
+        return claimsBody;
+    }
+
+    void cacheVerifiedToken(final String cacheKey, final Claims claims) {
+
+        // the token can only be used while it's not expired and the
+        // issue time is still within our boot time offset
+
+        final long expiryTime = tokenUsableUntil(issuers.getOrDefault(claims.getIssuer(), defaultIssuer), claims);
+        if (expiryTime > System.currentTimeMillis()) {
+            verifiedTokenCache.put(cacheKey, claims, expiryTime);
+        }
+    }
+
+    /**
+     * @param tokenIssuer issuer of the token
+     * @param claims verified token claims
+     * @return time in millis until the token passes our expiry and issue
+     *      time checks or 0 if the token has no issue time
+     */
+    static long tokenUsableUntil(final JenkinsIssuer tokenIssuer, final Claims claims) {
+        final Date issueDate = claims.getIssuedAt();
+        if (issueDate == null) {
+            return 0;
+        }
+        long expiryTime = issueDate.getTime() + TimeUnit.SECONDS.toMillis(tokenIssuer.bootTimeOffsetSeconds.getAsLong());
+        final Date expiryDate = claims.getExpiration();
+        if (expiryDate != null && expiryDate.getTime() < expiryTime) {
+            expiryTime = expiryDate.getTime();
+        }
+        return expiryTime;
+    }
+
+    /**
+     * extract the issuer claim from the token payload without verifying
+     * the token. only the payload segment is decoded and scanned for the
+     * top level iss field
+     * @param jwToken the compact jwt
+     * @return the issuer claim or null if not present or not parsable
+     */
+    static String unverifiedIssuer(final String jwToken) {
+
+        final int payloadStart = jwToken.indexOf('.') + 1;
+        final int payloadEnd = jwToken.indexOf('.', payloadStart);
+        if (payloadStart == 0 || payloadEnd < 0) {
+            return null;
+        }
+
+        try (JsonParser parser = JSON_MAPPER.getFactory().createParser(
+                Base64.getUrlDecoder().decode(jwToken.substring(payloadStart, payloadEnd)))) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String fieldName = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("iss".equals(fieldName)) {
+                    return value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            LOGGER.debug("Unable to extract issuer from token: {}", ex.getMessage());
+        }
+        return null;
+    }
+
+    static String tokenDigest(final String jwToken) {
+        final byte[] digest = SHA256_DIGEST.get().digest(jwToken.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(digest);
+    }
+
+    boolean validateTenantDomainToken(final Claims claims, final JenkinsIssuer tokenIssuer, final String domainName,
+            final String serviceName, StringBuilder errMsg) {
 
         // we need to extract and generate our action value for the authz check
 
         final String action = "jenkins.job";
 
         // we need to generate our resource value based on the subject
+        // and the issuer since job subjects are only unique per issuer
 
         final String subject = claims.getSubject();
         if (StringUtil.isEmpty(subject)) {
@@ -303,15 +845,82 @@ public class InstanceJenkinsProvider implements InstanceProvider {
             return false;
         }
 
-        // generate our principal object and carry out authorization check
+        // check if we have a recent decision for the same job subject
 
-        final String resource = domainName + ":" + subject;
-        Principal principal = SimplePrincipal.create(domainName, serviceName, (String) null);
-        boolean accessCheck = authorizer.access(action, resource, principal, null);
+        final AuthzDecisionKey cacheKey = authzDecisionCache == null ? null
+                : new AuthzDecisionKey(domainName, serviceName, tokenIssuer.resourcePrefix, subject);
+        Boolean accessCheck = cacheKey == null ? null : authzDecisionCache.get(cacheKey);
+
+        // otherwise generate our principal object and carry out authorization check
+
+        if (accessCheck == null) {
+            Principal principal = SimplePrincipal.create(domainName, serviceName, (String) null);
+            final long start = System.nanoTime();
+            accessCheck = authorizer.access(action, domainName + ":" + tokenIssuer.resourcePrefix + subject,
+                    principal, null);
+            providerMetrics.recordLatency(ProviderMetrics.Stage.AUTHORIZATION, System.nanoTime() - start);
+            if (cacheKey != null) {
+                authzDecisionCache.put(cacheKey, accessCheck);
+            }
+        }
         if (!accessCheck) {
             errMsg.append("authorization check failed for action: ").append(action)
-                    .append(" resource: ").append(resource);
+                    .append(" resource: ").append(domainName).append(':')
+                    .append(tokenIssuer.resourcePrefix).append(subject);
         }
         return accessCheck;
     }
+
+    static final class AuthzDecisionKey {
+
+        private final String domainName;
+        private final String serviceName;
+        private final String resourcePrefix;
+        private final String subject;
+        private final int hashCode;
+
+        AuthzDecisionKey(final String domainName, final String serviceName, final String resourcePrefix,
+                final String subject) {
+            this.domainName = domainName;
+            this.serviceName = serviceName;
+            this.resourcePrefix = resourcePrefix;
+            this.subject = subject;
+            this.hashCode = Objects.hash(domainName, serviceName, resourcePrefix, subject);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof AuthzDecisionKey)) {
+                return false;
+            }
+            AuthzDecisionKey other = (AuthzDecisionKey) obj;
+            return hashCode == other.hashCode && subject.equals(other.subject)
+                    && resourcePrefix.equals(other.resourcePrefix)
+                    && Objects.equals(domainName, other.domainName)
+                    && Objects.equals(serviceName, other.serviceName);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    static final class CertAttributes {
+
+        final long expiryTime;
+        final Map<String, String> attributes;
+
+        CertAttributes(long expiryTime) {
+            Map<String, String> map = new HashMap<>();
+            map.put(InstanceProvider.ZTS_CERT_REFRESH, "false");
+            map.put(InstanceProvider.ZTS_CERT_USAGE, ZTS_CERT_USAGE_CLIENT);
+            map.put(InstanceProvider.ZTS_CERT_EXPIRY_TIME, Long.toString(expiryTime));
+            this.expiryTime = expiryTime;
+            this.attributes = Collections.unmodifiableMap(map);
+        }
+    }
 }
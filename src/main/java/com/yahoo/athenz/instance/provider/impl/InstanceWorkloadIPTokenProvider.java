@@ -1,6 +1,10 @@
 package com.yahoo.athenz.instance.provider.impl;
 
 import com.yahoo.athenz.auth.KeyStore;
+import com.yahoo.athenz.auth.impl.util.BoundedTtlCache;
+import com.yahoo.athenz.auth.impl.util.FileChangeWatcher;
+import com.yahoo.athenz.auth.impl.util.IpAddressLiteral;
+import com.yahoo.athenz.auth.impl.util.IpAddressSet;
 import com.yahoo.athenz.auth.token.PrincipalToken;
 import com.yahoo.athenz.auth.token.Token;
 import com.yahoo.athenz.auth.token.jwts.JwtsSigningKeyResolver;
@@ -19,22 +23,48 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLContext;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(InstanceWorkloadIPTokenProvider.class);
-    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
     private static final String URI_HOSTNAME_PREFIX = "athenz://hostname/";
+    private static final Map<String, String> NO_REFRESH_CERT_ATTRIBUTES =
+            Collections.singletonMap(InstanceProvider.ZTS_CERT_REFRESH, "false");
+
+    // messages for rejections that do not include any request details
+
+    private static final String SERVICE_NOT_SUPPORTED_MESSAGE = "Service not supported to be launched by ZTS Provider";
+    private static final String MISSING_CREDENTIALS_MESSAGE = "Service credentials not provided";
+    private static final String INVALID_AUTH_TOKEN_MESSAGE = "Unable to validate Certificate Request Auth Token";
+    private static final String INVALID_IP_ADDRESS_MESSAGE = "Unable to validate request IP address";
+    private static final String INVALID_HOSTNAME_MESSAGE = "Unable to validate certificate request hostname";
+    private static final String INVALID_SAN_URI_MESSAGE = "Unable to validate certificate request URI hostname";
+    private static final String INVALID_SAN_DNS_MESSAGE = "Unable to validate certificate request DNS";
 
     static final String ZTS_PROP_PROVIDER_DNS_SUFFIX  = "athenz.zts.provider_dns_suffix";
     static final String ZTS_PROP_PRINCIPAL_LIST       = "athenz.zts.provider_service_list";
+    static final String ZTS_PROP_PRINCIPAL_LIST_FILE  = "athenz.zts.provider_service_list_file";
+    static final String ZTS_PROP_PRINCIPAL_LIST_RELOAD_INTERVAL = "athenz.zts.provider_service_list_reload_interval";
     static final String ZTS_PROP_EXPIRY_TIME          = "athenz.zts.provider_token_expiry_time";
+    static final String ZTS_PROP_REJECTION_LOG_INTERVAL = "athenz.zts.provider_rejection_log_interval";
+    static final String ZTS_PROP_PUBLIC_KEY_CACHE_SIZE = "athenz.zts.provider_public_key_cache_max_entries";
+    static final String ZTS_PROP_PUBLIC_KEY_CACHE_TTL  = "athenz.zts.provider_public_key_cache_ttl";
+    static final String ZTS_PROP_SERVICE_TOKEN_CACHE_SIZE = "athenz.zts.provider_service_token_cache_max_entries";
+    static final String ZTS_PROP_SERVICE_TOKEN_CACHE_TTL  = "athenz.zts.provider_service_token_cache_ttl";
+    static final String ZTS_PROP_DNS_CACHE_SIZE           = "athenz.zts.provider_dns_cache_max_entries";
+    static final String ZTS_PROP_DNS_CACHE_TTL            = "athenz.zts.provider_dns_cache_ttl";
+    static final String ZTS_PROP_DNS_CACHE_NEGATIVE_TTL   = "athenz.zts.provider_dns_cache_negative_ttl";
+
+    // longer tokens are never cached so the memory used by the service
+    // token cache is bounded by its number of entries
+
+    static final int SERVICE_TOKEN_CACHE_MAX_TOKEN_LENGTH = 2048;
 
     static final String ZTS_PROVIDER_SERVICE  = "sys.auth.zts";
     static final String ZTS_INSTANCE_WORKLOAD_IP = "workload_ip";
@@ -52,14 +82,35 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
 
     KeyStore keyStore = null;
     Set<String> dnsSuffixes = null;
+    SanDnsSuffixValidator sanDnsSuffixValidator = null;
     String provider = null;
     String keyId = null;
     PrivateKey key = null;
     SignatureAlgorithm keyAlg = null;
-    Set<String> principals = null;
+
+    // the allow-list is immutable and replaced as a whole when the
+    // service list file changes so request threads never take a lock.
+    // null means all services are supported
+
+    volatile ServiceAllowList principals = null;
+    FileChangeWatcher principalsWatcher = null;
+
     HostnameResolver hostnameResolver = null;
     JwtsSigningKeyResolver signingKeyResolver = null;
     int expiryTime;
+    BoundedTtlCache<PublicKeyCacheKey, ServicePublicKey> publicKeyCache = null;
+    BoundedTtlCache<String, VerifiedServiceToken> serviceTokenCache = null;
+    int dnsCacheSize = 0;
+    long dnsCacheTtlMillis;
+    long dnsCacheNegativeTtlMillis;
+
+    // rejected requests are logged at most once per interval per reason
+
+    RejectionLog rejectionLog = new RejectionLog(LOGGER, 1);
+
+    // in-memory metrics by default unless the server sets its own
+
+    ProviderMetrics providerMetrics = new InMemoryProviderMetrics();
 
     @Override
     public Scheme getProviderScheme() {
@@ -79,7 +130,31 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
 
         final String principalList = System.getProperty(ZTS_PROP_PRINCIPAL_LIST);
         if (principalList != null && !principalList.isEmpty()) {
-            principals = new HashSet<>(Arrays.asList(principalList.split(",")));
+            principals = ServiceAllowList.parse(principalList);
+        }
+
+        // if configured, the service list file takes precedence over the
+        // system property and is reloaded whenever it changes so services
+        // can be onboarded without restarting the server
+
+        final String principalListFile = System.getProperty(ZTS_PROP_PRINCIPAL_LIST_FILE);
+        if (principalListFile != null && !principalListFile.isEmpty()) {
+            final long reloadInterval = Long.parseLong(System.getProperty(ZTS_PROP_PRINCIPAL_LIST_RELOAD_INTERVAL, "30"));
+            principalsWatcher = new FileChangeWatcher(Paths.get(principalListFile), reloadInterval,
+                    this::reloadPrincipals);
+
+            // we start with an empty list so if the file is missing,
+            // unreadable or has no valid services then all requests are
+            // rejected until the file is fixed instead of allowing every
+            // service or falling back to the system property
+
+            principals = ServiceAllowList.parse(null);
+            principalsWatcher.checkForChange();
+            if (principals.size() == 0) {
+                LOGGER.error("No services loaded from service list file {}, rejecting all requests",
+                        principalListFile);
+            }
+            principalsWatcher.start();
         }
 
         // determine the dns suffix. if this is not specified we'll just default to zts.athenz.cloud
@@ -90,6 +165,7 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
             dnsSuffix = "zts.athenz.cloud";
         }
         dnsSuffixes.addAll(Arrays.asList(dnsSuffix.split(",")));
+        sanDnsSuffixValidator = new SanDnsSuffixValidator(dnsSuffixes);
 
         this.keyStore = keyStore;
 
@@ -98,6 +174,41 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
         final String expiryTimeStr = System.getProperty(ZTS_PROP_EXPIRY_TIME, "30");
         expiryTime = Integer.parseInt(expiryTimeStr);
 
+        // how often we log rejected requests for the same reason
+
+        rejectionLog = new RejectionLog(LOGGER, Long.parseLong(
+                System.getProperty(ZTS_PROP_REJECTION_LOG_INTERVAL, "1")));
+
+        // optional cache of the decoded service public keys so we don't
+        // have to look up and decode the same key for every request.
+        // keys removed from athenz remain valid until their entry expires
+
+        final int publicKeyCacheSize = Integer.parseInt(System.getProperty(ZTS_PROP_PUBLIC_KEY_CACHE_SIZE, "0"));
+        if (publicKeyCacheSize > 0) {
+            final long publicKeyCacheTtl = Long.parseLong(System.getProperty(ZTS_PROP_PUBLIC_KEY_CACHE_TTL, "60"));
+            publicKeyCache = new BoundedTtlCache<>(publicKeyCacheSize, TimeUnit.SECONDS.toMillis(publicKeyCacheTtl));
+        }
+
+        // optional cache of service tokens with verified signatures since
+        // agents refresh their certificates with the same token until it
+        // expires. entries are kept until the token expires but at most
+        // for the configured ttl - default 1 hour
+
+        final int serviceTokenCacheSize = Integer.parseInt(System.getProperty(ZTS_PROP_SERVICE_TOKEN_CACHE_SIZE, "0"));
+        if (serviceTokenCacheSize > 0) {
+            final long serviceTokenCacheTtl = Long.parseLong(System.getProperty(ZTS_PROP_SERVICE_TOKEN_CACHE_TTL, "3600"));
+            serviceTokenCache = new BoundedTtlCache<>(serviceTokenCacheSize, TimeUnit.SECONDS.toMillis(serviceTokenCacheTtl));
+        }
+
+        // optional cache in front of the hostname resolver set by the
+        // server. by default addresses are cached for 60 secs and failed
+        // lookups for 5 secs
+
+        dnsCacheSize = Integer.parseInt(System.getProperty(ZTS_PROP_DNS_CACHE_SIZE, "0"));
+        dnsCacheTtlMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(System.getProperty(ZTS_PROP_DNS_CACHE_TTL, "60")));
+        dnsCacheNegativeTtlMillis = TimeUnit.SECONDS.toMillis(
+                Long.parseLong(System.getProperty(ZTS_PROP_DNS_CACHE_NEGATIVE_TTL, "5")));
+
         // initialize our jwt key resolver
 
         signingKeyResolver = new JwtsSigningKeyResolver(null, null);
@@ -112,22 +223,88 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
 
     @Override
     public void setHostnameResolver(HostnameResolver hostnameResolver) {
+        closeHostnameResolver();
+        if (hostnameResolver != null && dnsCacheSize > 0) {
+            hostnameResolver = new CachingHostnameResolver(hostnameResolver, dnsCacheSize,
+                    dnsCacheTtlMillis, dnsCacheNegativeTtlMillis);
+        }
         this.hostnameResolver = hostnameResolver;
     }
 
-    private ResourceException forbiddenError(String message) {
-        LOGGER.error(message);
-        return new ResourceException(ResourceException.FORBIDDEN, message);
+    private void closeHostnameResolver() {
+        if (hostnameResolver instanceof CachingHostnameResolver) {
+            ((CachingHostnameResolver) hostnameResolver).close();
+        }
+    }
+
+    @Override
+    public void close() {
+        closeHostnameResolver();
+        if (principalsWatcher != null) {
+            principalsWatcher.close();
+        }
+    }
+
+    /**
+     * rebuild the service allow-list from the given file contents. the
+     * file lists services in domain.service format separated by commas or
+     * new lines and lines starting with # are ignored. the new list is
+     * built completely before it's published so in-flight requests keep
+     * using the previous one
+     * @param contents service list file contents
+     */
+    void reloadPrincipals(final String contents) {
+
+        // an empty list would reject every request so we assume the file
+        // is being rewritten and keep our current list instead
+
+        ServiceAllowList newPrincipals = ServiceAllowList.parse(contents);
+        if (newPrincipals.size() == 0) {
+            LOGGER.error("No valid services in service list file, keeping current list of {} services",
+                    principals == null ? 0 : principals.size());
+            return;
+        }
+
+        principals = newPrincipals;
+        LOGGER.info("Reloaded {} services from service list file", newPrincipals.size());
+    }
+
+    public void setProviderMetrics(ProviderMetrics providerMetrics) {
+        this.providerMetrics = providerMetrics;
+    }
+
+    public ProviderMetrics getProviderMetrics() {
+        return providerMetrics;
+    }
+
+    private ResourceException forbiddenError(ProviderRejectionException.Reason reason, final String message) {
+        return forbiddenError(new ProviderRejectionException(reason, message));
+    }
+
+    private ResourceException forbiddenError(ProviderRejectionException rejection) {
+        providerMetrics.recordRejection(rejection.getReason());
+        rejectionLog.record(rejection);
+        return rejection;
     }
 
     @Override
     public InstanceConfirmation confirmInstance(InstanceConfirmation confirmation) {
-        return validateInstanceRequest(confirmation, true);
+        return timedValidateInstanceRequest(confirmation, true);
     }
 
     @Override
     public InstanceConfirmation refreshInstance(InstanceConfirmation confirmation) {
-        return validateInstanceRequest(confirmation, false);
+        return timedValidateInstanceRequest(confirmation, false);
+    }
+
+    private InstanceConfirmation timedValidateInstanceRequest(InstanceConfirmation confirmation,
+            boolean registerInstance) {
+        final long start = System.nanoTime();
+        try {
+            return validateInstanceRequest(confirmation, registerInstance);
+        } finally {
+            providerMetrics.recordLatency(ProviderMetrics.Stage.CONFIRM_INSTANCE, System.nanoTime() - start);
+        }
     }
 
     InstanceConfirmation validateInstanceRequest(InstanceConfirmation confirmation, boolean registerInstance) {
@@ -145,8 +322,10 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
         // make sure this service has been configured to be supported
         // by this zts provider
 
-        if (principals != null && !principals.contains(instanceDomain + "." + instanceService)) {
-            throw forbiddenError("Service not supported to be launched by ZTS Provider");
+        final ServiceAllowList allowList = principals;
+        if (allowList != null && !allowList.contains(instanceDomain, instanceService)) {
+            throw forbiddenError(ProviderRejectionException.Reason.SERVICE_NOT_SUPPORTED,
+                    SERVICE_NOT_SUPPORTED_MESSAGE);
         }
 
         // we're supporting two attestation data models with our provider
@@ -156,19 +335,20 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
 
         final String attestationData = confirmation.getAttestationData();
         if (StringUtil.isEmpty(attestationData)) {
-            throw forbiddenError("Service credentials not provided");
+            throw forbiddenError(ProviderRejectionException.Reason.MISSING_ATTESTATION_DATA,
+                    MISSING_CREDENTIALS_MESSAGE);
         }
 
         boolean tokenValidated;
         Map<String, String> attributes;
         StringBuilder errMsg = new StringBuilder(256);
+        final long tokenStart = System.nanoTime();
         if (attestationData.startsWith("v=S1;")) {
 
             // set our cert attributes in the return object
             // for ZTS we do not allow refresh of those certificates
 
-            attributes = new HashMap<>();
-            attributes.put(InstanceProvider.ZTS_CERT_REFRESH, "false");
+            attributes = NO_REFRESH_CERT_ATTRIBUTES;
 
             tokenValidated = validateServiceToken(attestationData, instanceDomain,
                     instanceService, csrPublicKey, errMsg);
@@ -185,10 +365,19 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
                     instanceService, instanceId, InstanceUtils.getInstanceProperty(instanceAttributes,
                             InstanceProvider.ZTS_INSTANCE_CLIENT_IP), registerInstance, errMsg);
         }
+        providerMetrics.recordLatency(ProviderMetrics.Stage.TOKEN_VALIDATION, System.nanoTime() - tokenStart);
+
+        // the validation error is only logged along with the sampled
+        // rejection since it's not returned to the client
 
         if (!tokenValidated) {
-            LOGGER.error(errMsg.toString());
-            throw forbiddenError("Unable to validate Certificate Request Auth Token");
+            final ProviderRejectionException rejection = new ProviderRejectionException(
+                    ProviderRejectionException.Reason.INVALID_ATTESTATION_DATA, INVALID_AUTH_TOKEN_MESSAGE);
+            providerMetrics.recordRejection(rejection.getReason());
+            if (rejectionLog.record(rejection)) {
+                LOGGER.error(errMsg.toString());
+            }
+            throw rejection;
         }
 
         final String clientIp = InstanceUtils.getInstanceProperty(instanceAttributes,
@@ -208,7 +397,7 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
         }
 
         if (!validateSanIp(sanIps, clientIp)) {
-            throw forbiddenError("Unable to validate request IP address");
+            throw forbiddenError(ProviderRejectionException.Reason.INVALID_IP_ADDRESS, INVALID_IP_ADDRESS_MESSAGE);
         }
 
         // validate the hostname in payload
@@ -216,20 +405,27 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
         // from the client, and are already matched with clientIp
 
         if (!validateHostname(hostname, sanIps)) {
-            throw forbiddenError("Unable to validate certificate request hostname");
+            throw forbiddenError(ProviderRejectionException.Reason.INVALID_HOSTNAME, INVALID_HOSTNAME_MESSAGE);
         }
 
         // validate san URI
         if (!validateSanUri(sanUri, hostname)) {
-            throw forbiddenError("Unable to validate certificate request URI hostname");
+            throw forbiddenError(ProviderRejectionException.Reason.INVALID_SAN_URI, INVALID_SAN_URI_MESSAGE);
         }
 
-        // validate the certificate san DNS names
+        // validate the certificate san DNS names. our suffix trie rejects
+        // names outside of our suffixes and narrows down the suffixes
+        // that the names are checked against
 
+        final long sanStart = System.nanoTime();
+        final Set<String> sanDnsSuffixes = sanDnsSuffixValidator.dnsSuffixesFor(
+                InstanceUtils.getInstanceProperty(instanceAttributes, InstanceProvider.ZTS_INSTANCE_SAN_DNS));
         StringBuilder instanceId = new StringBuilder(256);
-        if (!InstanceUtils.validateCertRequestSanDnsNames(instanceAttributes, instanceDomain,
-                instanceService, dnsSuffixes, null, null, false, instanceId, null)) {
-            throw forbiddenError("Unable to validate certificate request DNS");
+        final boolean sanDnsValid = sanDnsSuffixes != null && InstanceUtils.validateCertRequestSanDnsNames(
+                instanceAttributes, instanceDomain, instanceService, sanDnsSuffixes, null, null, false, instanceId, null);
+        providerMetrics.recordLatency(ProviderMetrics.Stage.SAN_VALIDATION, System.nanoTime() - sanStart);
+        if (!sanDnsValid) {
+            throw forbiddenError(ProviderRejectionException.Reason.INVALID_SAN_DNS, INVALID_SAN_DNS_MESSAGE);
         }
 
         confirmation.setAttributes(attributes);
@@ -255,9 +451,22 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
             return false;
         }
 
+        // the addresses are compared in their parsed form so the same
+        // address in different textual forms (e.g. compressed and expanded
+        // ipv6 addresses) still matches
+
+        final long[] client = new long[2];
+        final int clientFamily = IpAddressLiteral.parse(clientIp, client);
+        if (clientFamily == IpAddressLiteral.INVALID) {
+            LOGGER.error("Unable to parse clientIp: {}", clientIp);
+            return false;
+        }
+
         // It's possible both ipv4, ipv6 addresses are mentioned in sanIP
+        final long[] parsed = new long[2];
         for (String sanIp: sanIps) {
-            if (sanIp.equals(clientIp)) {
+            if (IpAddressLiteral.parse(sanIp, parsed) == clientFamily
+                    && parsed[0] == client[0] && parsed[1] == client[1]) {
                 return true;
             }
         }
@@ -300,9 +509,13 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
 
         // All entries in sanIP must be one of the IPs that hostname resolves
 
+        final long start = System.nanoTime();
         Set<String>  hostIps = hostnameResolver.getAllByName(hostname);
+        providerMetrics.recordLatency(ProviderMetrics.Stage.HOSTNAME_RESOLUTION, System.nanoTime() - start);
+        final IpAddressSet hostAddresses = IpAddressSet.of(hostIps);
+        final long[] parsed = new long[2];
         for (String sanIp: sanIps) {
-            if (!hostIps.contains(sanIp)) {
+            if (!hostAddresses.contains(IpAddressLiteral.parse(sanIp, parsed), parsed)) {
                 LOGGER.error("One of sanIp: {} is not present in HostIps: {}", hostIps, sanIps);
                 return false;
             }
@@ -326,14 +539,9 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
             return true;
         }
 
-        for (String uri: sanUri.split(",")) {
-            int idx = uri.indexOf(URI_HOSTNAME_PREFIX);
-            if (idx != -1) {
-                if (!uri.substring(idx + URI_HOSTNAME_PREFIX.length()).equals(hostname)) {
-                    LOGGER.error("SanURI: {} does not contain hostname: {}", sanUri, hostname);
-                    return false;
-                }
-            }
+        if (SanUriScanner.findHostnameMismatch(sanUri, URI_HOSTNAME_PREFIX, hostname) != -1) {
+            LOGGER.error("SanURI: {} does not contain hostname: {}", sanUri, hostname);
+            return false;
         }
 
         return true;
@@ -465,6 +673,45 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
     PrincipalToken authenticate(final String signedToken, KeyStore keyStore,
             final String csrPublicKey, StringBuilder errMsg) {
 
+        // the signature of a token is only verified once while it's in
+        // our cache, but the remaining checks run for every request. the
+        // public key is always resolved again so the cached signature is
+        // only used while athenz still has the key that verified it, and
+        // removed keys are not accepted longer than the public key cache
+        // ttl allows
+
+        VerifiedServiceToken verifiedToken = getVerifiedServiceToken(signedToken);
+        ServicePublicKey publicKey = null;
+        if (verifiedToken != null) {
+            final PrincipalToken serviceToken = verifiedToken.serviceToken;
+            publicKey = getServicePublicKey(keyStore, serviceToken.getDomain().toLowerCase(),
+                    serviceToken.getName().toLowerCase(), serviceToken.getKeyId());
+            if (publicKey == null || !publicKey.pem.equals(verifiedToken.publicKey.pem)) {
+                verifiedToken = null;
+            }
+        }
+        if (verifiedToken == null) {
+            verifiedToken = verifyServiceToken(signedToken, keyStore, errMsg);
+            if (verifiedToken == null) {
+                return null;
+            }
+            publicKey = verifiedToken.publicKey;
+        }
+
+        // finally we want to make sure the public key in the csr
+        // matches the public key registered in Athenz
+
+        if (!publicKey.matches(csrPublicKey)) {
+            errMsg.append("CSR and Athenz public key mismatch");
+            LOGGER.error("{}: athenz key sha256: {}", errMsg, publicKey.fingerprint());
+            return null;
+        }
+
+        return verifiedToken.serviceToken;
+    }
+
+    VerifiedServiceToken verifyServiceToken(final String signedToken, KeyStore keyStore, StringBuilder errMsg) {
+
         PrincipalToken serviceToken;
         try {
             serviceToken = new PrincipalToken(signedToken);
@@ -491,36 +738,148 @@ public class InstanceWorkloadIPTokenProvider implements InstanceProvider {
 
         // get the public key for this token to validate signature
 
-        final String publicKey = keyStore.getPublicKey(tokenDomain, tokenName,
+        final ServicePublicKey publicKey = getServicePublicKey(keyStore, tokenDomain, tokenName,
                 serviceToken.getKeyId());
 
-        if (!serviceToken.validate(publicKey, 300, false, errMsg)) {
+        if (!serviceToken.validate(publicKey == null ? null : publicKey.pem, 300, false, errMsg)) {
             return null;
         }
 
-        // finally we want to make sure the public key in the csr
-        // matches the public key registered in Athenz
+        final VerifiedServiceToken verifiedToken = new VerifiedServiceToken(signedToken, serviceToken, publicKey);
+        cacheVerifiedServiceToken(verifiedToken);
+        return verifiedToken;
+    }
 
-        if (!validatePublicKeys(publicKey, csrPublicKey)) {
-            errMsg.append("CSR and Athenz public key mismatch");
-            LOGGER.error(errMsg.toString());
+    VerifiedServiceToken getVerifiedServiceToken(final String signedToken) {
+
+        if (serviceTokenCache == null) {
+            return null;
+        }
+        final String signature = tokenSignature(signedToken);
+        if (signature == null) {
             return null;
         }
 
-        return serviceToken;
+        // the signature only selects the entry. the entry is only used
+        // for the exact same token that we verified before
+
+        final VerifiedServiceToken verifiedToken = serviceTokenCache.get(signature);
+        return verifiedToken != null && verifiedToken.signedToken.equals(signedToken) ? verifiedToken : null;
+    }
+
+    void cacheVerifiedServiceToken(final VerifiedServiceToken verifiedToken) {
+
+        if (serviceTokenCache == null || verifiedToken.signedToken.length() > SERVICE_TOKEN_CACHE_MAX_TOKEN_LENGTH) {
+            return;
+        }
+        final String signature = tokenSignature(verifiedToken.signedToken);
+        if (signature == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long expiryTime = Math.min(TimeUnit.SECONDS.toMillis(verifiedToken.serviceToken.getExpiryTime()),
+                now + serviceTokenCache.getTtlMillis());
+        if (expiryTime > now) {
+            serviceTokenCache.put(signature, verifiedToken, expiryTime);
+        }
+    }
+
+    /**
+     * @param signedToken signed service token
+     * @return the signature component of the token or null if the token
+     *      has no signature
+     */
+    static String tokenSignature(final String signedToken) {
+        final int idx = signedToken.lastIndexOf(";s=");
+        return idx == -1 || idx + 3 == signedToken.length() ? null : signedToken.substring(idx + 3);
     }
 
     public boolean validatePublicKeys(final String athenzPublicKey, final String csrPublicKey) {
 
-        // we are going to remove all whitespace, new lines
-        // in order to compare the pem encoded keys
+        // we compare the DER bytes of the pem encoded keys so any
+        // whitespace and new lines in the encodings are ignored
+
+        final byte[] athenzKeyDer = ServicePublicKey.decodePem(athenzPublicKey);
+        final byte[] csrKeyDer = ServicePublicKey.decodePem(csrPublicKey);
+        return athenzKeyDer != null && csrKeyDer != null && MessageDigest.isEqual(athenzKeyDer, csrKeyDer);
+    }
+
+    /**
+     * returns the public key registered in athenz for the given service
+     * either from our cache or from the key store
+     * @param keyStore athenz key store
+     * @param domainName name of the domain
+     * @param serviceName name of the service
+     * @param keyId id of the public key
+     * @return the public key or null if the key is not registered
+     */
+    ServicePublicKey getServicePublicKey(KeyStore keyStore, final String domainName,
+            final String serviceName, final String keyId) {
+
+        final PublicKeyCacheKey cacheKey = publicKeyCache == null ? null
+                : new PublicKeyCacheKey(domainName, serviceName, keyId);
+        if (cacheKey != null) {
+            final ServicePublicKey publicKey = publicKeyCache.get(cacheKey);
+            if (publicKey != null) {
+                return publicKey;
+            }
+        }
+
+        final String pem = keyStore.getPublicKey(domainName, serviceName, keyId);
+        if (pem == null) {
+            return null;
+        }
+        final ServicePublicKey publicKey = new ServicePublicKey(pem);
+        if (cacheKey != null) {
+            publicKeyCache.put(cacheKey, publicKey);
+        }
+        return publicKey;
+    }
+
+    static final class VerifiedServiceToken {
+
+        final String signedToken;
+        final PrincipalToken serviceToken;
+        final ServicePublicKey publicKey;
+
+        VerifiedServiceToken(final String signedToken, final PrincipalToken serviceToken,
+                final ServicePublicKey publicKey) {
+            this.signedToken = signedToken;
+            this.serviceToken = serviceToken;
+            this.publicKey = publicKey;
+        }
+    }
 
-        Matcher matcher = WHITESPACE_PATTERN.matcher(athenzPublicKey);
-        final String normAthenzPublicKey = matcher.replaceAll("");
+    static final class PublicKeyCacheKey {
 
-        matcher = WHITESPACE_PATTERN.matcher(csrPublicKey);
-        final String normCsrPublicKey = matcher.replaceAll("");
+        private final String domainName;
+        private final String serviceName;
+        private final String keyId;
+        private final int hashCode;
+
+        PublicKeyCacheKey(final String domainName, final String serviceName, final String keyId) {
+            this.domainName = domainName;
+            this.serviceName = serviceName;
+            this.keyId = keyId;
+            this.hashCode = Objects.hash(domainName, serviceName, keyId);
+        }
 
-        return normAthenzPublicKey.equals(normCsrPublicKey);
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PublicKeyCacheKey)) {
+                return false;
+            }
+            PublicKeyCacheKey other = (PublicKeyCacheKey) obj;
+            return hashCode == other.hashCode && Objects.equals(keyId, other.keyId)
+                    && domainName.equals(other.domainName) && serviceName.equals(other.serviceName);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
     }
 }
@@ -0,0 +1,38 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import io.jsonwebtoken.JwtParser;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Settings of a single Jenkins controller oidc issuer along with the
+ * jwt parser that verifies the tokens with the issuer's keys. The job
+ * subjects of additional issuers are authorized with the issuer included
+ * in the resource so a controller can't obtain certificates for jobs of
+ * another controller with the same job subject.
+ */
+final class JenkinsIssuer {
+
+    final String issuer;
+    final String audience;
+    final LongSupplier bootTimeOffsetSeconds;
+    final JwtParser tokenParser;
+    final String resourcePrefix;
+
+    /**
+     * @param issuer issuer uri
+     * @param audience expected token audience
+     * @param bootTimeOffsetSeconds how old the token issue time may be
+     * @param tokenParser parser verifying tokens with the issuer's keys
+     * @param resourcePrefix prefix added before the job subject in the
+     *      authorization resource, empty for the default issuer
+     */
+    JenkinsIssuer(final String issuer, final String audience, LongSupplier bootTimeOffsetSeconds,
+            JwtParser tokenParser, final String resourcePrefix) {
+        this.issuer = issuer;
+        this.audience = audience;
+        this.bootTimeOffsetSeconds = bootTimeOffsetSeconds;
+        this.tokenParser = tokenParser;
+        this.resourcePrefix = resourcePrefix;
+    }
+}
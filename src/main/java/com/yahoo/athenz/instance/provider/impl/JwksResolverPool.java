@@ -0,0 +1,80 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Function;
+
+/**
+ * Pool of jwks key resolvers shared by all issuers of a provider. Issuers
+ * with the same jwks uri share a single resolver and key set, and all
+ * resolvers refresh their keys on one small shared scheduler instead of
+ * a thread per issuer.
+ */
+class JwksResolverPool implements Closeable {
+
+    private final ConcurrentHashMap<String, RefreshingJwksKeyResolver> resolvers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final Function<String, Callable<String>> fetcherFactory;
+    private final long refreshIntervalSeconds;
+    private final double refreshJitter;
+    private final long unknownKeyRefreshIntervalSeconds;
+    private final long unknownKeyWaitMillis;
+
+    /**
+     * @param threads number of threads for the shared refresh scheduler
+     * @param fetcherFactory returns the jwks fetcher for the given uri
+     * @param refreshIntervalSeconds interval between two refreshes
+     * @param refreshJitter random jitter as a fraction of the interval (e.g. 0.1)
+     * @param unknownKeyRefreshIntervalSeconds minimum interval between refreshes triggered by unknown key ids
+     * @param unknownKeyWaitMillis how long a request waits for a refresh triggered by an unknown key id
+     */
+    JwksResolverPool(int threads, Function<String, Callable<String>> fetcherFactory, long refreshIntervalSeconds,
+            double refreshJitter, long unknownKeyRefreshIntervalSeconds, long unknownKeyWaitMillis) {
+        this.fetcherFactory = fetcherFactory;
+        this.refreshIntervalSeconds = refreshIntervalSeconds;
+        this.refreshJitter = refreshJitter;
+        this.unknownKeyRefreshIntervalSeconds = unknownKeyRefreshIntervalSeconds;
+        this.unknownKeyWaitMillis = unknownKeyWaitMillis;
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param jwksUri jwks uri of the issuer
+     * @return the shared, already started resolver for the given uri
+     */
+    RefreshingJwksKeyResolver getResolver(final String jwksUri) {
+        return resolvers.computeIfAbsent(jwksUri, uri -> {
+            RefreshingJwksKeyResolver resolver = new RefreshingJwksKeyResolver(uri, fetcherFactory.apply(uri));
+            start(resolver);
+            return resolver;
+        });
+    }
+
+    /**
+     * start the background refresh of a resolver that is not shared
+     * through the pool, e.g. because its jwks uri is discovered later,
+     * on our shared scheduler
+     * @param resolver resolver to start
+     */
+    void start(RefreshingJwksKeyResolver resolver) {
+        resolver.start(scheduler, refreshIntervalSeconds, refreshJitter,
+                unknownKeyRefreshIntervalSeconds, unknownKeyWaitMillis);
+    }
+
+    int size() {
+        return resolvers.size();
+    }
+
+    @Override
+    public void close() {
+        resolvers.values().forEach(RefreshingJwksKeyResolver::close);
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,74 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.SigningKeyResolver;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+
+import java.security.Key;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes the signature verification of a token to its key based on the
+ * unverified kid header. Resolved keys from all configured sources are
+ * kept in a single merged index so a token is verified exactly once
+ * against the right key instead of parsing it against each source in
+ * turn. Sources are only consulted, in the configured order, the first
+ * time a key id is seen. Unknown key ids are never added to the index.
+ */
+final class KeyIdSigningKeyRouter extends SigningKeyResolverAdapter {
+
+    private final List<SigningKeyResolver> sources;
+    private final ConcurrentHashMap<String, Key> keyIndex = new ConcurrentHashMap<>();
+
+    KeyIdSigningKeyRouter(SigningKeyResolver... sources) {
+        this.sources = Arrays.asList(sources);
+    }
+
+    @Override
+    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+        final String keyId = header.getKeyId();
+        Key key = keyId == null ? null : keyIndex.get(keyId);
+        if (key != null) {
+            return key;
+        }
+        for (SigningKeyResolver source : sources) {
+            key = source.resolveSigningKey(header, claims);
+            if (key != null) {
+                if (keyId != null) {
+                    keyIndex.put(keyId, key);
+                }
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Key resolveSigningKey(JwsHeader header, String plaintext) {
+        return null;
+    }
+
+    /**
+     * drop the given key id from the index so the next token with
+     * this key id is resolved from the sources again
+     * @param keyId key identifier
+     */
+    void invalidate(final String keyId) {
+        keyIndex.remove(keyId);
+    }
+
+    /**
+     * drop all keys from the index, e.g. after one of the sources
+     * has refreshed its key set
+     */
+    void invalidateAll() {
+        keyIndex.clear();
+    }
+
+    int size() {
+        return keyIndex.size();
+    }
+}
@@ -0,0 +1,222 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local snapshot of the discovered openid metadata and jwks of an issuer
+ * so the provider can verify tokens right after a restart without waiting
+ * for the network. The snapshot is a small json document which is written
+ * to a temporary file and atomically moved in place after every successful
+ * fetch so readers never see a partially written file. Both the jwks uri
+ * and the jwks document are stored with their fetch timestamps along with
+ * the uri the document was fetched from. Snapshots with a jwks document
+ * older than the configured maximum age are ignored so keys the issuer
+ * has since retired are not trusted after a long outage.
+ */
+class OidcSnapshotStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OidcSnapshotStore.class);
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final long MAX_SNAPSHOT_SIZE = 1024 * 1024;
+
+    static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    static final String FIELD_ISSUER = "issuer";
+    static final String FIELD_JWKS_URI = "jwks_uri";
+    static final String FIELD_JWKS_URI_FETCH_TIME = "jwks_uri_fetch_time";
+    static final String FIELD_JWKS = "jwks";
+    static final String FIELD_JWKS_SOURCE_URI = "jwks_source_uri";
+    static final String FIELD_JWKS_FETCH_TIME = "jwks_fetch_time";
+
+    private final Path path;
+    private final String issuer;
+    private final long maxAgeMillis;
+    private String jwksUri;
+    private long jwksUriFetchTime;
+    private String jwks;
+    private String jwksSourceUri;
+    private long jwksFetchTime;
+
+    OidcSnapshotStore(final Path path, final String issuer) {
+        this(path, issuer, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * @param path snapshot file
+     * @param issuer the issuer the snapshot is for
+     * @param maxAgeMillis maximum age of the jwks document in a snapshot
+     *      we still load. 0 or negative value disables the check
+     */
+    OidcSnapshotStore(final Path path, final String issuer, long maxAgeMillis) {
+        this.path = path;
+        this.issuer = issuer;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * load and validate the snapshot file. a snapshot for a different
+     * issuer, with a jwks document without any usable keys or older than
+     * our maximum age, or one that cannot be parsed is ignored
+     * @return true if a valid snapshot was loaded
+     */
+    synchronized boolean load() {
+
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+
+        JsonNode snapshot;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size == 0 || size > MAX_SNAPSHOT_SIZE) {
+                LOGGER.error("Ignoring oidc snapshot {} with invalid size {}", path, size);
+                return false;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            snapshot = JSON_MAPPER.readTree(StandardCharsets.UTF_8.decode(buffer).toString());
+        } catch (IOException ex) {
+            LOGGER.error("Unable to read oidc snapshot {}: {}", path, ex.getMessage());
+            return false;
+        }
+
+        if (!issuer.equals(snapshot.path(FIELD_ISSUER).asText(null))) {
+            LOGGER.error("Ignoring oidc snapshot {} for a different issuer", path);
+            return false;
+        }
+
+        final String snapshotJwksUri = snapshot.path(FIELD_JWKS_URI).asText(null);
+        final String snapshotJwks = snapshot.path(FIELD_JWKS).asText(null);
+        if (snapshotJwksUri == null || snapshotJwks == null) {
+            LOGGER.error("Ignoring incomplete oidc snapshot {}", path);
+            return false;
+        }
+
+        // snapshots without a fetch time are treated as too old
+
+        final long snapshotJwksFetchTime = snapshot.path(FIELD_JWKS_FETCH_TIME).asLong(0);
+        final long age = System.currentTimeMillis() - snapshotJwksFetchTime;
+        if (maxAgeMillis > 0 && age > maxAgeMillis) {
+            LOGGER.error("Ignoring oidc snapshot {} with jwks fetched {} secs ago, max age is {} secs",
+                    path, TimeUnit.MILLISECONDS.toSeconds(age), TimeUnit.MILLISECONDS.toSeconds(maxAgeMillis));
+            return false;
+        }
+        try {
+            if (RefreshingJwksKeyResolver.parseJwks(snapshotJwks).isEmpty()) {
+                LOGGER.error("Ignoring oidc snapshot {} without any valid keys", path);
+                return false;
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Ignoring oidc snapshot {} with invalid jwks: {}", path, ex.getMessage());
+            return false;
+        }
+
+        jwksUri = snapshotJwksUri;
+        jwksUriFetchTime = snapshot.path(FIELD_JWKS_URI_FETCH_TIME).asLong(0);
+        jwks = snapshotJwks;
+        jwksSourceUri = snapshot.path(FIELD_JWKS_SOURCE_URI).asText(snapshotJwksUri);
+        jwksFetchTime = snapshotJwksFetchTime;
+        return true;
+    }
+
+    /**
+     * record a newly discovered jwks uri and write the snapshot
+     * @param jwksUri discovered jwks uri
+     */
+    synchronized void updateJwksUri(final String jwksUri) {
+        this.jwksUri = jwksUri;
+        this.jwksUriFetchTime = System.currentTimeMillis();
+        save();
+    }
+
+    /**
+     * record a newly fetched jwks document and write the snapshot
+     * @param jwksUri the uri the document was fetched from
+     * @param jwks the jwks document
+     */
+    synchronized void updateJwks(final String jwksUri, final String jwks) {
+        // the keys are always fetched from the uri currently in use
+
+        if (!jwksUri.equals(this.jwksUri)) {
+            this.jwksUri = jwksUri;
+            this.jwksUriFetchTime = System.currentTimeMillis();
+        }
+        this.jwks = jwks;
+        this.jwksSourceUri = jwksUri;
+        this.jwksFetchTime = System.currentTimeMillis();
+        save();
+    }
+
+    boolean save() {
+
+        // we only write complete snapshots
+
+        if (jwksUri == null || jwks == null) {
+            return false;
+        }
+
+        ObjectNode snapshot = JSON_MAPPER.createObjectNode();
+        snapshot.put(FIELD_ISSUER, issuer);
+        snapshot.put(FIELD_JWKS_URI, jwksUri);
+        snapshot.put(FIELD_JWKS_URI_FETCH_TIME, jwksUriFetchTime);
+        snapshot.put(FIELD_JWKS, jwks);
+        snapshot.put(FIELD_JWKS_SOURCE_URI, jwksSourceUri);
+        snapshot.put(FIELD_JWKS_FETCH_TIME, jwksFetchTime);
+
+        Path tempFile = null;
+        try {
+            final Path directory = path.toAbsolutePath().getParent();
+            tempFile = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(JSON_MAPPER.writeValueAsBytes(snapshot)));
+                channel.force(true);
+            }
+            Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error("Unable to write oidc snapshot {}: {}", path, ex.getMessage());
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                }
+            }
+            return false;
+        }
+    }
+
+    synchronized String getJwksUri() {
+        return jwksUri;
+    }
+
+    synchronized long getJwksUriFetchTime() {
+        return jwksUriFetchTime;
+    }
+
+    /**
+     * @param jwksUri the jwks uri the caller is going to use
+     * @return the jwks document if it was fetched from the given uri otherwise null
+     */
+    synchronized String getJwks(final String jwksUri) {
+        return jwksUri != null && jwksUri.equals(jwksSourceUri) ? jwks : null;
+    }
+
+    synchronized long getJwksFetchTime() {
+        return jwksFetchTime;
+    }
+}
@@ -0,0 +1,43 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+/**
+ * Receives the metrics of our instance providers: the latency of each
+ * validation stage and the number of rejected requests per reason.
+ * The methods are called on the request path so implementations must be
+ * thread-safe and should neither block nor allocate.
+ */
+public interface ProviderMetrics {
+
+    enum Stage {
+        CONFIRM_INSTANCE,
+        TOKEN_VALIDATION,
+        JWKS_FETCH,
+        AUTHORIZATION,
+        HOSTNAME_RESOLUTION,
+        SAN_VALIDATION
+    }
+
+    ProviderMetrics NOOP = new ProviderMetrics() {
+
+        @Override
+        public void recordLatency(Stage stage, long nanos) {
+        }
+
+        @Override
+        public void recordRejection(ProviderRejectionException.Reason reason) {
+        }
+    };
+
+    /**
+     * record the time spent in the given validation stage
+     * @param stage validation stage
+     * @param nanos elapsed time in nanoseconds
+     */
+    void recordLatency(Stage stage, long nanos);
+
+    /**
+     * record a rejected request
+     * @param reason rejection reason
+     */
+    void recordRejection(ProviderRejectionException.Reason reason);
+}
@@ -0,0 +1,57 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import com.yahoo.athenz.instance.provider.ResourceException;
+
+/**
+ * Forbidden error thrown by our instance providers when rejecting a
+ * request. The exception carries a reason code along with the message
+ * and does not capture a stack trace: the rejection is an expected
+ * outcome and the trace would only point at the provider check, while
+ * capturing it dominates the cost of rejecting a request. A new
+ * instance is created for every rejection since the thrown exception
+ * may still be modified by its callers, e.g. with suppressed exceptions.
+ */
+public final class ProviderRejectionException extends ResourceException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        AUTHORIZER_UNAVAILABLE,
+        SERVICE_NOT_SUPPORTED,
+        SAN_IP_NOT_ALLOWED,
+        HOSTNAME_NOT_ALLOWED,
+        INVALID_SAN_URI,
+        MISSING_ATTESTATION_DATA,
+        INVALID_ATTESTATION_DATA,
+        INVALID_IP_ADDRESS,
+        INVALID_HOSTNAME,
+        INVALID_SAN_DNS,
+        REFRESH_NOT_SUPPORTED
+    }
+
+    private final Reason reason;
+    private final String detail;
+
+    /**
+     * @param reason static reason code for the rejection
+     * @param detail rejection message returned to the client
+     */
+    public ProviderRejectionException(Reason reason, final String detail) {
+        super(ResourceException.FORBIDDEN, detail);
+        this.reason = reason;
+        this.detail = detail;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,490 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.AlgorithmParameters;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Signing key resolver for a JWKS uri that refreshes the key set on a
+ * background thread. The refresh interval is randomized with the given
+ * jitter so a fleet of servers does not hit the issuer at the same time.
+ * If the issuer is not available the last good key set is kept. A token
+ * with an unknown key id triggers an extra refresh, but at most once per
+ * configured interval and with all concurrent requests waiting for the
+ * same single fetch. Keys that declare an alg are only used for tokens
+ * signed with that algorithm.
+ */
+class RefreshingJwksKeyResolver extends SigningKeyResolverAdapter implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RefreshingJwksKeyResolver.class);
+
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final Duration HTTP_TIMEOUT = Duration.ofSeconds(10);
+
+    // a jwks document only carries a handful of keys so anything larger
+    // is rejected instead of being buffered in memory
+
+    static final int MAX_JWKS_SIZE = 256 * 1024;
+
+    private static final Set<String> RSA_ALGORITHMS = Set.of("RS256", "RS384", "RS512", "PS256", "PS384", "PS512");
+
+    private volatile JwksSource source;
+    private final ConcurrentHashMap<String, JsonWebKey> staticKeys = new ConcurrentHashMap<>();
+    private final AtomicReference<CompletableFuture<Boolean>> inflightRefresh = new AtomicReference<>();
+    private final AtomicLong lastUnknownKeyRefresh = new AtomicLong(0);
+    private volatile Map<String, JsonWebKey> jwksKeys = Collections.emptyMap();
+    private volatile ScheduledExecutorService scheduler;
+    private boolean ownsScheduler;
+    private volatile BiConsumer<String, String> refreshListener;
+    private long refreshIntervalMillis;
+    private double refreshJitter;
+    private long unknownKeyRefreshIntervalMillis;
+    private long unknownKeyWaitMillis;
+
+    /**
+     * @param jwksUri the jwks uri of the issuer
+     * @param fetcher returns the current jwks document from the issuer
+     */
+    RefreshingJwksKeyResolver(final String jwksUri, final Callable<String> fetcher) {
+        this.source = new JwksSource(jwksUri, fetcher);
+    }
+
+    /**
+     * switch to a new jwks uri, e.g. after the issuer's openid configuration
+     * has been discovered. the current keys are served until the first
+     * refresh from the new uri succeeds
+     * @param jwksUri the new jwks uri of the issuer
+     * @param fetcher returns the current jwks document from the new uri
+     */
+    void setJwksUri(final String jwksUri, final Callable<String> fetcher) {
+        source = new JwksSource(jwksUri, fetcher);
+        final ScheduledExecutorService executor = scheduler;
+        if (executor != null) {
+            try {
+                executor.execute(this::refresh);
+            } catch (RejectedExecutionException ignored) {
+                // the resolver has been closed
+            }
+        }
+    }
+
+    /**
+     * create a fetcher that retrieves the jwks document with a http get request
+     * @param jwksUri the jwks uri of the issuer
+     * @param sslContext optional ssl context for the connection
+     * @return fetcher for the given uri
+     */
+    static Callable<String> httpFetcher(final String jwksUri, SSLContext sslContext) {
+        HttpClient.Builder builder = HttpClient.newBuilder().connectTimeout(HTTP_TIMEOUT);
+        if (sslContext != null) {
+            builder.sslContext(sslContext);
+        }
+        final HttpClient httpClient = builder.build();
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(jwksUri)).timeout(HTTP_TIMEOUT).GET().build();
+        return () -> {
+            HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() != 200) {
+                    throw new IOException("unexpected status code " + response.statusCode() + " from " + jwksUri);
+                }
+                return readJwks(body, jwksUri);
+            }
+        };
+    }
+
+    /**
+     * read the jwks document from the response body. we never read more
+     * than one byte over our limit so a misbehaving issuer cannot make
+     * us buffer an unbounded response
+     * @param body response body stream
+     * @param jwksUri the jwks uri of the issuer for error messages
+     * @return jwks document
+     * @throws IOException if the document cannot be read or exceeds MAX_JWKS_SIZE bytes
+     */
+    static String readJwks(final InputStream body, final String jwksUri) throws IOException {
+        final byte[] data = body.readNBytes(MAX_JWKS_SIZE + 1);
+        if (data.length > MAX_JWKS_SIZE) {
+            throw new IOException("jwks from " + jwksUri + " exceeds " + MAX_JWKS_SIZE + " bytes");
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * start the background refresh of the key set. the first refresh
+     * is executed right away on the background thread
+     * @param refreshIntervalSeconds interval between two refreshes
+     * @param refreshJitter random jitter as a fraction of the interval (e.g. 0.1)
+     * @param unknownKeyRefreshIntervalSeconds minimum interval between refreshes triggered by unknown key ids
+     * @param unknownKeyWaitMillis how long a request waits for a refresh triggered by an unknown key id
+     */
+    void start(long refreshIntervalSeconds, double refreshJitter,
+            long unknownKeyRefreshIntervalSeconds, long unknownKeyWaitMillis) {
+        start(null, refreshIntervalSeconds, refreshJitter, unknownKeyRefreshIntervalSeconds, unknownKeyWaitMillis);
+    }
+
+    /**
+     * start the background refresh of the key set on the given scheduler
+     * which may be shared with other resolvers. the shared scheduler is
+     * not shut down when the resolver is closed
+     * @param sharedScheduler scheduler to run the refresh on or null to create our own thread
+     * @param refreshIntervalSeconds interval between two refreshes
+     * @param refreshJitter random jitter as a fraction of the interval (e.g. 0.1)
+     * @param unknownKeyRefreshIntervalSeconds minimum interval between refreshes triggered by unknown key ids
+     * @param unknownKeyWaitMillis how long a request waits for a refresh triggered by an unknown key id
+     */
+    synchronized void start(ScheduledExecutorService sharedScheduler, long refreshIntervalSeconds,
+            double refreshJitter, long unknownKeyRefreshIntervalSeconds, long unknownKeyWaitMillis) {
+
+        if (scheduler != null) {
+            return;
+        }
+        this.refreshIntervalMillis = TimeUnit.SECONDS.toMillis(refreshIntervalSeconds);
+        this.refreshJitter = Math.max(0.0, Math.min(refreshJitter, 1.0));
+        this.unknownKeyRefreshIntervalMillis = TimeUnit.SECONDS.toMillis(unknownKeyRefreshIntervalSeconds);
+        this.unknownKeyWaitMillis = unknownKeyWaitMillis;
+
+        // the initial refresh counts as the last unknown key refresh so
+        // early requests do not trigger another fetch right away
+
+        lastUnknownKeyRefresh.set(System.currentTimeMillis());
+        ownsScheduler = sharedScheduler == null;
+        scheduler = ownsScheduler ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "jwks-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }) : sharedScheduler;
+        scheduler.execute(this::scheduledRefresh);
+    }
+
+    private void scheduledRefresh() {
+        refresh();
+        final ScheduledExecutorService executor = scheduler;
+        if (executor != null && refreshIntervalMillis > 0) {
+            try {
+                executor.schedule(this::scheduledRefresh, nextRefreshDelay(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException ignored) {
+                // the resolver has been closed
+            }
+        }
+    }
+
+    long nextRefreshDelay() {
+        final double jitter = refreshJitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return Math.max(1000, (long) (refreshIntervalMillis * (1 + jitter)));
+    }
+
+    /**
+     * fetch the jwks document and replace the current key set. if the issuer
+     * is not available or returns no usable keys the current set is kept
+     * @return true if the key set was replaced
+     */
+    boolean refresh() {
+        final JwksSource current = source;
+        final String jwksUri = current.jwksUri;
+        final String jwks;
+        final Map<String, JsonWebKey> keys;
+        try {
+            jwks = current.fetcher.call();
+            keys = parseJwks(jwks);
+        } catch (Exception ex) {
+            LOGGER.error("Unable to refresh jwks from {}, keeping {} current keys: {}",
+                    jwksUri, jwksKeys.size(), ex.getMessage());
+            return false;
+        }
+        if (keys.isEmpty()) {
+            LOGGER.error("No valid keys in jwks from {}, keeping {} current keys", jwksUri, jwksKeys.size());
+            return false;
+        }
+        jwksKeys = Collections.unmodifiableMap(keys);
+        LOGGER.debug("Refreshed {} keys from jwks {}", keys.size(), jwksUri);
+        final BiConsumer<String, String> listener = refreshListener;
+        if (listener != null) {
+            listener.accept(jwksUri, jwks);
+        }
+        return true;
+    }
+
+    /**
+     * load the initial key set from a previously fetched jwks document,
+     * e.g. from a local snapshot, before the first refresh completes
+     * @param jwks the jwks document
+     * @return true if the document contained valid keys
+     */
+    boolean loadKeys(final String jwks) {
+        try {
+            final Map<String, JsonWebKey> keys = parseJwks(jwks);
+            if (keys.isEmpty()) {
+                return false;
+            }
+            jwksKeys = Collections.unmodifiableMap(keys);
+            return true;
+        } catch (IOException ex) {
+            LOGGER.error("Unable to load jwks keys: {}", ex.getMessage());
+            return false;
+        }
+    }
+
+    static Map<String, JsonWebKey> parseJwks(final String jwks) throws IOException {
+
+        Map<String, JsonWebKey> keys = new HashMap<>();
+        JsonNode keyList = JSON_MAPPER.readTree(jwks).path("keys");
+        for (JsonNode jwk : keyList) {
+            final String keyId = jwk.path("kid").asText(null);
+            final String use = jwk.path("use").asText("sig");
+            if (keyId == null || !"sig".equals(use)) {
+                continue;
+            }
+            try {
+                PublicKey publicKey = parseJwk(jwk);
+                if (publicKey != null) {
+                    keys.put(keyId, new JsonWebKey(publicKey, jwk.path("alg").asText(null)));
+                }
+            } catch (Exception ex) {
+                LOGGER.error("Unable to parse jwk with key id {}: {}", keyId, ex.getMessage());
+            }
+        }
+        return keys;
+    }
+
+    static PublicKey parseJwk(final JsonNode jwk) throws Exception {
+
+        // the optional alg must be one we support for the key type
+        // and for ec keys it must match the curve of the key
+
+        final String algorithm = jwk.path("alg").asText(null);
+        switch (jwk.path("kty").asText("")) {
+            case "RSA":
+                if (algorithm != null && !RSA_ALGORITHMS.contains(algorithm)) {
+                    throw new IllegalArgumentException("unsupported algorithm for rsa key: " + algorithm);
+                }
+                return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(
+                        decodeInteger(jwk, "n"), decodeInteger(jwk, "e")));
+            case "EC":
+                final String curve = jwk.path("crv").asText("");
+                if (algorithm != null && !algorithm.equals(curveAlgorithm(curve))) {
+                    throw new IllegalArgumentException("unsupported algorithm for " + curve + " key: " + algorithm);
+                }
+                AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+                parameters.init(new ECGenParameterSpec(curveName(curve)));
+                ECPoint point = new ECPoint(decodeInteger(jwk, "x"), decodeInteger(jwk, "y"));
+                return KeyFactory.getInstance("EC").generatePublic(new ECPublicKeySpec(point,
+                        parameters.getParameterSpec(ECParameterSpec.class)));
+            default:
+                return null;
+        }
+    }
+
+    private static String curveName(final String curve) {
+        switch (curve) {
+            case "P-256":
+                return "secp256r1";
+            case "P-384":
+                return "secp384r1";
+            case "P-521":
+                return "secp521r1";
+            default:
+                throw new IllegalArgumentException("unsupported curve: " + curve);
+        }
+    }
+
+    private static String curveAlgorithm(final String curve) {
+        switch (curve) {
+            case "P-256":
+                return "ES256";
+            case "P-384":
+                return "ES384";
+            case "P-521":
+                return "ES512";
+            default:
+                return null;
+        }
+    }
+
+    private static BigInteger decodeInteger(final JsonNode jwk, final String field) {
+        final String value = jwk.path(field).asText(null);
+        if (value == null) {
+            throw new IllegalArgumentException("missing field: " + field);
+        }
+        return new BigInteger(1, Base64.getUrlDecoder().decode(value));
+    }
+
+    @Override
+    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+        final String keyId = header.getKeyId();
+        if (keyId == null) {
+            return null;
+        }
+        JsonWebKey jwk = getKey(keyId);
+        if (jwk == null && refreshForUnknownKey()) {
+            jwk = getKey(keyId);
+        }
+        if (jwk == null) {
+            return null;
+        }
+        if (jwk.algorithm != null && !jwk.algorithm.equals(header.getAlgorithm())) {
+            LOGGER.error("Key {} from jwks {} is not valid for algorithm {}", keyId,
+                    source.jwksUri, header.getAlgorithm());
+            return null;
+        }
+        return jwk.publicKey;
+    }
+
+    /**
+     * refresh the key set for a token with an unknown key id. only one
+     * refresh is executed at a time and refreshes are rate limited so
+     * tokens with random key ids cannot be used to flood the issuer.
+     * the fetch always runs on the background thread and never on the
+     * request thread, so without one we rely on the scheduled refresh
+     * @return true if the key set was refreshed
+     */
+    boolean refreshForUnknownKey() {
+
+        final ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            return false;
+        }
+        CompletableFuture<Boolean> refresh = inflightRefresh.get();
+        if (refresh == null) {
+            final long now = System.currentTimeMillis();
+            final long last = lastUnknownKeyRefresh.get();
+            if (now - last < unknownKeyRefreshIntervalMillis || !lastUnknownKeyRefresh.compareAndSet(last, now)) {
+                return false;
+            }
+            CompletableFuture<Boolean> newRefresh = new CompletableFuture<>();
+            if (!inflightRefresh.compareAndSet(null, newRefresh)) {
+                refresh = inflightRefresh.get();
+            } else {
+                refresh = newRefresh;
+                Runnable task = () -> {
+                    try {
+                        newRefresh.complete(refresh());
+                    } finally {
+                        inflightRefresh.compareAndSet(newRefresh, null);
+                    }
+                };
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException ex) {
+                    // the resolver has been closed
+                    inflightRefresh.compareAndSet(newRefresh, null);
+                    newRefresh.complete(false);
+                    return false;
+                }
+            }
+        }
+        if (refresh == null) {
+            return false;
+        }
+        try {
+            return refresh.get(unknownKeyWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @param refreshListener invoked with the jwks uri and document after
+     *      every successful refresh of the key set
+     */
+    void setRefreshListener(BiConsumer<String, String> refreshListener) {
+        this.refreshListener = refreshListener;
+    }
+
+    /**
+     * add a public key that is not part of the jwks document
+     * @param keyId key identifier
+     * @param publicKey public key
+     */
+    public void addPublicKey(final String keyId, final PublicKey publicKey) {
+        staticKeys.put(keyId, new JsonWebKey(publicKey, null));
+    }
+
+    public PublicKey getPublicKey(final String keyId) {
+        final JsonWebKey jwk = getKey(keyId);
+        return jwk != null ? jwk.publicKey : null;
+    }
+
+    private JsonWebKey getKey(final String keyId) {
+        final JsonWebKey jwk = jwksKeys.get(keyId);
+        return jwk != null ? jwk : staticKeys.get(keyId);
+    }
+
+    public String getJwksUri() {
+        return source.jwksUri;
+    }
+
+    int getKeyCount() {
+        return jwksKeys.size();
+    }
+
+    @Override
+    public synchronized void close() {
+
+        // with a shared scheduler our pending refresh still runs once
+        // but it does not reschedule itself once the scheduler is cleared
+
+        if (scheduler != null && ownsScheduler) {
+            scheduler.shutdownNow();
+        }
+        scheduler = null;
+    }
+
+    static final class JsonWebKey {
+
+        final PublicKey publicKey;
+        final String algorithm;
+
+        JsonWebKey(final PublicKey publicKey, final String algorithm) {
+            this.publicKey = publicKey;
+            this.algorithm = algorithm;
+        }
+    }
+
+    private static final class JwksSource {
+
+        final String jwksUri;
+        final Callable<String> fetcher;
+
+        JwksSource(final String jwksUri, final Callable<String> fetcher) {
+            this.jwksUri = jwksUri;
+            this.fetcher = fetcher;
+        }
+    }
+}
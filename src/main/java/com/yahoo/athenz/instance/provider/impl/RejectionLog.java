@@ -0,0 +1,65 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Samples the log lines of rejected provider requests per rejection
+ * reason. The first rejection for a reason after a quiet period is logged
+ * right away with its message, while any further rejections for the same
+ * reason within the interval are only counted and reported along with
+ * the next logged rejection. Recording a rejection does not allocate, so
+ * a flood of rejected requests costs about as much as successful ones.
+ */
+final class RejectionLog {
+
+    private static final int REASONS = ProviderRejectionException.Reason.values().length;
+
+    private final Logger logger;
+    private final long intervalMillis;
+    private final AtomicLongArray nextLogTimes = new AtomicLongArray(REASONS);
+    private final AtomicLongArray suppressedCounts = new AtomicLongArray(REASONS);
+
+    /**
+     * @param logger logger for the rejection messages
+     * @param intervalSeconds minimum interval between log lines for the
+     *      same reason. 0 logs every rejection
+     */
+    RejectionLog(final Logger logger, long intervalSeconds) {
+        this.logger = logger;
+        this.intervalMillis = TimeUnit.SECONDS.toMillis(intervalSeconds);
+    }
+
+    /**
+     * record the given rejection and log it unless we have already
+     * logged a rejection for the same reason within the interval
+     * @param rejection rejection thrown by the provider
+     * @return true if the rejection was logged
+     */
+    boolean record(final ProviderRejectionException rejection) {
+        return record(rejection, System.currentTimeMillis());
+    }
+
+    boolean record(final ProviderRejectionException rejection, long now) {
+
+        final int index = rejection.getReason().ordinal();
+        if (intervalMillis > 0) {
+            final long next = nextLogTimes.get(index);
+            if (now < next || !nextLogTimes.compareAndSet(index, next, now + intervalMillis)) {
+                suppressedCounts.incrementAndGet(index);
+                return false;
+            }
+        }
+
+        final long suppressed = suppressedCounts.getAndSet(index, 0);
+        if (suppressed == 0) {
+            logger.error(rejection.getDetail());
+        } else {
+            logger.error("{} ({} more {} rejections not logged)", rejection.getDetail(),
+                    suppressed, rejection.getReason());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import com.yahoo.athenz.auth.impl.util.DnsSuffixTrie;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Pre-validates the sanDNS names of a certificate request against the
+ * provider's dns suffixes with a suffix trie compiled once at startup.
+ * Requests with a name outside of all suffixes are rejected right away,
+ * while for valid requests only the suffixes the names actually end with
+ * are passed on to the full validation in InstanceUtils instead of the
+ * complete suffix list.
+ */
+final class SanDnsSuffixValidator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SanDnsSuffixValidator.class);
+
+    private final Set<String> dnsSuffixes;
+    private final DnsSuffixTrie dnsSuffixTrie;
+
+    SanDnsSuffixValidator(final Set<String> dnsSuffixes) {
+        this.dnsSuffixes = Collections.unmodifiableSet(dnsSuffixes);
+        DnsSuffixTrie.Builder builder = new DnsSuffixTrie.Builder();
+        for (String dnsSuffix : dnsSuffixes) {
+            try {
+                builder.add(dnsSuffix);
+            } catch (IllegalArgumentException ex) {
+                LOGGER.error("Ignoring invalid dns suffix: {}", dnsSuffix);
+            }
+        }
+        dnsSuffixTrie = builder.build();
+    }
+
+    /**
+     * @param sanDnsNames comma separated list of sanDNS names from the request
+     * @return the dns suffixes to validate the names against or null if any
+     *      of the names does not end with one of our suffixes
+     */
+    Set<String> dnsSuffixesFor(final String sanDnsNames) {
+
+        // without any names there is nothing for us to narrow down
+
+        if (sanDnsNames == null || sanDnsNames.isEmpty()) {
+            return dnsSuffixes;
+        }
+
+        Set<String> matches = null;
+        final int length = sanDnsNames.length();
+        int start = 0;
+        while (start <= length) {
+            int end = sanDnsNames.indexOf(',', start);
+            if (end == -1) {
+                end = length;
+            }
+
+            // we follow String.split semantics where trailing empty
+            // entries are ignored while any other empty entry is invalid
+
+            if (start == end) {
+                if (isTrailing(sanDnsNames, end)) {
+                    break;
+                }
+                return null;
+            }
+
+            final Set<String> nameMatches = dnsSuffixTrie.allMatches(sanDnsNames, start, end);
+            if (nameMatches.isEmpty()) {
+                LOGGER.error("Request sanDNS name {} does not match any dns suffix",
+                        sanDnsNames.substring(start, end));
+                return null;
+            }
+            if (matches == null) {
+                matches = nameMatches;
+            } else if (matches != nameMatches && !matches.containsAll(nameMatches)) {
+                Set<String> union = new HashSet<>(matches);
+                union.addAll(nameMatches);
+                matches = union;
+            }
+            start = end + 1;
+        }
+        return matches == null ? dnsSuffixes : matches;
+    }
+
+    private static boolean isTrailing(final String value, int index) {
+        for (int i = index; i < value.length(); i++) {
+            if (value.charAt(i) != ',') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return dnsSuffixTrie.size();
+    }
+}
@@ -0,0 +1,105 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+/**
+ * Scans the comma separated list of sanURI values of a certificate
+ * request in place. The helpers walk the list by index and compare
+ * prefixes and hostnames with regionMatches, so unlike split(",") and
+ * substring they do not allocate any arrays or strings. Empty entries
+ * follow String.split semantics: trailing empty entries are ignored
+ * while any other empty entry is processed as an empty uri.
+ */
+final class SanUriScanner {
+
+    private SanUriScanner() {
+    }
+
+    /**
+     * finds the first uri that does not start with any of the prefixes
+     * @param sanUri comma separated list of uris
+     * @param prefixes supported uri prefixes
+     * @return start index of the first unsupported uri or -1 if all uris
+     *      start with one of the prefixes
+     */
+    static int findUnsupportedUri(final String sanUri, final String[] prefixes) {
+
+        final int length = sanUri.length();
+        int start = 0;
+        while (start < length) {
+            final int end = entryEnd(sanUri, start);
+            if (start == end && isTrailing(sanUri, end)) {
+                break;
+            }
+            if (!hasPrefix(sanUri, start, end, prefixes)) {
+                return start;
+            }
+            start = end + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * finds the first uri that contains the given prefix but where the
+     * rest of the uri after the prefix is not the expected hostname
+     * @param sanUri comma separated list of uris
+     * @param prefix hostname uri prefix e.g. athenz://hostname/
+     * @param hostname expected hostname
+     * @return start index of the first mismatched uri or -1 if all uris
+     *      with the prefix match the hostname
+     */
+    static int findHostnameMismatch(final String sanUri, final String prefix, final String hostname) {
+
+        final int length = sanUri.length();
+        final int prefixLength = prefix.length();
+        int start = 0;
+
+        // the position of the next prefix in the list is only looked up
+        // again once we have moved past it so each character is scanned
+        // at most once while looking for the prefix
+
+        int prefixIdx = sanUri.indexOf(prefix);
+        while (start < length && prefixIdx != -1) {
+            final int end = entryEnd(sanUri, start);
+            if (prefixIdx < end) {
+                final int hostStart = prefixIdx + prefixLength;
+                final int hostLength = end - hostStart;
+                if (hostname == null || hostname.length() != hostLength
+                        || !sanUri.regionMatches(hostStart, hostname, 0, hostLength)) {
+                    return start;
+                }
+            }
+            start = end + 1;
+            if (prefixIdx < start) {
+                prefixIdx = sanUri.indexOf(prefix, start);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param sanUri comma separated list of uris
+     * @param start start index of the uri
+     * @return end index (exclusive) of the uri starting at the given index
+     */
+    static int entryEnd(final String sanUri, int start) {
+        final int end = sanUri.indexOf(',', start);
+        return end == -1 ? sanUri.length() : end;
+    }
+
+    private static boolean hasPrefix(final String sanUri, int start, int end, final String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (end - start >= prefix.length() && sanUri.startsWith(prefix, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTrailing(final String value, int index) {
+        for (int i = index; i < value.length(); i++) {
+            if (value.charAt(i) != ',') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
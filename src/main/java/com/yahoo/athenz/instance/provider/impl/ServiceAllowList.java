@@ -0,0 +1,92 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable allow-list of services indexed by domain and then by service
+ * name, so checking a request's domain and service is two hash lookups
+ * without building the full principal name. The list is replaced as a
+ * whole on reload and never modified once built.
+ */
+final class ServiceAllowList {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceAllowList.class);
+
+    private final Map<String, Set<String>> services;
+    private final int size;
+
+    private ServiceAllowList(Map<String, Set<String>> services, int size) {
+        this.services = services;
+        this.size = size;
+    }
+
+    /**
+     * parse the list of services in domain.service format separated by
+     * commas or new lines. lines starting with # are ignored and so are
+     * entries without a service component
+     * @param serviceList list of service names
+     * @return the compiled allow-list
+     */
+    static ServiceAllowList parse(final String serviceList) {
+
+        Map<String, Set<String>> services = new HashMap<>();
+        int size = 0;
+        if (serviceList != null) {
+            for (String line : serviceList.split("\\R")) {
+                if (line.trim().startsWith("#")) {
+                    continue;
+                }
+                for (String entry : line.split("[,\\s]+")) {
+                    if (entry.isEmpty()) {
+                        continue;
+                    }
+
+                    // the service name never includes a dot while the
+                    // domain may be any number of levels deep
+
+                    final int idx = entry.lastIndexOf('.');
+                    if (idx <= 0 || idx == entry.length() - 1) {
+                        LOGGER.error("Ignoring invalid service name: {}", entry);
+                        continue;
+                    }
+                    if (services.computeIfAbsent(entry.substring(0, idx), key -> new HashSet<>())
+                            .add(entry.substring(idx + 1))) {
+                        size += 1;
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> entry : services.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+        return new ServiceAllowList(Collections.unmodifiableMap(services), size);
+    }
+
+    /**
+     * @param domain name of the domain
+     * @param service name of the service
+     * @return true if the domain.service is included in the allow-list
+     */
+    boolean contains(final String domain, final String service) {
+        if (domain == null || service == null) {
+            return false;
+        }
+        final Set<String> domainServices = services.get(domain);
+        return domainServices != null && domainServices.contains(service);
+    }
+
+    /**
+     * @return number of services in the allow-list
+     */
+    int size() {
+        return size;
+    }
+}
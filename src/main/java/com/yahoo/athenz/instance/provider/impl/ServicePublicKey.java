@@ -0,0 +1,112 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Public key registered for a service in Athenz along with its canonical
+ * DER encoding and the SHA-256 digest of the DER bytes. Keys are compared
+ * on their DER bytes so PEM encodings that only differ in line breaks or
+ * other whitespace match without any string normalization.
+ */
+final class ServicePublicKey {
+
+    private static final String PEM_BEGIN = "-----BEGIN ";
+    private static final String PEM_END = "-----END ";
+    private static final String PEM_DASHES = "-----";
+
+    final String pem;
+    final byte[] der;
+    final byte[] digest;
+
+    ServicePublicKey(final String pem) {
+        this.pem = pem;
+        this.der = decodePem(pem);
+        this.digest = der == null ? null : sha256(der);
+    }
+
+    /**
+     * check if the given pem encoded key is the same key as ours. the
+     * DER bytes are compared in constant time
+     * @param publicKey pem encoded public key, e.g. from the csr
+     * @return true if both keys have the same DER encoding
+     */
+    boolean matches(final String publicKey) {
+        final byte[] otherDer = decodePem(publicKey);
+        return der != null && otherDer != null && MessageDigest.isEqual(der, otherDer);
+    }
+
+    /**
+     * extract the DER bytes from the first pem block in the given value.
+     * whitespace within the base64 body is ignored
+     * @param pem pem encoded value
+     * @return DER bytes or null if the value is not a valid pem block
+     */
+    static byte[] decodePem(final String pem) {
+
+        if (pem == null) {
+            return null;
+        }
+        final int begin = pem.indexOf(PEM_BEGIN);
+        if (begin == -1) {
+            return null;
+        }
+        int bodyStart = pem.indexOf(PEM_DASHES, begin + PEM_BEGIN.length());
+        if (bodyStart == -1) {
+            return null;
+        }
+        bodyStart += PEM_DASHES.length();
+        final int bodyEnd = pem.indexOf(PEM_END, bodyStart);
+        if (bodyEnd == -1) {
+            return null;
+        }
+
+        // copy the base64 characters skipping any whitespace
+
+        byte[] base64 = new byte[bodyEnd - bodyStart];
+        int length = 0;
+        for (int i = bodyStart; i < bodyEnd; i++) {
+            final char c = pem.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            if (c > 0x7f) {
+                return null;
+            }
+            base64[length++] = (byte) c;
+        }
+        if (length == 0) {
+            return null;
+        }
+        try {
+            return Base64.getDecoder().decode(length == base64.length ? base64 : Arrays.copyOf(base64, length));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    static byte[] sha256(final byte[] value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return hex encoded digest of the key for logging or null if the
+     *      key could not be decoded
+     */
+    String fingerprint() {
+        if (digest == null) {
+            return null;
+        }
+        StringBuilder value = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            value.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return value.toString();
+    }
+}
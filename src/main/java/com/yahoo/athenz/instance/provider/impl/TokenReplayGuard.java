@@ -0,0 +1,21 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+/**
+ * Records the identity tokens that have been used for an instance
+ * confirmation so the same token cannot be replayed while it's still
+ * valid. Implementations may keep the tokens in memory or in a store
+ * shared between servers, and must be thread-safe.
+ */
+public interface TokenReplayGuard {
+
+    /**
+     * record the given token if it has not been seen before
+     * @param tokenId unique identifier of the token, e.g. its jti claim or digest
+     * @param expiryTime time in milliseconds since epoch after which the
+     *      token can no longer be used and does not need to be tracked
+     * @return true if the token was recorded for the first time. false if
+     *      the token has already been used or could not be recorded in
+     *      which case the request must be rejected
+     */
+    boolean recordToken(final String tokenId, long expiryTime);
+}
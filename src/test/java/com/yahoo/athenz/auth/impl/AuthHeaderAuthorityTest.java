@@ -5,6 +5,12 @@ import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.any;
@@ -68,6 +74,10 @@ public class AuthHeaderAuthorityTest {
         principal = aha.authenticate(testUser, "127.0.0.", "GET", errMsg);
         assertNull(principal);
 
+        // host names are never resolved even if they would map to a trusted ip
+        principal = aha.authenticate(testUser, "localhost", "GET", errMsg);
+        assertNull(principal);
+
         // Failed to create principal
         try (MockedStatic<SimplePrincipal> theMock = Mockito.mockStatic(SimplePrincipal.class)) {
             theMock.when((MockedStatic.Verification) SimplePrincipal.create(anyString(), anyString(), anyString(), anyLong(), any())).thenReturn(null);
@@ -78,6 +88,109 @@ public class AuthHeaderAuthorityTest {
 
     }
 
+    @Test
+    public void testCheckIpAddressMatch() {
+        AuthHeaderAuthority aha = new AuthHeaderAuthority();
+
+        // without initialization nothing is trusted
+
+        assertFalse(aha.checkIpAddressMatch("127.0.0.1"));
+
+        System.setProperty(AuthHeaderAuthority.ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR,
+                "10.0.0.0/8, 192.168.1.0/24,2001:db8::/32,invalid/99");
+        try {
+            aha.initialize();
+        } finally {
+            System.clearProperty(AuthHeaderAuthority.ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR);
+        }
+        assertEquals(aha.trustedCidrs.size(), 3);
+
+        // the deprecated set still reports the configured values
+
+        assertEquals(aha.trusted_cidrs.size(), 4);
+        assertTrue(aha.trusted_cidrs.contains("192.168.1.0/24"));
+
+        assertTrue(aha.checkIpAddressMatch("10.72.118.45"));
+        assertTrue(aha.checkIpAddressMatch("192.168.1.254"));
+        assertTrue(aha.checkIpAddressMatch("2001:db8::1"));
+        assertFalse(aha.checkIpAddressMatch("192.168.2.1"));
+        assertFalse(aha.checkIpAddressMatch("2001:db9::1"));
+        assertFalse(aha.checkIpAddressMatch("127.0.0.1"));
+        assertFalse(aha.checkIpAddressMatch(""));
+        assertFalse(aha.checkIpAddressMatch(null));
+    }
+
+    @Test
+    public void testTrustedCidrFileReload() throws IOException {
+        Path cidrFile = Files.createTempFile("trusted_cidrs", ".txt");
+        Files.write(cidrFile, "# proxies\n10.0.0.0/8\n192.168.1.0/24, 192.168.2.0/24\n".getBytes(StandardCharsets.UTF_8));
+
+        System.setProperty(AuthHeaderAuthority.ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR_FILE, cidrFile.toString());
+        System.setProperty(AuthHeaderAuthority.ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR_RELOAD_INTERVAL, "0");
+        AuthHeaderAuthority aha = new AuthHeaderAuthority();
+        try {
+            aha.initialize();
+        } finally {
+            System.clearProperty(AuthHeaderAuthority.ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR_FILE);
+            System.clearProperty(AuthHeaderAuthority.ATHENZ_PROP_AUTH_HEADER_TRUSTED_CIDR_RELOAD_INTERVAL);
+        }
+
+        // the file takes precedence over the default 127.0.0.1 setting
+
+        assertEquals(aha.trustedCidrs.size(), 3);
+        assertTrue(aha.checkIpAddressMatch("10.1.1.1"));
+        assertTrue(aha.checkIpAddressMatch("192.168.2.1"));
+        assertFalse(aha.checkIpAddressMatch("127.0.0.1"));
+
+        // no changes in the file
+
+        assertFalse(aha.trustedCidrsWatcher.checkForChange());
+
+        // update the file and verify the new set is picked up
+
+        Files.write(cidrFile, "172.16.0.0/12\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(aha.trustedCidrsWatcher.checkForChange());
+        assertEquals(aha.trustedCidrs.size(), 1);
+        assertTrue(aha.checkIpAddressMatch("172.20.1.1"));
+        assertFalse(aha.checkIpAddressMatch("10.1.1.1"));
+        assertEquals(aha.trusted_cidrs, Collections.singleton("172.16.0.0/12"));
+
+        // a file without any valid cidrs must not replace our current set
+
+        Files.write(cidrFile, "# rewriting\ninvalid-cidr\n".getBytes(StandardCharsets.UTF_8));
+        assertTrue(aha.trustedCidrsWatcher.checkForChange());
+        assertEquals(aha.trustedCidrs.size(), 1);
+        assertTrue(aha.checkIpAddressMatch("172.20.1.1"));
+
+        // a missing file keeps the current set as well
+
+        Files.delete(cidrFile);
+        assertFalse(aha.trustedCidrsWatcher.checkForChange());
+        assertTrue(aha.checkIpAddressMatch("172.20.1.1"));
+        aha.trustedCidrsWatcher.close();
+    }
+
+    @Test
+    public void testAuthenticateWithoutErrMsg() {
+        AuthHeaderAuthority aha = new AuthHeaderAuthority();
+        aha.initialize();
+
+        // callers that do not provide a buffer get no error message
+
+        assertNull(aha.authenticate("athenz-admin", "10.72.118.45", "GET", null));
+        assertNull(aha.authenticate("athenz-admin", "invalid", "GET", null));
+
+        StringBuilder errMsg = new StringBuilder();
+        assertNull(aha.authenticate("athenz-admin", "10.72.118.45", "GET", errMsg));
+        assertEquals(errMsg.toString(),
+                "AuthHeaderAuthority:authenticate: remote ip address is not trusted: ip=10.72.118.45");
+
+        try (MockedStatic<SimplePrincipal> theMock = Mockito.mockStatic(SimplePrincipal.class)) {
+            theMock.when((MockedStatic.Verification) SimplePrincipal.create(anyString(), anyString(), anyString(), anyLong(), any())).thenReturn(null);
+            assertNull(aha.authenticate("athenz-admin", "127.0.0.1", "GET", null));
+        }
+    }
+
     @Test
     public void testGetSimplePrincipal() {
         AuthHeaderAuthority aha = new AuthHeaderAuthority();
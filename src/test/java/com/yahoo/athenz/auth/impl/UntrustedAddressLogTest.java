@@ -0,0 +1,150 @@
+package com.yahoo.athenz.auth.impl;
+
+import com.yahoo.athenz.auth.impl.util.IpAddressLiteral;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.testng.Assert.*;
+
+public class UntrustedAddressLogTest {
+
+    private static void record(UntrustedAddressLog log, final String address) {
+        long[] out = new long[2];
+        log.record(IpAddressLiteral.parse(address, out), out[0], out[1]);
+    }
+
+    @Test
+    public void testSummary() {
+        Logger logger = Mockito.mock(Logger.class);
+        UntrustedAddressLog log = new UntrustedAddressLog(logger, 3600);
+
+        // the first rejection is logged right away
+
+        record(log, "10.1.2.3");
+        Mockito.verify(logger, Mockito.times(1)).error(anyString(), any(), any(), any());
+
+        // the rest are only counted until the interval expires
+
+        record(log, "10.1.2.4");
+        record(log, "10.1.2.200");
+        record(log, "10.1.3.1");
+        record(log, "2001:db8:1:2::1");
+        record(log, "localhost");
+        Mockito.verify(logger, Mockito.times(1)).error(anyString(), any(), any(), any());
+
+        assertFalse(log.flush(System.currentTimeMillis()));
+
+        ArgumentCaptor<Object> summary = ArgumentCaptor.forClass(Object.class);
+        assertTrue(log.flush(System.currentTimeMillis() + 3600 * 1000L));
+        Mockito.verify(logger).error(anyString(), eq(5L), any(), summary.capture());
+        String value = (String) summary.getValue();
+        assertTrue(value.contains("10.1.2.0/24=2"), value);
+        assertTrue(value.contains("10.1.3.0/24=1"), value);
+        assertTrue(value.contains("2001:db8:1::/48=1"), value);
+        assertTrue(value.contains("invalid=1"), value);
+
+        // nothing to report in the next interval
+
+        assertFalse(log.flush(System.currentTimeMillis() + 7200 * 1000L));
+        Mockito.verify(logger, Mockito.times(2)).error(anyString(), any(), any(), any());
+    }
+
+    @Test
+    public void testTableOverflow() {
+        Logger logger = Mockito.mock(Logger.class);
+        UntrustedAddressLog log = new UntrustedAddressLog(logger, 3600);
+        assertFalse(log.flush(System.currentTimeMillis()));
+
+        // more distinct prefixes than slots are counted as other
+
+        long[] out = new long[2];
+        for (int i = 0; i < 1024; i++) {
+            IpAddressLiteral.parse("10." + (i >> 8) + "." + (i & 0xff) + ".1", out);
+            log.record(IpAddressLiteral.IPV4, out[0], out[1]);
+        }
+
+        ArgumentCaptor<Object> total = ArgumentCaptor.forClass(Object.class);
+        ArgumentCaptor<Object> summary = ArgumentCaptor.forClass(Object.class);
+        assertTrue(log.flush(System.currentTimeMillis() + 3600 * 1000L));
+        Mockito.verify(logger).error(anyString(), total.capture(), any(), summary.capture());
+        assertEquals(total.getValue(), 1024L);
+        assertTrue(((String) summary.getValue()).contains("other="));
+    }
+
+    @Test
+    public void testBackgroundFlush() {
+        Logger logger = Mockito.mock(Logger.class);
+        UntrustedAddressLog log = new UntrustedAddressLog(logger, 1);
+        log.start();
+
+        record(log, "10.1.2.3");
+        Mockito.verify(logger, Mockito.times(1)).error(anyString(), any(), any(), any());
+
+        // the rest of the burst is reported without any further rejection
+
+        record(log, "10.1.2.4");
+        record(log, "10.1.2.5");
+        ArgumentCaptor<Object> total = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(logger, Mockito.timeout(5000).times(2)).error(anyString(), total.capture(), any(), any());
+        assertEquals(total.getValue(), 2L);
+        log.close();
+    }
+
+    @Test
+    public void testConcurrentRecordAndFlush() throws Exception {
+        Logger logger = Mockito.mock(Logger.class);
+        UntrustedAddressLog log = new UntrustedAddressLog(logger, 3600);
+
+        // every rejection must be reported exactly once no matter
+        // which summary it ends up in
+
+        final int threads = 4;
+        final int records = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            results.add(executor.submit(() -> {
+                for (int i = 0; i < records; i++) {
+                    record(log, "10." + id + "." + (i & 0x3f) + ".1");
+                }
+            }));
+        }
+        long now = System.currentTimeMillis();
+        boolean done = false;
+        while (!done) {
+            now += 3600 * 1000L;
+            log.flush(now);
+            done = results.stream().allMatch(Future::isDone);
+        }
+        log.flush(now + 3600 * 1000L);
+        executor.shutdown();
+
+        ArgumentCaptor<Object> total = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(logger, Mockito.atLeastOnce()).error(anyString(), total.capture(), any(), any());
+        long reported = 0;
+        for (Object value : total.getAllValues()) {
+            reported += (Long) value;
+        }
+        assertEquals(reported, (long) threads * records);
+    }
+
+    @Test
+    public void testAppendPrefix() {
+        assertEquals(UntrustedAddressLog.appendPrefix(new StringBuilder(), (4L << 56) | 0xc0a801L).toString(),
+                "192.168.1.0/24");
+        assertEquals(UntrustedAddressLog.appendPrefix(new StringBuilder(), (6L << 56) | 0x20010db80001L).toString(),
+                "2001:db8:1::/48");
+    }
+}
@@ -0,0 +1,110 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.*;
+
+public class BoundedTtlCacheTest {
+
+    @Test
+    public void testGetPut() {
+        BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10, 60000);
+        assertNull(cache.get("key1"));
+
+        cache.put("key1", "value1");
+        assertEquals(cache.get("key1"), "value1");
+        assertEquals(cache.size(), 1);
+
+        cache.put("key1", "value2");
+        assertEquals(cache.get("key1"), "value2");
+        assertEquals(cache.size(), 1);
+
+        cache.invalidate("key1");
+        assertNull(cache.get("key1"));
+
+        cache.put("key1", "value1");
+        cache.put("key2", "value2");
+        cache.invalidateAll();
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testExpiry() {
+        BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10, 60000);
+        cache.put("expired", "value", System.currentTimeMillis() - 1);
+        assertEquals(cache.size(), 1);
+        assertNull(cache.get("expired"));
+        assertEquals(cache.size(), 0);
+
+        // a zero ttl means entries are never returned
+
+        BoundedTtlCache<String, String> noTtlCache = new BoundedTtlCache<>(10, 0);
+        noTtlCache.put("key", "value");
+        assertNull(noTtlCache.get("key"));
+    }
+
+    @Test
+    public void testClock() {
+        AtomicLong clock = new AtomicLong(1000);
+        BoundedTtlCache<String, String> cache = new BoundedTtlCache<>(10, 100, clock::get);
+        cache.put("key1", "value1");
+        cache.put("key2", "value2", 1500);
+
+        clock.set(1099);
+        assertEquals(cache.get("key1"), "value1");
+        clock.set(1100);
+        assertNull(cache.get("key1"));
+        assertEquals(cache.get("key2"), "value2");
+        clock.set(1500);
+        assertNull(cache.get("key2"));
+    }
+
+    @Test
+    public void testBounded() {
+        BoundedTtlCache<Integer, Integer> cache = new BoundedTtlCache<>(100, 60000);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+            assertTrue(cache.size() <= 100);
+        }
+
+        // the most recently added entry is always present
+
+        assertEquals(cache.get(999), Integer.valueOf(999));
+
+        // updating an existing key in a full cache does not evict
+
+        cache.invalidateAll();
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        cache.put(50, 500);
+        assertEquals(cache.size(), 100);
+        assertEquals(cache.get(50), Integer.valueOf(500));
+    }
+
+    @Test
+    public void testEvictExpiredFirst() {
+        BoundedTtlCache<Integer, Integer> cache = new BoundedTtlCache<>(10, 60000);
+        for (int i = 0; i < 5; i++) {
+            cache.put(i, i, System.currentTimeMillis() - 1);
+        }
+        for (int i = 5; i < 10; i++) {
+            cache.put(i, i);
+        }
+        cache.put(10, 10);
+
+        // only the expired entries were dropped to make room
+
+        assertEquals(cache.size(), 6);
+        for (int i = 5; i <= 10; i++) {
+            assertEquals(cache.get(i), Integer.valueOf(i));
+        }
+    }
+
+    @Test
+    public void testInvalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundedTtlCache<String, String>(0, 1000));
+    }
+}
@@ -0,0 +1,133 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class CidrTrieTest {
+
+    @Test
+    public void testEmpty() {
+        assertEquals(CidrTrie.EMPTY.size(), 0);
+        assertFalse(CidrTrie.EMPTY.matches("127.0.0.1"));
+        assertFalse(CidrTrie.EMPTY.matches("::1"));
+        assertFalse(CidrTrie.EMPTY.matches(null));
+    }
+
+    @Test
+    public void testIpv4() {
+        CidrTrie trie = new CidrTrie.Builder()
+                .add("127.0.0.1")
+                .add("10.0.0.0/8")
+                .add("192.168.1.128/25")
+                .build();
+        assertEquals(trie.size(), 3);
+
+        assertTrue(trie.matches("127.0.0.1"));
+        assertFalse(trie.matches("127.0.0.2"));
+        assertTrue(trie.matches("10.0.0.0"));
+        assertTrue(trie.matches("10.255.255.255"));
+        assertFalse(trie.matches("11.0.0.0"));
+        assertTrue(trie.matches("192.168.1.128"));
+        assertTrue(trie.matches("192.168.1.255"));
+        assertFalse(trie.matches("192.168.1.127"));
+
+        // ipv4 blocks must not match ipv6 addresses
+
+        assertFalse(trie.matches("::1"));
+    }
+
+    @Test
+    public void testIpv6() {
+        CidrTrie trie = new CidrTrie.Builder()
+                .add("2001:db8::/32")
+                .add("::1")
+                .build();
+
+        assertTrue(trie.matches("2001:db8::1"));
+        assertTrue(trie.matches("2001:0db8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse(trie.matches("2001:db9::1"));
+        assertTrue(trie.matches("::1"));
+        assertFalse(trie.matches("::2"));
+        assertFalse(trie.matches("127.0.0.1"));
+
+        // remote addresses as reported by the servlet container
+
+        assertTrue(trie.matches("[2001:db8::1]"));
+        assertTrue(trie.matches("[::1]"));
+        assertTrue(trie.matches("2001:db8::1%eth0"));
+        assertFalse(trie.matches("[2001:db9::1]"));
+    }
+
+    @Test
+    public void testOverlappingPrefixes() {
+
+        // the shorter prefix must win regardless of insertion order
+
+        CidrTrie trie = new CidrTrie.Builder()
+                .add("10.1.2.0/24")
+                .add("10.0.0.0/8")
+                .add("10.1.0.0/16")
+                .build();
+        assertTrue(trie.matches("10.1.2.3"));
+        assertTrue(trie.matches("10.200.0.1"));
+
+        trie = new CidrTrie.Builder().add("0.0.0.0/0").build();
+        assertTrue(trie.matches("1.2.3.4"));
+        assertTrue(trie.matches("255.255.255.255"));
+        assertFalse(trie.matches("::1"));
+    }
+
+    @Test
+    public void testManyBlocks() {
+        CidrTrie.Builder builder = new CidrTrie.Builder();
+        for (int i = 0; i < 1000; i++) {
+            builder.add("172." + (16 + i / 256) + "." + (i % 256) + ".0/24");
+        }
+        CidrTrie trie = builder.build();
+        assertEquals(trie.size(), 1000);
+        assertTrue(trie.matches("172.16.0.1"));
+        assertTrue(trie.matches("172.19.231.254"));
+        assertFalse(trie.matches("172.19.232.1"));
+    }
+
+    @Test
+    public void testPrimitiveLookups() {
+        CidrTrie trie = new CidrTrie.Builder()
+                .add("10.0.0.0/8")
+                .add("2001:db8::/32")
+                .build();
+        assertTrue(trie.matchesIpv4(0x0a010203L));
+        assertFalse(trie.matchesIpv4(0x0b010203L));
+        assertTrue(trie.matchesIpv6(0x20010db800000000L, 1L));
+        assertFalse(trie.matchesIpv6(0x20010db900000000L, 1L));
+    }
+
+    @Test
+    public void testMappedAndInvalidAddresses() {
+        CidrTrie trie = new CidrTrie.Builder().add("127.0.0.0/8").build();
+
+        // ipv4-mapped ipv6 addresses are matched against the ipv4 blocks
+
+        assertTrue(trie.matches("::ffff:127.0.0.1"));
+
+        // host names are never resolved
+
+        assertFalse(trie.matches("localhost"));
+        assertFalse(trie.matches("127.0.0."));
+        assertFalse(trie.matches(""));
+    }
+
+    @Test
+    public void testInvalidCidr() {
+        CidrTrie.Builder builder = new CidrTrie.Builder();
+        assertThrows(IllegalArgumentException.class, () -> builder.add(null));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(""));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("10.0.0.0/33"));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("10.0.0.0/-1"));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("10.0.0.0/abc"));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("::1/129"));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("localhost/32"));
+        assertEquals(builder.build().size(), 0);
+    }
+}
@@ -0,0 +1,136 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+public class DnsSuffixTrieTest {
+
+    @Test
+    public void testMatches() {
+        DnsSuffixTrie trie = new DnsSuffixTrie.Builder()
+                .add("athenz.cloud")
+                .add("zts.athenz.cloud")
+                .add(".jenkins.athenz.io")
+                .build();
+        assertEquals(trie.size(), 3);
+
+        assertTrue(trie.matches("api.sports.zts.athenz.cloud"));
+        assertTrue(trie.matches("api.athenz.cloud"));
+        assertTrue(trie.matches("API.Sports.Jenkins.Athenz.IO"));
+        assertTrue(trie.matches("api.jenkins.athenz.io"));
+
+        // the hostname must have a label in front of the suffix
+
+        assertFalse(trie.matches("athenz.cloud"));
+        assertFalse(trie.matches(".athenz.cloud"));
+        assertFalse(trie.matches("jenkins.athenz.io"));
+
+        // partial labels do not match
+
+        assertFalse(trie.matches("api.myathenz.cloud"));
+        assertFalse(trie.matches("api.athenz.cloud2"));
+        assertFalse(trie.matches("api.athenz.io"));
+        assertFalse(trie.matches(""));
+        assertFalse(trie.matches(null));
+
+        assertEquals(trie.longestMatch("api.sports.zts.athenz.cloud"), "zts.athenz.cloud");
+        assertEquals(trie.longestMatch("api.sports.athenz.cloud"), "athenz.cloud");
+        assertEquals(trie.longestMatch("zts.athenz.cloud"), "athenz.cloud");
+        assertEquals(trie.longestMatch("api.jenkins.athenz.io"), ".jenkins.athenz.io");
+        assertNull(trie.longestMatch("api.athenz.io"));
+    }
+
+    @Test
+    public void testAllMatches() {
+        DnsSuffixTrie trie = new DnsSuffixTrie.Builder()
+                .add("athenz.cloud")
+                .add("zts.athenz.cloud")
+                .add("us-west-2.zts.athenz.cloud")
+                .build();
+
+        assertEquals(trie.allMatches("api.sports.us-west-2.zts.athenz.cloud"),
+                new HashSet<>(Arrays.asList("athenz.cloud", "zts.athenz.cloud", "us-west-2.zts.athenz.cloud")));
+        assertEquals(trie.allMatches("api.sports.us-east-1.zts.athenz.cloud"),
+                new HashSet<>(Arrays.asList("athenz.cloud", "zts.athenz.cloud")));
+        assertEquals(trie.allMatches("api.athenz.cloud"), new HashSet<>(Arrays.asList("athenz.cloud")));
+        assertTrue(trie.allMatches("api.athenz.io").isEmpty());
+        assertTrue(trie.allMatches(null).isEmpty());
+
+        // the same set instance is returned for the same suffix
+
+        assertSame(trie.allMatches("api.sports.zts.athenz.cloud"), trie.allMatches("api.weather.zts.athenz.cloud"));
+
+        // ranges within a list of names
+
+        final String names = "api.zts.athenz.cloud,host.athenz.io,zts.athenz.cloud";
+        assertEquals(trie.allMatches(names, 0, 20), new HashSet<>(Arrays.asList("athenz.cloud", "zts.athenz.cloud")));
+        assertTrue(trie.allMatches(names, 21, 35).isEmpty());
+        assertEquals(trie.allMatches(names, 36, names.length()), new HashSet<>(Arrays.asList("athenz.cloud")));
+    }
+
+    @Test
+    public void testInvalidSuffix() {
+        DnsSuffixTrie.Builder builder = new DnsSuffixTrie.Builder();
+        assertThrows(IllegalArgumentException.class, () -> builder.add(null));
+        assertThrows(IllegalArgumentException.class, () -> builder.add(""));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("."));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("athenz.cloud."));
+        assertThrows(IllegalArgumentException.class, () -> builder.add("athenz..cloud"));
+
+        // duplicates are only counted once
+
+        builder.add("athenz.cloud").add("Athenz.Cloud");
+        assertEquals(builder.build().size(), 1);
+        assertEquals(DnsSuffixTrie.EMPTY.size(), 0);
+        assertFalse(DnsSuffixTrie.EMPTY.matches("api.athenz.cloud"));
+    }
+
+    @Test
+    public void testMatchesRandomized() {
+
+        // compare the trie with the plain string based check for
+        // random suffix sets and hostnames
+
+        final List<String> labels = Arrays.asList("a", "b", "athenz", "zts", "cloud", "io", "us-west-2", "x1");
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 200; iteration++) {
+            Set<String> suffixes = new HashSet<>();
+            DnsSuffixTrie.Builder builder = new DnsSuffixTrie.Builder();
+            for (int i = 0; i < 1 + random.nextInt(20); i++) {
+                final String suffix = randomName(random, labels, 1 + random.nextInt(3));
+                suffixes.add(suffix);
+                builder.add(suffix);
+            }
+            DnsSuffixTrie trie = builder.build();
+            for (int i = 0; i < 100; i++) {
+                final String hostname = randomName(random, labels, 1 + random.nextInt(5));
+                boolean expected = false;
+                for (String suffix : suffixes) {
+                    if (hostname.endsWith("." + suffix)) {
+                        expected = true;
+                        break;
+                    }
+                }
+                assertEquals(trie.matches(hostname), expected, hostname + " " + suffixes);
+            }
+        }
+    }
+
+    private static String randomName(Random random, List<String> labels, int count) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                name.append('.');
+            }
+            name.append(labels.get(random.nextInt(labels.size())));
+        }
+        return name.toString();
+    }
+}
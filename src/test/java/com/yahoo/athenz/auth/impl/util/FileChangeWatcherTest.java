@@ -0,0 +1,81 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class FileChangeWatcherTest {
+
+    @Test
+    public void testCheckForChange() throws IOException {
+        Path file = Files.createTempFile("watcher", ".txt");
+        Files.write(file, "first".getBytes(StandardCharsets.UTF_8));
+
+        List<String> contents = new CopyOnWriteArrayList<>();
+        FileChangeWatcher watcher = new FileChangeWatcher(file, 0, contents::add);
+
+        assertTrue(watcher.checkForChange());
+        assertFalse(watcher.checkForChange());
+        assertEquals(contents, List.of("first"));
+
+        Files.write(file, "second value".getBytes(StandardCharsets.UTF_8));
+        assertTrue(watcher.checkForChange());
+        assertEquals(contents, List.of("first", "second value"));
+
+        // start is a no-op without an interval
+
+        watcher.start();
+        watcher.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void testMissingFile() {
+        List<String> contents = new CopyOnWriteArrayList<>();
+        FileChangeWatcher watcher = new FileChangeWatcher(Paths.get("/invalid/watcher-file"), 0, contents::add);
+        assertFalse(watcher.checkForChange());
+        assertTrue(contents.isEmpty());
+    }
+
+    @Test
+    public void testListenerFailure() throws IOException {
+        Path file = Files.createTempFile("watcher", ".txt");
+        Files.write(file, "value".getBytes(StandardCharsets.UTF_8));
+        FileChangeWatcher watcher = new FileChangeWatcher(file, 0, value -> {
+            throw new IllegalStateException("invalid");
+        });
+        assertFalse(watcher.checkForChange());
+        Files.delete(file);
+    }
+
+    @Test
+    public void testBackgroundPolling() throws Exception {
+        Path file = Files.createTempFile("watcher", ".txt");
+        Files.write(file, "first".getBytes(StandardCharsets.UTF_8));
+
+        List<String> contents = new CopyOnWriteArrayList<>();
+        FileChangeWatcher watcher = new FileChangeWatcher(file, 1, contents::add);
+        watcher.checkForChange();
+        watcher.start();
+        watcher.start();
+
+        Files.write(file, "updated contents".getBytes(StandardCharsets.UTF_8));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (contents.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        watcher.close();
+        watcher.close();
+        assertEquals(contents, List.of("first", "updated contents"));
+        Files.delete(file);
+    }
+}
@@ -0,0 +1,174 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import org.testng.annotations.Test;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+public class IpAddressLiteralTest {
+
+    private static long[] parse(final String value, int expectedFamily) {
+        long[] out = new long[2];
+        assertEquals(IpAddressLiteral.parse(value, out), expectedFamily, value);
+        return out;
+    }
+
+    @Test
+    public void testIpv4() {
+        assertEquals(parse("127.0.0.1", IpAddressLiteral.IPV4)[1], 0x7f000001L);
+        assertEquals(parse("0.0.0.0", IpAddressLiteral.IPV4)[1], 0L);
+        assertEquals(parse("255.255.255.255", IpAddressLiteral.IPV4)[1], 0xffffffffL);
+        assertEquals(parse("10.72.118.45", IpAddressLiteral.IPV4)[0], 0L);
+    }
+
+    @Test
+    public void testInvalidIpv4() {
+        parse("127.0.0.", IpAddressLiteral.INVALID);
+        parse("127.0.0", IpAddressLiteral.INVALID);
+        parse("127.1", IpAddressLiteral.INVALID);
+        parse("1.2.3.4.5", IpAddressLiteral.INVALID);
+        parse("256.0.0.1", IpAddressLiteral.INVALID);
+        parse("01.2.3.4", IpAddressLiteral.INVALID);
+        parse(".1.2.3", IpAddressLiteral.INVALID);
+        parse("1..2.3", IpAddressLiteral.INVALID);
+        parse("1.2.3.4 ", IpAddressLiteral.INVALID);
+        parse("localhost", IpAddressLiteral.INVALID);
+        parse("host.athenz.io", IpAddressLiteral.INVALID);
+        parse("", IpAddressLiteral.INVALID);
+        parse(null, IpAddressLiteral.INVALID);
+    }
+
+    @Test
+    public void testIpv6() {
+        long[] out = parse("::1", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0L);
+        assertEquals(out[1], 1L);
+
+        out = parse("::", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0L);
+        assertEquals(out[1], 0L);
+
+        out = parse("2001:db8::", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0x20010db800000000L);
+        assertEquals(out[1], 0L);
+
+        out = parse("2001:DB8:a0b:12f0::1", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0x20010db80a0b12f0L);
+        assertEquals(out[1], 1L);
+
+        out = parse("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff", IpAddressLiteral.IPV6);
+        assertEquals(out[0], -1L);
+        assertEquals(out[1], -1L);
+
+        out = parse("1:2:3:4:5:6:7:8", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0x0001000200030004L);
+        assertEquals(out[1], 0x0005000600070008L);
+
+        out = parse("::2:3:4:5:6:7:8", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0x0000000200030004L);
+        assertEquals(out[1], 0x0005000600070008L);
+
+        out = parse("64:ff9b::192.0.2.33", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0x0064ff9b00000000L);
+        assertEquals(out[1], 0xc0000221L);
+    }
+
+    @Test
+    public void testIpv4Mapped() {
+        assertEquals(parse("::ffff:127.0.0.1", IpAddressLiteral.IPV4)[1], 0x7f000001L);
+        assertEquals(parse("::ffff:7f00:1", IpAddressLiteral.IPV4)[1], 0x7f000001L);
+    }
+
+    @Test
+    public void testBracketsAndZone() {
+        long[] out = parse("[::1]", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0L);
+        assertEquals(out[1], 1L);
+
+        out = parse("[2001:db8::1]", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0x20010db800000000L);
+        assertEquals(out[1], 1L);
+
+        out = parse("fe80::1%eth0", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0xfe80000000000000L);
+        assertEquals(out[1], 1L);
+
+        out = parse("[fe80::1%25]", IpAddressLiteral.IPV6);
+        assertEquals(out[0], 0xfe80000000000000L);
+        assertEquals(out[1], 1L);
+
+        assertEquals(parse("[::ffff:10.1.1.1]", IpAddressLiteral.IPV4)[1], 0x0a010101L);
+
+        parse("[]", IpAddressLiteral.INVALID);
+        parse("[", IpAddressLiteral.INVALID);
+        parse("[::1", IpAddressLiteral.INVALID);
+        parse("::1]", IpAddressLiteral.INVALID);
+        parse("[[::1]]", IpAddressLiteral.INVALID);
+        parse("[::1]%eth0", IpAddressLiteral.INVALID);
+        parse("fe80::1%", IpAddressLiteral.INVALID);
+        parse("%eth0", IpAddressLiteral.INVALID);
+        parse("[10.1.1.1]", IpAddressLiteral.INVALID);
+        parse("10.1.1.1%eth0", IpAddressLiteral.INVALID);
+        parse("fe80::1%" + "z".repeat(IpAddressLiteral.MAX_ZONE_LENGTH + 10), IpAddressLiteral.INVALID);
+    }
+
+    @Test
+    public void testInvalidIpv6() {
+        parse(":", IpAddressLiteral.INVALID);
+        parse(":::", IpAddressLiteral.INVALID);
+        parse(":1", IpAddressLiteral.INVALID);
+        parse("1:", IpAddressLiteral.INVALID);
+        parse("1::2::3", IpAddressLiteral.INVALID);
+        parse("1:::2", IpAddressLiteral.INVALID);
+        parse("12345::", IpAddressLiteral.INVALID);
+        parse("1:2:3:4:5:6:7", IpAddressLiteral.INVALID);
+        parse("1:2:3:4:5:6:7:8:9", IpAddressLiteral.INVALID);
+        parse("1:2:3:4::5:6:7:8", IpAddressLiteral.INVALID);
+        parse("1:2:3:4:5:6:7:1.2.3.4", IpAddressLiteral.INVALID);
+        parse("::1.2.3.4:5", IpAddressLiteral.INVALID);
+        parse("::g", IpAddressLiteral.INVALID);
+        parse("0000:0000:0000:0000:0000:0000:0000:0000:0000", IpAddressLiteral.INVALID);
+    }
+
+    @Test
+    public void testMatchesInetAddress() throws Exception {
+
+        // parse random addresses in both full and compressed forms and
+        // compare the result with the jdk parser
+
+        Random random = new Random(20221017L);
+        long[] out = new long[2];
+        for (int i = 0; i < 2000; i++) {
+            byte[] raw = new byte[16];
+            random.nextBytes(raw);
+            for (int j = 0; j < 16; j++) {
+                if (random.nextInt(3) == 0) {
+                    raw[j] = 0;
+                }
+            }
+            InetAddress inetAddress = InetAddress.getByAddress(raw);
+            String literal = inetAddress.getHostAddress();
+            int family = IpAddressLiteral.parse(literal, out);
+            if (inetAddress instanceof Inet4Address) {
+                assertEquals(family, IpAddressLiteral.IPV4, literal);
+                assertEquals(out[1], ByteBuffer.wrap(inetAddress.getAddress()).getInt() & 0xffffffffL, literal);
+            } else {
+                assertEquals(family, IpAddressLiteral.IPV6, literal);
+                ByteBuffer buffer = ByteBuffer.wrap(raw);
+                assertEquals(out[0], buffer.getLong(), literal);
+                assertEquals(out[1], buffer.getLong(), literal);
+            }
+
+            // the same address with the longest run of zero groups compressed
+
+            String compressed = literal.replaceFirst("(^|:)0(:0)+(:|$)", "::");
+            if (!compressed.equals(literal)) {
+                assertEquals(IpAddressLiteral.parse(compressed, out), family, compressed);
+            }
+        }
+    }
+}
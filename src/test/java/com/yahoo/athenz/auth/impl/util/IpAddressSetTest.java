@@ -0,0 +1,92 @@
+package com.yahoo.athenz.auth.impl.util;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+public class IpAddressSetTest {
+
+    @Test
+    public void testContains() {
+        IpAddressSet set = IpAddressSet.of(Arrays.asList("10.1.1.1", "0.0.0.0",
+                "2001:db8:a0b:12f0::1", "::1"));
+        assertEquals(set.size(), 4);
+
+        assertTrue(set.contains("10.1.1.1"));
+        assertTrue(set.contains("0.0.0.0"));
+        assertTrue(set.contains("::1"));
+        assertFalse(set.contains("10.1.1.2"));
+        assertFalse(set.contains("::2"));
+
+        // the same addresses in their other textual forms
+
+        assertTrue(set.contains("2001:db8:a0b:12f0:0:0:0:1"));
+        assertTrue(set.contains("2001:0db8:0a0b:12f0:0000:0000:0000:0001"));
+        assertTrue(set.contains("2001:DB8:A0B:12F0::0:1"));
+        assertTrue(set.contains("0:0:0:0:0:0:0:1"));
+        assertTrue(set.contains("::ffff:10.1.1.1"));
+        assertTrue(set.contains("::ffff:a01:101"));
+
+        // ipv4 compatible ipv6 addresses are not the same as ipv4 addresses
+
+        assertFalse(set.contains("::10.1.1.1"));
+
+        // host names and invalid literals never match
+
+        assertFalse(set.contains("localhost"));
+        assertFalse(set.contains(""));
+        assertFalse(set.contains(null));
+        assertFalse(set.contains(IpAddressLiteral.INVALID, new long[2]));
+
+        long[] parsed = new long[2];
+        assertTrue(set.contains(IpAddressLiteral.parse("10.1.1.1", parsed), parsed));
+        assertTrue(set.containsIpv4(0x0a010101));
+        assertTrue(set.containsIpv6(0, 1));
+    }
+
+    @Test
+    public void testDuplicatesAndInvalid() {
+        IpAddressSet set = IpAddressSet.of(Arrays.asList("10.1.1.1", "::ffff:10.1.1.1",
+                "2001:db8::1", "2001:DB8:0:0:0:0:0:1", "athenz.io", "", null, "10.1.1"));
+        assertEquals(set.size(), 2);
+        assertTrue(set.contains("10.1.1.1"));
+        assertTrue(set.contains("2001:db8::1"));
+        assertFalse(set.contains("athenz.io"));
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(IpAddressSet.EMPTY.size(), 0);
+        assertFalse(IpAddressSet.EMPTY.contains("10.1.1.1"));
+        assertFalse(IpAddressSet.EMPTY.contains("::1"));
+        assertEquals(IpAddressSet.of(Collections.emptySet()).size(), 0);
+        assertFalse(IpAddressSet.of(null).contains("0.0.0.0"));
+    }
+
+    @Test
+    public void testRandomAddresses() {
+        Random random = new Random(2024);
+        List<String> addresses = new ArrayList<>();
+        List<String> others = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            addresses.add(random.nextInt(256) + "." + random.nextInt(256) + "." + i / 256 + "." + i % 256);
+            addresses.add(String.format("2001:db8:%x::%x", random.nextInt(65536), i));
+            others.add("172.16." + i / 256 + "." + i % 256);
+            others.add(String.format("2001:db9::%x", i));
+        }
+        IpAddressSet set = IpAddressSet.of(addresses);
+        assertEquals(set.size(), 1000);
+        for (String address : addresses) {
+            assertTrue(set.contains(address), address);
+        }
+        for (String address : others) {
+            assertFalse(set.contains(address), address);
+        }
+    }
+}
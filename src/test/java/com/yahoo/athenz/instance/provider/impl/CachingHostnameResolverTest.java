@@ -0,0 +1,186 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import com.yahoo.athenz.common.server.dns.HostnameResolver;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.*;
+
+public class CachingHostnameResolverTest {
+
+    /**
+     * in-process resolver with configurable addresses that counts
+     * the lookups for each name
+     */
+    static class FakeHostnameResolver implements HostnameResolver {
+
+        final Map<String, Set<String>> addresses = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+        volatile CountDownLatch latch = null;
+
+        @Override
+        public Set<String> getAllByName(String hostname) {
+            if (hostname == null) {
+                return Collections.emptySet();
+            }
+            lookups.computeIfAbsent(hostname, key -> new AtomicInteger()).incrementAndGet();
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            if ("error.athenz.io".equals(hostname)) {
+                throw new IllegalStateException("lookup failure");
+            }
+            return addresses.getOrDefault(hostname, Collections.emptySet());
+        }
+
+        int lookups(final String hostname) {
+            AtomicInteger count = lookups.get(hostname);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    private static Set<String> set(String... values) {
+        Set<String> result = new HashSet<>();
+        Collections.addAll(result, values);
+        return result;
+    }
+
+    @Test
+    public void testPositiveAndNegativeTtl() {
+        FakeHostnameResolver fakeResolver = new FakeHostnameResolver();
+        fakeResolver.addresses.put("host1.athenz.io", set("10.1.1.1", "10.1.1.2"));
+        AtomicLong clock = new AtomicLong(1000000);
+        List<Runnable> refreshes = new ArrayList<>();
+        CachingHostnameResolver resolver = new CachingHostnameResolver(fakeResolver, 100, 10000, 1000,
+                refreshes::add, clock::get);
+
+        assertEquals(resolver.getAllByName("host1.athenz.io"), set("10.1.1.1", "10.1.1.2"));
+        assertEquals(resolver.getAllByName("host1.athenz.io"), set("10.1.1.1", "10.1.1.2"));
+        assertEquals(fakeResolver.lookups("host1.athenz.io"), 1);
+
+        // unknown names and failed lookups are cached for the negative ttl
+
+        assertTrue(resolver.getAllByName("unknown.athenz.io").isEmpty());
+        assertTrue(resolver.getAllByName("error.athenz.io").isEmpty());
+        assertTrue(resolver.getAllByName("unknown.athenz.io").isEmpty());
+        assertTrue(resolver.getAllByName("error.athenz.io").isEmpty());
+        assertEquals(fakeResolver.lookups("unknown.athenz.io"), 1);
+        assertEquals(fakeResolver.lookups("error.athenz.io"), 1);
+
+        clock.addAndGet(1000);
+        fakeResolver.addresses.put("unknown.athenz.io", set("10.2.2.2"));
+        assertEquals(resolver.getAllByName("unknown.athenz.io"), set("10.2.2.2"));
+        assertEquals(fakeResolver.lookups("unknown.athenz.io"), 2);
+
+        // once expired the name is looked up again
+
+        clock.addAndGet(9000);
+        assertEquals(resolver.getAllByName("host1.athenz.io"), set("10.1.1.1", "10.1.1.2"));
+        assertEquals(fakeResolver.lookups("host1.athenz.io"), 2);
+        assertTrue(refreshes.isEmpty());
+
+        assertTrue(resolver.isValidHostname("host1.athenz.io"));
+        assertTrue(resolver.getAllByName(null).isEmpty());
+        resolver.close();
+    }
+
+    @Test
+    public void testRefreshAhead() {
+        FakeHostnameResolver fakeResolver = new FakeHostnameResolver();
+        fakeResolver.addresses.put("host1.athenz.io", set("10.1.1.1"));
+        AtomicLong clock = new AtomicLong(1000000);
+        List<Runnable> refreshes = new ArrayList<>();
+        CachingHostnameResolver resolver = new CachingHostnameResolver(fakeResolver, 100, 10000, 1000,
+                refreshes::add, clock::get);
+
+        assertEquals(resolver.getAllByName("host1.athenz.io"), set("10.1.1.1"));
+
+        // after 80% of the ttl a single background refresh is triggered
+        // while the cached addresses are still returned
+
+        clock.addAndGet(8000);
+        fakeResolver.addresses.put("host1.athenz.io", set("10.1.1.5"));
+        assertEquals(resolver.getAllByName("host1.athenz.io"), set("10.1.1.1"));
+        assertEquals(resolver.getAllByName("host1.athenz.io"), set("10.1.1.1"));
+        assertEquals(refreshes.size(), 1);
+
+        refreshes.remove(0).run();
+        assertEquals(resolver.getAllByName("host1.athenz.io"), set("10.1.1.5"));
+        assertEquals(fakeResolver.lookups("host1.athenz.io"), 2);
+
+        // a failed refresh keeps the cached addresses until they expire
+
+        clock.addAndGet(8000);
+        fakeResolver.addresses.remove("host1.athenz.io");
+        assertEquals(resolver.getAllByName("host1.athenz.io"), set("10.1.1.5"));
+        refreshes.remove(0).run();
+        assertEquals(resolver.getAllByName("host1.athenz.io"), set("10.1.1.5"));
+        assertTrue(refreshes.isEmpty());
+
+        clock.addAndGet(2000);
+        assertTrue(resolver.getAllByName("host1.athenz.io").isEmpty());
+        resolver.close();
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        FakeHostnameResolver fakeResolver = new FakeHostnameResolver();
+        fakeResolver.addresses.put("host1.athenz.io", set("10.1.1.1"));
+        fakeResolver.latch = new CountDownLatch(1);
+        CachingHostnameResolver resolver = new CachingHostnameResolver(fakeResolver, 100, 10000, 1000);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Set<String>>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> resolver.getAllByName("host1.athenz.io")));
+        }
+
+        // wait until the first lookup is in progress before releasing it
+
+        for (int i = 0; i < 100 && fakeResolver.lookups("host1.athenz.io") == 0; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        fakeResolver.latch.countDown();
+        for (Future<Set<String>> result : results) {
+            assertEquals(result.get(), set("10.1.1.1"));
+        }
+        executor.shutdown();
+        assertEquals(fakeResolver.lookups("host1.athenz.io"), 1);
+        resolver.close();
+    }
+
+    @Test
+    public void testBoundedSize() {
+        FakeHostnameResolver fakeResolver = new FakeHostnameResolver();
+        AtomicLong clock = new AtomicLong(1000000);
+        CachingHostnameResolver resolver = new CachingHostnameResolver(fakeResolver, 32, 10000, 1000,
+                Runnable::run, clock::get);
+
+        for (int i = 0; i < 100; i++) {
+            fakeResolver.addresses.put("host" + i + ".athenz.io", set("10.1.1." + i));
+            assertEquals(resolver.getAllByName("host" + i + ".athenz.io"), set("10.1.1." + i));
+            assertTrue(resolver.size() <= 32);
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> new CachingHostnameResolver(fakeResolver, 0, 10000, 1000));
+        resolver.close();
+    }
+}
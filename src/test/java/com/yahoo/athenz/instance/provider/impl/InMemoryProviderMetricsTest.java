@@ -0,0 +1,44 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+public class InMemoryProviderMetricsTest {
+
+    @Test
+    public void testSnapshot() {
+        InMemoryProviderMetrics metrics = new InMemoryProviderMetrics();
+
+        Map<String, Long> snapshot = metrics.snapshot();
+        assertEquals(snapshot.get("rejections.invalid_san_dns"), Long.valueOf(0));
+        assertNull(snapshot.get("latency.token_validation.count"));
+
+        metrics.recordRejection(ProviderRejectionException.Reason.INVALID_SAN_DNS);
+        metrics.recordRejection(ProviderRejectionException.Reason.INVALID_SAN_DNS);
+        metrics.recordRejection(ProviderRejectionException.Reason.REFRESH_NOT_SUPPORTED);
+        for (int i = 1; i <= 100; i++) {
+            metrics.recordLatency(ProviderMetrics.Stage.TOKEN_VALIDATION, TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        snapshot = metrics.snapshot();
+        assertEquals(snapshot.get("rejections.invalid_san_dns"), Long.valueOf(2));
+        assertEquals(snapshot.get("rejections.refresh_not_supported"), Long.valueOf(1));
+        assertEquals(snapshot.get("rejections.invalid_hostname"), Long.valueOf(0));
+        assertEquals(snapshot.get("latency.token_validation.count"), Long.valueOf(100));
+        assertEquals(snapshot.get("latency.token_validation.avg_us"), Long.valueOf(50));
+        assertEquals(snapshot.get("latency.token_validation.max_us"), Long.valueOf(100));
+        final long p99 = snapshot.get("latency.token_validation.p99_us");
+        assertTrue(p99 >= 99 && p99 <= 100, Long.toString(p99));
+        assertNull(snapshot.get("latency.authorization.count"));
+    }
+
+    @Test
+    public void testNoopMetrics() {
+        ProviderMetrics.NOOP.recordLatency(ProviderMetrics.Stage.JWKS_FETCH, 100);
+        ProviderMetrics.NOOP.recordRejection(ProviderRejectionException.Reason.INVALID_SAN_DNS);
+    }
+}
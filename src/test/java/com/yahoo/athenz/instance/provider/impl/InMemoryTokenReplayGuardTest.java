@@ -0,0 +1,148 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.*;
+
+public class InMemoryTokenReplayGuardTest {
+
+    @Test
+    public void testRecordToken() {
+        AtomicLong clock = new AtomicLong(1_000_000L);
+        InMemoryTokenReplayGuard guard = new InMemoryTokenReplayGuard(100, clock::get);
+
+        assertTrue(guard.recordToken("token1", clock.get() + 5000));
+        assertFalse(guard.recordToken("token1", clock.get() + 5000));
+        assertTrue(guard.recordToken("token2", clock.get() + 5000));
+        assertEquals(guard.size(), 2);
+
+        // expired tokens are never recorded
+
+        assertFalse(guard.recordToken("token3", clock.get()));
+        assertFalse(guard.recordToken("token3", clock.get() - 1000));
+        assertEquals(guard.size(), 2);
+
+        // the token is still tracked until its expiry time
+
+        clock.addAndGet(4000);
+        assertFalse(guard.recordToken("token1", clock.get() + 5000));
+
+        // once expired the wheel removes the token
+
+        clock.addAndGet(1000);
+        assertTrue(guard.recordToken("token1", clock.get() + 5000));
+        assertFalse(guard.recordToken("token1", clock.get() + 5000));
+    }
+
+    @Test
+    public void testLongExpiry() {
+        AtomicLong clock = new AtomicLong(TimeUnit.DAYS.toMillis(1));
+        InMemoryTokenReplayGuard guard = new InMemoryTokenReplayGuard(1000, clock::get);
+
+        // tokens in the minutes wheel and beyond the wheel span
+
+        assertTrue(guard.recordToken("minutes", clock.get() + TimeUnit.MINUTES.toMillis(10)));
+        assertTrue(guard.recordToken("hours", clock.get() + TimeUnit.HOURS.toMillis(3)));
+
+        // advance one second at a time so every tick is processed
+
+        for (int i = 0; i < 599; i++) {
+            clock.addAndGet(1000);
+            assertFalse(guard.recordToken("minutes", clock.get() + 1000));
+        }
+        clock.addAndGet(1000);
+        assertTrue(guard.recordToken("minutes", clock.get() + 1000));
+
+        for (int i = 0; i < 169; i++) {
+            clock.addAndGet(TimeUnit.MINUTES.toMillis(1));
+            assertFalse(guard.recordToken("hours", clock.get() + 1000));
+        }
+        clock.addAndGet(TimeUnit.MINUTES.toMillis(1));
+        assertTrue(guard.recordToken("hours", clock.get() + 1000));
+    }
+
+    @Test
+    public void testIdlePeriod() {
+        AtomicLong clock = new AtomicLong(1_000_000L);
+        InMemoryTokenReplayGuard guard = new InMemoryTokenReplayGuard(1000, clock::get);
+
+        assertTrue(guard.recordToken("short", clock.get() + 1000));
+        assertTrue(guard.recordToken("long", clock.get() + TimeUnit.HOURS.toMillis(5)));
+
+        // after a long idle period the wheel is rebuilt and only
+        // the expired tokens are removed
+
+        clock.addAndGet(TimeUnit.HOURS.toMillis(2));
+        assertFalse(guard.recordToken("long", clock.get() + 1000));
+        assertTrue(guard.recordToken("short", clock.get() + 1000));
+
+        clock.addAndGet(TimeUnit.HOURS.toMillis(3));
+        assertTrue(guard.recordToken("long", clock.get() + 1000));
+    }
+
+    @Test
+    public void testFailClosedWhenFull() {
+        AtomicLong clock = new AtomicLong(1_000_000L);
+        InMemoryTokenReplayGuard guard = new InMemoryTokenReplayGuard(64, clock::get);
+
+        // each segment holds a single token so recording more tokens
+        // than segments must fail for at least some of them
+
+        int recorded = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (guard.recordToken("token" + i, clock.get() + 5000)) {
+                recorded += 1;
+            }
+        }
+        assertEquals(recorded, guard.size());
+        assertTrue(recorded <= 64);
+
+        // once the tokens expire there is room again
+
+        clock.addAndGet(5000);
+        assertTrue(guard.recordToken("token0", clock.get() + 5000));
+    }
+
+    @Test
+    public void testInvalidSize() {
+        assertThrows(IllegalArgumentException.class, () -> new InMemoryTokenReplayGuard(0));
+        assertNotNull(new InMemoryTokenReplayGuard(1));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws Exception {
+        InMemoryTokenReplayGuard guard = new InMemoryTokenReplayGuard(100000);
+        final long expiryTime = System.currentTimeMillis() + 60000;
+
+        // every token must be accepted exactly once across all threads
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            results.add(executor.submit(() -> {
+                int accepted = 0;
+                for (int i = 0; i < 5000; i++) {
+                    if (guard.recordToken("token" + i, expiryTime)) {
+                        accepted += 1;
+                    }
+                }
+                return accepted;
+            }));
+        }
+        int accepted = 0;
+        for (Future<Integer> result : results) {
+            accepted += result.get();
+        }
+        executor.shutdown();
+        assertEquals(accepted, 5000);
+        assertEquals(guard.size(), 5000);
+    }
+}
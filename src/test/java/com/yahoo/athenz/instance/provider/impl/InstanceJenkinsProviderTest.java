@@ -5,9 +5,11 @@ import com.yahoo.athenz.auth.Principal;
 import com.yahoo.athenz.auth.impl.SimplePrincipal;
 import com.yahoo.athenz.auth.util.Crypto;
 import com.yahoo.athenz.common.server.http.HttpDriver;
+import com.yahoo.athenz.common.server.util.config.dynamic.DynamicConfigLong;
 import com.yahoo.athenz.instance.provider.InstanceConfirmation;
 import com.yahoo.athenz.instance.provider.InstanceProvider;
 import com.yahoo.athenz.instance.provider.ResourceException;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtBuilder;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
@@ -15,13 +17,23 @@ import org.mockito.Mockito;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.Test;
 
+import javax.net.ssl.SSLContext;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.PrivateKey;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
 
 import static org.testng.Assert.*;
 
@@ -48,6 +60,18 @@ public class InstanceJenkinsProviderTest {
     public void tearDown() {
         System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI);
         System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_AUDIENCE);
+        System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_TOKEN_CACHE_SIZE);
+        System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_AUTHZ_CACHE_SIZE);
+        System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_AUTHZ_CACHE_TTL);
+        System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_REPLAY_GUARD_SIZE);
+        System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_REPLAY_GUARD_CLASS);
+    }
+
+    public static class TestTokenReplayGuard implements TokenReplayGuard {
+        @Override
+        public boolean recordToken(String tokenId, long expiryTime) {
+            return true;
+        }
     }
 
     @Test
@@ -63,7 +87,379 @@ public class InstanceJenkinsProviderTest {
     }
 
     @Test
-    public void testInitializeWithHttpDriver() throws IOException {
+    public void testInitializeJwtParsers() {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        assertNotNull(provider.tokenParser);
+        assertNotNull(provider.signingKeyRouter);
+
+        // the same parsers are used for every token so keys added to
+        // the resolvers after initialization must be picked up
+
+        provider.signingKeyResolver.addPublicKey("0", Crypto.loadPublicKey(ecPublicKey));
+        String idToken = generateIdToken("https://jenkins.athenz.svc.cluster.local/oidc",
+                System.currentTimeMillis() / 1000, false, false, false, false, false);
+        assertEquals(provider.tokenParser.parseClaimsJws(idToken).getBody().getSubject(),
+                "https://jenkins.io/job/example-project");
+    }
+
+    @Test
+    public void testIssuerSslContext() throws Exception {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+        final SSLContext providerSslContext = SSLContext.getDefault();
+        final List<SSLContext> fetcherSslContexts = Collections.synchronizedList(new ArrayList<>());
+
+        // by default the issuer is contacted with the jdk default trust
+        // store and not with the provider's ssl context
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider() {
+            @Override
+            Callable<String> getJwksFetcher(String jwksUri, SSLContext sslContext) {
+                fetcherSslContexts.add(sslContext);
+                return () -> null;
+            }
+        };
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", providerSslContext, null);
+        assertNull(provider.sslContext);
+        assertFalse(fetcherSslContexts.isEmpty());
+        assertTrue(fetcherSslContexts.stream().allMatch(Objects::isNull));
+        provider.close();
+
+        // deployments with a private ca issuer can opt in to the provider's context
+
+        fetcherSslContexts.clear();
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_ISSUER_USE_PROVIDER_SSL_CONTEXT, "true");
+        try {
+            provider.initialize("sys.auth.jenkins",
+                    "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", providerSslContext, null);
+        } finally {
+            System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_ISSUER_USE_PROVIDER_SSL_CONTEXT);
+        }
+        assertSame(provider.sslContext, providerSslContext);
+        assertFalse(fetcherSslContexts.isEmpty());
+        assertTrue(fetcherSslContexts.stream().allMatch(context -> context == providerSslContext));
+        provider.close();
+    }
+
+    @Test
+    public void testInitializeWithJwksRefresh() throws Exception {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_AUDIENCE, "https://athenz.io");
+
+        final String jwks = RefreshingJwksKeyResolverTest.jwks(RefreshingJwksKeyResolverTest.ecJwk("0",
+                (java.security.interfaces.ECPublicKey) Crypto.loadPublicKey(ecPublicKey)));
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider() {
+            @Override
+            Callable<String> getJwksFetcher(String jwksUri, SSLContext sslContext) {
+                assertEquals(jwksUri, "https://config.athenz.io");
+                return () -> jwks;
+            }
+        };
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+
+        // the keys are loaded by the background thread
+
+        for (int i = 0; i < 100 && provider.signingKeyResolver.getKeyCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(provider.signingKeyResolver.getKeyCount(), 1);
+
+        Authorizer authorizer = Mockito.mock(Authorizer.class);
+        Mockito.when(authorizer.access(Mockito.eq("jenkins.job"), Mockito.eq("sports:https://jenkins.io/job/example-project"),
+                Mockito.any(), Mockito.isNull())).thenReturn(true);
+        provider.setAuthorizer(authorizer);
+
+        String idToken = generateIdToken("https://jenkins.athenz.svc.cluster.local/oidc",
+                System.currentTimeMillis() / 1000, false, false, false, false, false);
+        StringBuilder errMsg = new StringBuilder(256);
+        assertNotNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg), errMsg.toString());
+        provider.close();
+    }
+
+    @Test
+    public void testInitializeWithSnapshot() throws Exception {
+        Path snapshotFile = Files.createTempDirectory("jenkins-snapshot").resolve("oidc.json");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_SNAPSHOT_FILE, snapshotFile.toString());
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_AUDIENCE, "https://athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_DISCOVERY_INTERVAL, "0");
+
+        // the snapshot was written by a previous instance with the
+        // discovered jwks uri and keys
+
+        final String jwks = RefreshingJwksKeyResolverTest.jwks(RefreshingJwksKeyResolverTest.ecJwk("0",
+                (java.security.interfaces.ECPublicKey) Crypto.loadPublicKey(ecPublicKey)));
+        new OidcSnapshotStore(snapshotFile, InstanceJenkinsProvider.JENKINS_ISSUER)
+                .updateJwks("https://snapshot.athenz.io/jwks", jwks);
+
+        // the issuer is not reachable so we must be able to validate
+        // tokens with the keys from our snapshot only
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider() {
+            @Override
+            Callable<String> getJwksFetcher(String jwksUri, SSLContext sslContext) {
+                return () -> {
+                    throw new IOException("issuer not reachable");
+                };
+            }
+
+            @Override
+            String extractJenkinsIssuerJwksUri(final String issuer) {
+                return null;
+            }
+        };
+        try {
+            provider.initialize("sys.auth.jenkins",
+                    "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        } finally {
+            System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_SNAPSHOT_FILE);
+            System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_DISCOVERY_INTERVAL);
+        }
+        assertEquals(provider.signingKeyResolver.getJwksUri(), "https://snapshot.athenz.io/jwks");
+        assertEquals(provider.signingKeyResolver.getKeyCount(), 1);
+
+        Authorizer authorizer = Mockito.mock(Authorizer.class);
+        Mockito.when(authorizer.access(Mockito.eq("jenkins.job"), Mockito.eq("sports:https://jenkins.io/job/example-project"),
+                Mockito.any(), Mockito.isNull())).thenReturn(true);
+        provider.setAuthorizer(authorizer);
+
+        String idToken = generateIdToken("https://jenkins.athenz.svc.cluster.local/oidc",
+                System.currentTimeMillis() / 1000, false, false, false, false, false);
+        StringBuilder errMsg = new StringBuilder(256);
+        assertNotNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg), errMsg.toString());
+
+        // successful refreshes are written back to the snapshot
+
+        provider.onJwksRefresh("https://refresh.athenz.io/jwks", jwks);
+        OidcSnapshotStore snapshot = new OidcSnapshotStore(snapshotFile, InstanceJenkinsProvider.JENKINS_ISSUER);
+        assertTrue(snapshot.load());
+        assertEquals(snapshot.getJwks("https://refresh.athenz.io/jwks"), jwks);
+        provider.close();
+    }
+
+    @Test
+    public void testInitializeWithIssuersConfig() throws Exception {
+        Path configFile = Files.createTempFile("jenkins-issuers", ".json");
+        Files.write(configFile, ("{\"issuers\":["
+                + "{\"issuer\":\"https://jenkins1.athenz.io/oidc\",\"jwks_uri\":\"https://jenkins.athenz.io/jwks\"},"
+                + "{\"issuer\":\"https://jenkins2.athenz.io/oidc\",\"jwks_uri\":\"https://jenkins.athenz.io/jwks\","
+                + "\"audience\":\"https://jenkins2.athenz.io\"},"
+                + "{\"issuer\":\"https://jenkins3.athenz.io/oidc\",\"jwks_uri\":\"https://jenkins.athenz.io/jwks\","
+                + "\"boot_time_offset\":1},"
+                + "{\"issuer\":\"https://jenkins4.athenz.io/oidc\",\"jwks_uri\":\"https://jenkins4.athenz.io/jwks\"},"
+                + "{\"issuer\":\"https://jenkins5.athenz.io/oidc\"},"
+                + "{\"issuer\":\"https://jenkins1.athenz.io/oidc\",\"jwks_uri\":\"https://other.athenz.io/jwks\"}"
+                + "]}").getBytes(StandardCharsets.UTF_8));
+
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_AUDIENCE, "https://athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_ISSUERS_CONFIG_FILE, configFile.toString());
+
+        // only the shared jenkins jwks uri has our signing key
+
+        final String jwks = RefreshingJwksKeyResolverTest.jwks(RefreshingJwksKeyResolverTest.ecJwk("0",
+                (java.security.interfaces.ECPublicKey) Crypto.loadPublicKey(ecPublicKey)));
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider() {
+            @Override
+            Callable<String> getJwksFetcher(String jwksUri, SSLContext sslContext) {
+                return () -> "https://jenkins.athenz.io/jwks".equals(jwksUri) ? jwks : "{\"keys\":[]}";
+            }
+        };
+        try {
+            provider.initialize("sys.auth.jenkins",
+                    "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        } finally {
+            System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_ISSUERS_CONFIG_FILE);
+        }
+
+        // the default issuer plus 4 valid entries sharing two resolvers
+
+        assertEquals(provider.issuers.size(), 5);
+        assertEquals(provider.jwksResolverPool.size(), 2);
+        assertSame(provider.issuers.get("https://jenkins1.athenz.io/oidc").tokenParser,
+                provider.issuers.get("https://jenkins2.athenz.io/oidc").tokenParser);
+        assertEquals(provider.issuers.get("https://jenkins2.athenz.io/oidc").audience, "https://jenkins2.athenz.io");
+        assertEquals(provider.issuers.get("https://jenkins1.athenz.io/oidc").audience, "https://athenz.io");
+
+        RefreshingJwksKeyResolver resolver = provider.jwksResolverPool.getResolver("https://jenkins.athenz.io/jwks");
+        for (int i = 0; i < 100 && resolver.getKeyCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(resolver.getKeyCount(), 1);
+
+        // jobs of additional issuers are authorized with the issuer in
+        // the resource so a policy for the job subject of the default
+        // issuer does not grant access to the same subject of another one
+
+        Authorizer authorizer = Mockito.mock(Authorizer.class);
+        Mockito.when(authorizer.access(Mockito.eq("jenkins.job"), Mockito.eq("sports:https://jenkins.io/job/example-project"),
+                Mockito.any(), Mockito.isNull())).thenReturn(true);
+        provider.setAuthorizer(authorizer);
+
+        final long now = System.currentTimeMillis() / 1000;
+        StringBuilder errMsg = new StringBuilder(256);
+        assertNull(provider.validateOIDCTokenClaims(generateIdToken("https://jenkins1.athenz.io/oidc",
+                now - 10, false, false, false, false, false), "sports", "api", "athenz:sia:0001", errMsg));
+        assertTrue(errMsg.toString().contains("resource: sports:https://jenkins1.athenz.io/oidc:https://jenkins.io/job/example-project"),
+                errMsg.toString());
+
+        Mockito.when(authorizer.access(Mockito.eq("jenkins.job"),
+                Mockito.eq("sports:https://jenkins1.athenz.io/oidc:https://jenkins.io/job/example-project"),
+                Mockito.any(), Mockito.isNull())).thenReturn(true);
+        provider.setAuthorizer(authorizer);
+
+        // a token with a duplicated issuer claim is routed by the first
+        // value but the claims keep the last one so it must be rejected
+        // instead of getting the policy of the last issuer
+
+        errMsg.setLength(0);
+        final String duplicateIssuerToken = Jwts.builder()
+                .setPayload("{\"iss\":\"https://jenkins1.athenz.io/oidc\",\"aud\":\"https://athenz.io\","
+                        + "\"sub\":\"https://jenkins.io/job/example-project\",\"iat\":" + (now - 10)
+                        + ",\"exp\":" + (now + 3600) + ",\"iss\":\"" + InstanceJenkinsProvider.JENKINS_ISSUER + "\"}")
+                .setHeaderParam("kid", "0")
+                .signWith(Crypto.loadPrivateKey(ecPrivateKey), SignatureAlgorithm.ES256).compact();
+        assertEquals(InstanceJenkinsProvider.unverifiedIssuer(duplicateIssuerToken), "https://jenkins1.athenz.io/oidc");
+        assertNull(provider.validateOIDCTokenClaims(duplicateIssuerToken, "sports", "api", "athenz:sia:0001", errMsg));
+        assertEquals(errMsg.toString(), "token issuer does not match verifying issuer "
+                + "https://jenkins1.athenz.io/oidc: " + InstanceJenkinsProvider.JENKINS_ISSUER);
+
+        // the token is routed to the keys of its issuer
+
+        errMsg.setLength(0);
+        assertNotNull(provider.validateOIDCTokenClaims(generateIdToken("https://jenkins1.athenz.io/oidc",
+                now - 10, false, false, false, false, false), "sports", "api", "athenz:sia:0001", errMsg),
+                errMsg.toString());
+
+        // per issuer audience and boot time offset
+
+        errMsg.setLength(0);
+        assertNull(provider.validateOIDCTokenClaims(generateIdToken("https://jenkins2.athenz.io/oidc",
+                now - 10, false, false, false, false, false), "sports", "api", "athenz:sia:0001", errMsg));
+        assertTrue(errMsg.toString().contains("token audience is not ZTS Server audience"));
+
+        errMsg.setLength(0);
+        assertNull(provider.validateOIDCTokenClaims(generateIdToken("https://jenkins3.athenz.io/oidc",
+                now - 10, false, false, false, false, false), "sports", "api", "athenz:sia:0001", errMsg));
+        assertTrue(errMsg.toString().contains("job start time is not recent enough"));
+
+        // the key is not part of the jwks of the other issuers
+
+        errMsg.setLength(0);
+        assertNull(provider.validateOIDCTokenClaims(generateIdToken("https://jenkins4.athenz.io/oidc",
+                now - 10, false, false, false, false, false), "sports", "api", "athenz:sia:0001", errMsg));
+        assertTrue(errMsg.toString().contains("Unable to parse and validate token with JWKs"));
+
+        errMsg.setLength(0);
+        assertNull(provider.validateOIDCTokenClaims(generateIdToken(InstanceJenkinsProvider.JENKINS_ISSUER,
+                now - 10, false, false, false, false, false), "sports", "api", "athenz:sia:0001", errMsg));
+        assertTrue(errMsg.toString().contains("Unable to parse and validate token with JWKs"));
+
+        // unknown issuers are verified with the default issuer keys and rejected
+
+        errMsg.setLength(0);
+        assertNull(provider.validateOIDCTokenClaims(generateIdToken("https://jenkins5.athenz.io/oidc",
+                now - 10, false, false, false, false, false), "sports", "api", "athenz:sia:0001", errMsg));
+        assertTrue(errMsg.toString().contains("Unable to parse and validate token with JWKs"));
+        provider.close();
+        Files.delete(configFile);
+    }
+
+    @Test
+    public void testLoadIssuersInvalidConfig() throws Exception {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        assertEquals(provider.issuers.size(), 1);
+        assertSame(provider.issuers.get(InstanceJenkinsProvider.JENKINS_ISSUER), provider.defaultIssuer);
+
+        assertEquals(provider.loadIssuers("/invalid/jenkins-issuers.json").size(), 1);
+
+        Path configFile = Files.createTempFile("jenkins-issuers", ".json");
+        Files.write(configFile, "{invalid".getBytes(StandardCharsets.UTF_8));
+        assertEquals(provider.loadIssuers(configFile.toString()).size(), 1);
+        Files.write(configFile, "{\"issuers\":{}}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(provider.loadIssuers(configFile.toString()).size(), 1);
+        provider.close();
+        Files.delete(configFile);
+    }
+
+    @Test
+    public void testUnverifiedIssuer() {
+        String idToken = generateIdToken("https://jenkins1.athenz.io/oidc",
+                System.currentTimeMillis() / 1000, false, false, false, false, false);
+        assertEquals(InstanceJenkinsProvider.unverifiedIssuer(idToken), "https://jenkins1.athenz.io/oidc");
+
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        final String header = encoder.encodeToString("{\"alg\":\"ES256\"}".getBytes(StandardCharsets.UTF_8));
+        assertEquals(InstanceJenkinsProvider.unverifiedIssuer(header + "."
+                + encoder.encodeToString("{\"sub\":{\"iss\":\"nested\"},\"iss\":\"top\"}"
+                .getBytes(StandardCharsets.UTF_8)) + ".sig"), "top");
+        assertNull(InstanceJenkinsProvider.unverifiedIssuer(header + "."
+                + encoder.encodeToString("{\"iss\":1}".getBytes(StandardCharsets.UTF_8)) + ".sig"));
+        assertNull(InstanceJenkinsProvider.unverifiedIssuer(header + "."
+                + encoder.encodeToString("[\"iss\"]".getBytes(StandardCharsets.UTF_8)) + ".sig"));
+        assertNull(InstanceJenkinsProvider.unverifiedIssuer(header + "."
+                + encoder.encodeToString("{\"sub\":\"job\"}".getBytes(StandardCharsets.UTF_8)) + ".sig"));
+        assertNull(InstanceJenkinsProvider.unverifiedIssuer(header + ".not*base64.sig"));
+        assertNull(InstanceJenkinsProvider.unverifiedIssuer(header + "." + encoder.encodeToString(
+                "{invalid".getBytes(StandardCharsets.UTF_8)) + ".sig"));
+        assertNull(InstanceJenkinsProvider.unverifiedIssuer("invalid-token"));
+        assertNull(InstanceJenkinsProvider.unverifiedIssuer(header + ".payload"));
+    }
+
+    private static void waitForJwksUri(InstanceJenkinsProvider provider, final String jwksUri)
+            throws InterruptedException {
+        for (int i = 0; i < 200 && !jwksUri.equals(provider.signingKeyResolver.getJwksUri()); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(provider.signingKeyResolver.getJwksUri(), jwksUri);
+    }
+
+    @Test
+    public void testDiscoveredJwksFetchIsTimed() throws Exception {
+        final String jwks = RefreshingJwksKeyResolverTest.jwks(RefreshingJwksKeyResolverTest.ecJwk("0",
+                (java.security.interfaces.ECPublicKey) Crypto.loadPublicKey(ecPublicKey)));
+        InstanceJenkinsProviderTestImpl provider = new InstanceJenkinsProviderTestImpl() {
+            @Override
+            Callable<String> getJwksFetcher(String jwksUri, SSLContext sslContext) {
+                if (!jwksUri.equals("https://athenz.io/jwks")) {
+                    return () -> {
+                        throw new IOException("jwks not available");
+                    };
+                }
+                return () -> jwks;
+            }
+        };
+        HttpDriver httpDriver = Mockito.mock(HttpDriver.class);
+        Mockito.when(httpDriver.doGet("/.well-known/openid-configuration", null))
+                .thenReturn("{\"jwks_uri\":\"https://athenz.io/jwks\"}");
+        provider.setHttpDriver(httpDriver);
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        waitForJwksUri(provider, "https://athenz.io/jwks");
+
+        // fetches from the discovered jwks uri are included in our metrics
+
+        final long fetchCount = jwksFetchCount(provider);
+        assertTrue(provider.signingKeyResolver.refresh());
+        assertTrue(jwksFetchCount(provider) > fetchCount);
+        provider.close();
+    }
+
+    private static long jwksFetchCount(InstanceJenkinsProvider provider) {
+        return ((InMemoryProviderMetrics) provider.getProviderMetrics()).snapshot()
+                .getOrDefault("latency.jwks_fetch.count", 0L);
+    }
+
+    @Test
+    public void testInitializeWithHttpDriver() throws IOException, InterruptedException {
 
         // std test where the http driver will return null for the config object
 
@@ -74,8 +470,12 @@ public class InstanceJenkinsProviderTest {
                 "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
         assertNotNull(provider);
         assertEquals(provider.signingKeyResolver.getJwksUri(), InstanceJenkinsProvider.JENKINS_ISSUER_JWKS_URI);
+        assertFalse(provider.discoverJwksUri());
+        assertEquals(provider.signingKeyResolver.getJwksUri(), InstanceJenkinsProvider.JENKINS_ISSUER_JWKS_URI);
+        provider.close();
 
-        // test where the http driver will return a valid config object
+        // test where the http driver will return a valid config object. discovery
+        // is done in the background so we start with the default value
 
         provider = new InstanceJenkinsProviderTestImpl();
         httpDriver = Mockito.mock(HttpDriver.class);
@@ -85,7 +485,12 @@ public class InstanceJenkinsProviderTest {
         provider.initialize("sys.auth.jenkins",
                 "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
         assertNotNull(provider);
-        assertEquals(provider.signingKeyResolver.getJwksUri(), "https://athenz.io/jwks");
+        waitForJwksUri(provider, "https://athenz.io/jwks");
+
+        // same value is not switched again
+
+        assertFalse(provider.discoverJwksUri());
+        provider.close();
 
         // test when http driver return invalid data
 
@@ -97,7 +502,9 @@ public class InstanceJenkinsProviderTest {
         provider.initialize("sys.auth.jenkins",
                 "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
         assertNotNull(provider);
+        assertFalse(provider.discoverJwksUri());
         assertEquals(provider.signingKeyResolver.getJwksUri(), InstanceJenkinsProvider.JENKINS_ISSUER_JWKS_URI);
+        provider.close();
 
         // and finally throwing an exception
 
@@ -109,7 +516,41 @@ public class InstanceJenkinsProviderTest {
         provider.initialize("sys.auth.jenkins",
                 "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
         assertNotNull(provider);
+        assertFalse(provider.discoverJwksUri());
+        assertEquals(provider.signingKeyResolver.getJwksUri(), InstanceJenkinsProvider.JENKINS_ISSUER_JWKS_URI);
+        provider.close();
+    }
+
+    @Test
+    public void testDiscoveryDeadline() throws IOException {
+
+        // the issuer does not respond so the discovery must give up
+        // after the configured deadline while initialize returns right away
+
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_DISCOVERY_TIMEOUT, "100");
+        InstanceJenkinsProviderTestImpl provider = new InstanceJenkinsProviderTestImpl();
+        HttpDriver httpDriver = Mockito.mock(HttpDriver.class);
+        Mockito.when(httpDriver.doGet("/.well-known/openid-configuration", null)).thenAnswer(invocation -> {
+            Thread.sleep(60000);
+            return "{\"jwks_uri\":\"https://athenz.io/jwks\"}";
+        });
+        provider.setHttpDriver(httpDriver);
+
+        long startTime = System.currentTimeMillis();
+        try {
+            provider.initialize("sys.auth.jenkins",
+                    "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        } finally {
+            System.clearProperty(InstanceJenkinsProvider.JENKINS_PROP_DISCOVERY_TIMEOUT);
+        }
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+        assertEquals(provider.signingKeyResolver.getJwksUri(), InstanceJenkinsProvider.JENKINS_ISSUER_JWKS_URI);
+
+        startTime = System.currentTimeMillis();
+        assertFalse(provider.discoverJwksUri());
+        assertTrue(System.currentTimeMillis() - startTime < 5000);
         assertEquals(provider.signingKeyResolver.getJwksUri(), InstanceJenkinsProvider.JENKINS_ISSUER_JWKS_URI);
+        provider.close();
     }
 
     @Test
@@ -147,6 +588,31 @@ public class InstanceJenkinsProviderTest {
         assertEquals(confirmResponse.getAttributes().get(InstanceProvider.ZTS_CERT_REFRESH), "false");
         assertEquals(confirmResponse.getAttributes().get(InstanceProvider.ZTS_CERT_USAGE), "client");
         assertEquals(confirmResponse.getAttributes().get(InstanceProvider.ZTS_CERT_EXPIRY_TIME), "360");
+        assertSame(confirmResponse.getAttributes(), provider.getCertAttributes().attributes);
+    }
+
+    @Test
+    public void testGetCertAttributes() {
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        provider.certExpiryTime = Mockito.mock(DynamicConfigLong.class);
+        Mockito.when(provider.certExpiryTime.get()).thenReturn(360L, 360L, 720L, 720L);
+        provider.certAttributes = new InstanceJenkinsProvider.CertAttributes(360L);
+
+        // the attributes are shared until the expiry time changes
+
+        InstanceJenkinsProvider.CertAttributes attributes = provider.getCertAttributes();
+        assertSame(provider.getCertAttributes(), attributes);
+        assertEquals(attributes.attributes.get(InstanceProvider.ZTS_CERT_EXPIRY_TIME), "360");
+        assertThrows(UnsupportedOperationException.class, () -> attributes.attributes.put("key", "value"));
+
+        InstanceJenkinsProvider.CertAttributes updated = provider.getCertAttributes();
+        assertNotSame(updated, attributes);
+        assertEquals(updated.expiryTime, 720L);
+        assertEquals(updated.attributes.get(InstanceProvider.ZTS_CERT_EXPIRY_TIME), "720");
+        assertEquals(updated.attributes.get(InstanceProvider.ZTS_CERT_REFRESH), "false");
+        assertEquals(updated.attributes.get(InstanceProvider.ZTS_CERT_USAGE), "client");
+        assertSame(provider.getCertAttributes(), updated);
     }
 
     @Test
@@ -321,7 +787,18 @@ public class InstanceJenkinsProviderTest {
         } catch (ResourceException ex) {
             assertEquals(ex.getCode(), 403);
             assertTrue(ex.getMessage().contains("GitHub Action X.509 Certificates cannot be refreshed"));
+            assertEquals(((ProviderRejectionException) ex).getReason(),
+                    ProviderRejectionException.Reason.REFRESH_NOT_SUPPORTED);
         }
+
+        // every rejection gets its own exception instance
+
+        ResourceException ex1 = expectThrows(ResourceException.class, () -> provider.refreshInstance(null));
+        ResourceException ex2 = expectThrows(ResourceException.class, () -> provider.refreshInstance(null));
+        assertNotSame(ex1, ex2);
+
+        Map<String, Long> metrics = ((InMemoryProviderMetrics) provider.getProviderMetrics()).snapshot();
+        assertEquals(metrics.get("rejections.refresh_not_supported"), Long.valueOf(3));
     }
 
     @Test
@@ -353,9 +830,9 @@ public class InstanceJenkinsProviderTest {
         String idToken = generateIdToken("https://token-actions.githubusercontent.com",
                 System.currentTimeMillis() / 1000, false, false, false, false, false);
         StringBuilder errMsg = new StringBuilder(256);
-        boolean result = provider.validateOIDCToken(idToken, "sports", "api", "athenz:sia:0001", errMsg);
-        assertFalse(result);
-        assertTrue(errMsg.toString().contains("token issuer is not Jenkins"));
+        assertNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg));
+        assertTrue(errMsg.toString().contains("token issuer does not match verifying issuer "
+                + InstanceJenkinsProvider.JENKINS_ISSUER + ": https://token-actions.githubusercontent.com"));
     }
 
     @Test
@@ -374,8 +851,7 @@ public class InstanceJenkinsProviderTest {
         String idToken = generateIdToken("https://jenkins.athenz.svc.cluster.local/oidc",
                 System.currentTimeMillis() / 1000, false, false, false, false, false);
         StringBuilder errMsg = new StringBuilder(256);
-        boolean result = provider.validateOIDCToken(idToken, "sports", "api", "athenz:sia:0001", errMsg);
-        assertFalse(result);
+        assertNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg));
         assertTrue(errMsg.toString().contains("token audience is not ZTS Server audience"));
     }
 
@@ -395,8 +871,7 @@ public class InstanceJenkinsProviderTest {
         String idToken = generateIdToken("https://jenkins.athenz.svc.cluster.local/oidc",
                 System.currentTimeMillis() / 1000 - 400, false, false, false, false, false);
         StringBuilder errMsg = new StringBuilder(256);
-        boolean result = provider.validateOIDCToken(idToken, "sports", "api", "athenz:sia:0001", errMsg);
-        assertFalse(result);
+        assertNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg));
         assertTrue(errMsg.toString().contains("job start time is not recent enough"));
 
         // create another token without the issue time
@@ -404,8 +879,7 @@ public class InstanceJenkinsProviderTest {
         idToken = generateIdToken("https://jenkins.athenz.svc.cluster.local/oidc",
                 System.currentTimeMillis() / 1000, false, false, true, false, false);
         errMsg.setLength(0);
-        result = provider.validateOIDCToken(idToken, "sports", "api", "athenz:sia:0001", errMsg);
-        assertFalse(result);
+        assertNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg));
         assertTrue(errMsg.toString().contains("job start time is not recent enough"));
     }
 
@@ -426,8 +900,7 @@ public class InstanceJenkinsProviderTest {
                 System.currentTimeMillis() / 1000, true, false, false, false, false);
 
         StringBuilder errMsg = new StringBuilder(256);
-        boolean result = provider.validateOIDCToken(idToken, "sports", "api", "athenz:sia:0001", errMsg);
-        assertFalse(result);
+        assertNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg));
         assertTrue(errMsg.toString().contains("token does not contain required subject claim"));
     }
 
@@ -455,11 +928,317 @@ public class InstanceJenkinsProviderTest {
                 System.currentTimeMillis() / 1000, false, false, false, false, false);
 
         StringBuilder errMsg = new StringBuilder(256);
-        boolean result = provider.validateOIDCToken(idToken, "sports", "api", "athenz:sia:0001", errMsg);
-        assertFalse(result);
+        assertNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg));
+        assertTrue(errMsg.toString().contains("authorization check failed for action"));
+    }
+
+    @Test
+    public void testValidateOIDCTokenWithCache() {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_AUDIENCE, "https://athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_TOKEN_CACHE_SIZE, "10");
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        assertNotNull(provider.verifiedTokenCache);
+
+        provider.signingKeyResolver.addPublicKey("0", Crypto.loadPublicKey(ecPublicKey));
+
+        Authorizer authorizer = Mockito.mock(Authorizer.class);
+        Mockito.when(authorizer.access(Mockito.eq("jenkins.job"), Mockito.eq("sports:https://jenkins.io/job/example-project"),
+                Mockito.any(), Mockito.isNull())).thenReturn(true);
+        provider.setAuthorizer(authorizer);
+
+        String idToken = generateIdToken("https://jenkins.athenz.svc.cluster.local/oidc",
+                System.currentTimeMillis() / 1000, false, false, false, false, false);
+
+        StringBuilder errMsg = new StringBuilder(256);
+        assertNotNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg));
+        assertEquals(provider.verifiedTokenCache.size(), 1);
+
+        // the second request with the same token is served from the cache
+        // while the domain checks are still carried out
+
+        assertNotNull(provider.validateOIDCTokenClaims(idToken, "sports", "api", "athenz:sia:0001", errMsg));
+        assertNull(provider.validateOIDCTokenClaims(idToken, "weather", "api", "athenz:sia:0001", errMsg));
         assertTrue(errMsg.toString().contains("authorization check failed for action"));
+        assertEquals(provider.verifiedTokenCache.size(), 1);
+
+        // tokens that fail verification are never cached
+
+        errMsg.setLength(0);
+        final String invalidToken = idToken.substring(0, idToken.lastIndexOf('.') + 1) + "invalid-signature";
+        assertNull(provider.validateOIDCTokenClaims(invalidToken, "sports", "api", "athenz:sia:0001", errMsg));
+        assertEquals(provider.verifiedTokenCache.size(), 1);
+    }
+
+    @Test
+    public void testValidateTenantDomainTokenWithAuthzCache() {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_AUTHZ_CACHE_SIZE, "10");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_AUTHZ_CACHE_TTL, "60");
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        assertNotNull(provider.authzDecisionCache);
+        assertEquals(provider.authzDecisionCache.getTtlMillis(), 60000);
+
+        Authorizer authorizer = Mockito.mock(Authorizer.class);
+        Mockito.when(authorizer.access(Mockito.eq("jenkins.job"), Mockito.eq("sports:https://jenkins.io/job/example-project"),
+                Mockito.any(), Mockito.isNull())).thenReturn(true);
+        provider.setAuthorizer(authorizer);
+
+        Claims claims = Jwts.claims().setSubject("https://jenkins.io/job/example-project");
+        StringBuilder errMsg = new StringBuilder(256);
+
+        // repeated requests for the same subject only call the authorizer once
+
+        assertTrue(provider.validateTenantDomainToken(claims, provider.defaultIssuer, "sports", "api", errMsg));
+        assertTrue(provider.validateTenantDomainToken(claims, provider.defaultIssuer, "sports", "api", errMsg));
+        Mockito.verify(authorizer, Mockito.times(1)).access(Mockito.anyString(), Mockito.anyString(),
+                Mockito.any(), Mockito.isNull());
+
+        // deny results are cached as well and still report the failure
+
+        assertFalse(provider.validateTenantDomainToken(claims, provider.defaultIssuer, "weather", "api", errMsg));
+        errMsg.setLength(0);
+        assertFalse(provider.validateTenantDomainToken(claims, provider.defaultIssuer, "weather", "api", errMsg));
+        assertEquals(errMsg.toString(), "authorization check failed for action: jenkins.job resource: "
+                + "weather:https://jenkins.io/job/example-project");
+        Mockito.verify(authorizer, Mockito.times(2)).access(Mockito.anyString(), Mockito.anyString(),
+                Mockito.any(), Mockito.isNull());
+        assertEquals(provider.authzDecisionCache.size(), 2);
+
+        // a different service is a separate decision
+
+        assertTrue(provider.validateTenantDomainToken(claims, provider.defaultIssuer, "sports", "backend", errMsg));
+        assertEquals(provider.authzDecisionCache.size(), 3);
+
+        // after invalidation the authorizer is consulted again
+
+        provider.invalidateAuthorizationCache();
+        assertEquals(provider.authzDecisionCache.size(), 0);
+        assertTrue(provider.validateTenantDomainToken(claims, provider.defaultIssuer, "sports", "api", errMsg));
+        Mockito.verify(authorizer, Mockito.times(4)).access(Mockito.anyString(), Mockito.anyString(),
+                Mockito.any(), Mockito.isNull());
+
+        // a new authorizer must not see decisions from the previous one
+
+        provider.setAuthorizer(Mockito.mock(Authorizer.class));
+        assertFalse(provider.validateTenantDomainToken(claims, provider.defaultIssuer, "sports", "api", errMsg));
+        provider.close();
+    }
+
+    @Test
+    public void testAuthzDecisionKey() {
+        InstanceJenkinsProvider.AuthzDecisionKey key = new InstanceJenkinsProvider.AuthzDecisionKey("sports", "api", "", "job");
+        assertEquals(key, key);
+        assertEquals(key, new InstanceJenkinsProvider.AuthzDecisionKey("sports", "api", "", "job"));
+        assertEquals(key.hashCode(), new InstanceJenkinsProvider.AuthzDecisionKey("sports", "api", "", "job").hashCode());
+        assertNotEquals(key, new InstanceJenkinsProvider.AuthzDecisionKey("sports", "backend", "", "job"));
+        assertNotEquals(key, new InstanceJenkinsProvider.AuthzDecisionKey("weather", "api", "", "job"));
+        assertNotEquals(key, new InstanceJenkinsProvider.AuthzDecisionKey("sports", "api", "", "job2"));
+        assertNotEquals(key, new InstanceJenkinsProvider.AuthzDecisionKey("sports", "api", "issuer:", "job"));
+        assertNotEquals(key, "sports:job");
+    }
+
+    @Test
+    public void testConfirmInstanceReplay() {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_AUDIENCE, "https://athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_REPLAY_GUARD_SIZE, "100");
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        assertTrue(provider.tokenReplayGuard instanceof InMemoryTokenReplayGuard);
+
+        provider.signingKeyResolver.addPublicKey("0", Crypto.loadPublicKey(ecPublicKey));
+
+        Authorizer authorizer = Mockito.mock(Authorizer.class);
+        Mockito.when(authorizer.access(Mockito.eq("jenkins.job"), Mockito.eq("sports:https://jenkins.io/job/example-project"),
+                Mockito.any(), Mockito.isNull())).thenReturn(true);
+        provider.setAuthorizer(authorizer);
+
+        String idToken = generateIdToken("https://jenkins.athenz.svc.cluster.local/oidc",
+                System.currentTimeMillis() / 1000, false, false, false, false, false);
+
+        // rejected requests do not use up the token
+
+        try {
+            provider.confirmInstance(newConfirmation("weather", "api", idToken));
+            fail();
+        } catch (ResourceException ex) {
+            assertEquals(ex.getCode(), 403);
+            assertTrue(ex.getMessage().contains("authorization check failed for action"));
+        }
+        assertNotNull(provider.confirmInstance(newConfirmation("sports", "api", idToken)));
+
+        // the same token cannot be used again for the same service
+
+        try {
+            provider.confirmInstance(newConfirmation("sports", "api", idToken));
+            fail();
+        } catch (ResourceException ex) {
+            assertEquals(ex.getCode(), 403);
+            assertTrue(ex.getMessage().contains("token has already been used for sports.api"));
+        }
+
+        // but it can be used for another service
+
+        assertNotNull(provider.confirmInstance(newConfirmation("sports", "backend", idToken)));
+        provider.close();
+    }
+
+    private static InstanceConfirmation newConfirmation(final String domain, final String service,
+            final String idToken) {
+
+        Map<String, String> instanceAttributes = new HashMap<>();
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_ID, "athenz:sia:0001");
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_SAN_URI, "spiffe://ns/default/" + domain + "/" + service
+                + ",athenz://instanceid/sys.auth.jenkins/" + domain + "." + service);
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_SAN_DNS, service + "." + domain + ".jenkins.athenz.io");
+
+        InstanceConfirmation confirmation = new InstanceConfirmation();
+        confirmation.setDomain(domain);
+        confirmation.setService(service);
+        confirmation.setProvider("sys.auth.jenkins");
+        confirmation.setAttestationData(idToken);
+        confirmation.setAttributes(instanceAttributes);
+        return confirmation;
     }
- 
+
+    @Test
+    public void testConfirmInstanceReplayAfterSanFailure() {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_AUDIENCE, "https://athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_REPLAY_GUARD_SIZE, "100");
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        provider.signingKeyResolver.addPublicKey("0", Crypto.loadPublicKey(ecPublicKey));
+
+        Authorizer authorizer = Mockito.mock(Authorizer.class);
+        Mockito.when(authorizer.access(Mockito.eq("jenkins.job"), Mockito.eq("sports:https://jenkins.io/job/example-project"),
+                Mockito.any(), Mockito.isNull())).thenReturn(true);
+        provider.setAuthorizer(authorizer);
+
+        Map<String, String> instanceAttributes = new HashMap<>();
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_ID, "athenz:sia:0001");
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_SAN_URI, "spiffe://ns/default/sports/api,athenz://instanceid/sys.auth.jenkins/sports.api");
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_SAN_DNS, "host1.athenz.io");
+
+        InstanceConfirmation confirmation = new InstanceConfirmation();
+        confirmation.setDomain("sports");
+        confirmation.setService("api");
+        confirmation.setProvider("sys.auth.jenkins");
+        confirmation.setAttestationData(generateIdToken("https://jenkins.athenz.svc.cluster.local/oidc",
+                System.currentTimeMillis() / 1000, false, false, false, false, false));
+        confirmation.setAttributes(instanceAttributes);
+
+        // a request rejected due to the san dns entry does not use up the token
+
+        try {
+            provider.confirmInstance(confirmation);
+            fail();
+        } catch (ResourceException ex) {
+            assertEquals(ex.getCode(), 403);
+            assertTrue(ex.getMessage().contains("Unable to validate certificate request sanDNS entries"));
+        }
+
+        // so the retry with the same token and valid san dns entry succeeds
+
+        instanceAttributes.put(InstanceProvider.ZTS_INSTANCE_SAN_DNS, "api.sports.jenkins.athenz.io");
+        assertNotNull(provider.confirmInstance(confirmation));
+
+        // but the token cannot be used again once it was accepted
+
+        confirmation.setAttributes(instanceAttributes);
+        try {
+            provider.confirmInstance(confirmation);
+            fail();
+        } catch (ResourceException ex) {
+            assertEquals(ex.getCode(), 403);
+            assertTrue(ex.getMessage().contains("token has already been used for sports.api"));
+        }
+        provider.close();
+    }
+
+    @Test
+    public void testNewTokenReplayGuard() {
+        assertNull(InstanceJenkinsProvider.newTokenReplayGuard(null, 0));
+        assertNull(InstanceJenkinsProvider.newTokenReplayGuard("", -1));
+        assertTrue(InstanceJenkinsProvider.newTokenReplayGuard(null, 10) instanceof InMemoryTokenReplayGuard);
+        assertTrue(InstanceJenkinsProvider.newTokenReplayGuard(TestTokenReplayGuard.class.getName(), 10)
+                instanceof TestTokenReplayGuard);
+        assertThrows(IllegalArgumentException.class,
+                () -> InstanceJenkinsProvider.newTokenReplayGuard("com.yahoo.athenz.InvalidClass", 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> InstanceJenkinsProvider.newTokenReplayGuard(String.class.getName(), 0));
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        TokenReplayGuard guard = new TestTokenReplayGuard();
+        provider.setTokenReplayGuard(guard);
+        assertSame(provider.tokenReplayGuard, guard);
+    }
+
+    @Test
+    public void testCacheVerifiedToken() {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_TOKEN_CACHE_SIZE, "10");
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+
+        // tokens without issue time are not cached
+
+        Claims claims = Mockito.mock(Claims.class);
+        provider.cacheVerifiedToken("token1", claims);
+        assertNull(provider.verifiedTokenCache.get("token1"));
+
+        // tokens issued outside of our boot time offset are not cached
+
+        Mockito.when(claims.getIssuedAt()).thenReturn(new Date(System.currentTimeMillis() - 600000));
+        provider.cacheVerifiedToken("token2", claims);
+        assertNull(provider.verifiedTokenCache.get("token2"));
+
+        // expired tokens are not cached either
+
+        Mockito.when(claims.getIssuedAt()).thenReturn(new Date());
+        Mockito.when(claims.getExpiration()).thenReturn(new Date(System.currentTimeMillis() - 1000));
+        provider.cacheVerifiedToken("token3", claims);
+        assertNull(provider.verifiedTokenCache.get("token3"));
+
+        Mockito.when(claims.getExpiration()).thenReturn(new Date(System.currentTimeMillis() + 60000));
+        provider.cacheVerifiedToken("token4", claims);
+        assertSame(provider.verifiedTokenCache.get("token4"), claims);
+
+        Mockito.when(claims.getExpiration()).thenReturn(null);
+        provider.cacheVerifiedToken("token5", claims);
+        assertSame(provider.verifiedTokenCache.get("token5"), claims);
+    }
+
+    @Test
+    public void testTokenCacheDisabledByDefault() {
+        System.setProperty(InstanceJenkinsProvider.JENKINS_PROP_JWKS_URI, "https://config.athenz.io");
+
+        InstanceJenkinsProvider provider = new InstanceJenkinsProvider();
+        provider.initialize("sys.auth.jenkins",
+                "class://com.yahoo.athenz.instance.provider.impl.InstanceJenkinsProvider", null, null);
+        assertNull(provider.verifiedTokenCache);
+    }
+
+    @Test
+    public void testTokenDigest() {
+        assertEquals(InstanceJenkinsProvider.tokenDigest("token"), InstanceJenkinsProvider.tokenDigest("token"));
+        assertNotEquals(InstanceJenkinsProvider.tokenDigest("token"), InstanceJenkinsProvider.tokenDigest("token2"));
+        assertEquals(InstanceJenkinsProvider.tokenDigest("").length(), 44);
+    }
+
     private String generateIdToken(final String issuer, long currentTimeSecs, boolean skipSubject,
             boolean skipEventName, boolean skipIssuedAt, boolean skipRunId, boolean skipRepository) {
 
@@ -63,8 +63,8 @@ public class InstanceWorkloadIPTokenProviderTest {
         assertTrue(provider.dnsSuffixes.contains("zts.cloud"));
         assertNull(provider.keyStore);
         assertEquals(provider.principals.size(), 2);
-        assertTrue(provider.principals.contains("athenz.api"));
-        assertTrue(provider.principals.contains("sports.backend"));
+        assertTrue(provider.principals.contains("athenz", "api"));
+        assertTrue(provider.principals.contains("sports", "backend"));
         provider.close();
 
         System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PROVIDER_DNS_SUFFIX, "");
@@ -79,6 +79,119 @@ public class InstanceWorkloadIPTokenProviderTest {
         System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PROVIDER_DNS_SUFFIX);
     }
 
+    @Test
+    public void testReloadPrincipals() throws IOException {
+
+        Path serviceFile = Files.createTempFile("service_list", ".txt");
+        Files.write(serviceFile, "# services\nathenz.api\nsports.backend, weather.api\n".getBytes());
+
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST, "sports.api");
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_FILE, serviceFile.toString());
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_RELOAD_INTERVAL, "0");
+
+        InstanceWorkloadIPTokenProvider provider = new InstanceWorkloadIPTokenProvider();
+        provider.initialize("provider", "com.yahoo.athenz.instance.provider.impl.InstanceZTSProvider", null, null);
+
+        // the file takes precedence over the system property
+
+        assertEquals(provider.principals.size(), 3);
+        assertTrue(provider.principals.contains("athenz", "api"));
+        assertTrue(provider.principals.contains("weather", "api"));
+        assertFalse(provider.principals.contains("sports", "api"));
+
+        // onboarding a service only requires updating the file
+
+        Files.write(serviceFile, "athenz.api\nsports.api,sports.backend,weather.api\n".getBytes());
+        assertTrue(provider.principalsWatcher.checkForChange());
+        assertEquals(provider.principals.size(), 4);
+        assertTrue(provider.principals.contains("sports", "api"));
+
+        // a file without any valid services keeps the current list
+
+        Files.write(serviceFile, "# rewriting\ninvalid\n".getBytes());
+        assertTrue(provider.principalsWatcher.checkForChange());
+        assertEquals(provider.principals.size(), 4);
+
+        provider.close();
+        Files.delete(serviceFile);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_FILE);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_RELOAD_INTERVAL);
+    }
+
+    @Test
+    public void testReloadPrincipalsMissingFile() throws IOException {
+
+        Path serviceFile = Files.createTempDirectory("service_list").resolve("services.txt");
+
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST, "sports.api");
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_FILE, serviceFile.toString());
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_RELOAD_INTERVAL, "0");
+
+        InstanceWorkloadIPTokenProvider provider = new InstanceWorkloadIPTokenProvider();
+        provider.initialize("provider", "com.yahoo.athenz.instance.provider.impl.InstanceZTSProvider", null, null);
+
+        // without the file no service is supported, not even the
+        // ones from the system property
+
+        assertNotNull(provider.principals);
+        assertEquals(provider.principals.size(), 0);
+        assertFalse(provider.principals.contains("sports", "api"));
+        assertServiceNotSupported(provider);
+
+        // once the file is created its services are supported
+
+        Files.write(serviceFile, "sports.api\n".getBytes());
+        assertTrue(provider.principalsWatcher.checkForChange());
+        assertTrue(provider.principals.contains("sports", "api"));
+
+        provider.close();
+        Files.delete(serviceFile);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_FILE);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_RELOAD_INTERVAL);
+    }
+
+    @Test
+    public void testReloadPrincipalsEmptyFile() throws IOException {
+
+        Path serviceFile = Files.createTempFile("service_list", ".txt");
+        Files.write(serviceFile, "# no services yet\n".getBytes());
+
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_FILE, serviceFile.toString());
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_RELOAD_INTERVAL, "0");
+
+        InstanceWorkloadIPTokenProvider provider = new InstanceWorkloadIPTokenProvider();
+        provider.initialize("provider", "com.yahoo.athenz.instance.provider.impl.InstanceZTSProvider", null, null);
+
+        // a file without any valid services rejects all requests
+
+        assertNotNull(provider.principals);
+        assertEquals(provider.principals.size(), 0);
+        assertServiceNotSupported(provider);
+
+        provider.close();
+        Files.delete(serviceFile);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_FILE);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST_RELOAD_INTERVAL);
+    }
+
+    private void assertServiceNotSupported(InstanceWorkloadIPTokenProvider provider) {
+
+        InstanceConfirmation confirmation = new InstanceConfirmation();
+        confirmation.setDomain("sports");
+        confirmation.setService("api");
+        confirmation.setProvider("sys.auth.zts");
+        confirmation.setAttributes(new HashMap<>());
+
+        try {
+            provider.confirmInstance(confirmation);
+            fail();
+        } catch (ResourceException ex) {
+            assertTrue(ex.getMessage().contains("Service not supported to be launched by ZTS Provider"));
+        }
+    }
+
     @Test
     public void testRefreshInstance() {
 
@@ -140,6 +253,13 @@ public class InstanceWorkloadIPTokenProviderTest {
         assertFalse(provider.validateSanIp(new String[]{"10.1.1.1", "2001:db8:a0b:12f0:0:0:0:1"}, null));
         assertFalse(provider.validateSanIp(new String[]{"10.1.1.1", "2001:db8:a0b:12f0:0:0:0:1"}, ""));
 
+        // the same address in different textual forms
+        assertTrue(provider.validateSanIp(new String[]{"2001:db8:a0b:12f0::1"}, "2001:db8:a0b:12f0:0:0:0:1"));
+        assertTrue(provider.validateSanIp(new String[]{"2001:0DB8:0A0B:12F0:0000:0000:0000:0001"}, "2001:db8:a0b:12f0::1"));
+        assertTrue(provider.validateSanIp(new String[]{"10.1.1.1"}, "::ffff:10.1.1.1"));
+        assertFalse(provider.validateSanIp(new String[]{"abc.athenz.com"}, "abc.athenz.com"));
+        assertFalse(provider.validateSanIp(new String[]{"10.1.1.1"}, "10.1.1.01"));
+
         provider.close();
     }
 
@@ -158,6 +278,9 @@ public class InstanceWorkloadIPTokenProviderTest {
         assertFalse(provider.validateHostname("abc.athenz.com", new String[]{"10.1.1.2"}));
         assertFalse(provider.validateHostname("abc.athenz.com", new String[]{"10.1.1.1", "1:2:3:4:5:6:7:8"}));
         assertFalse(provider.validateHostname("abc.athenz.com", new String[]{"10.1.1.2", "1:2:3:4:5:6:7:8"}));
+        assertTrue(provider.validateHostname("abc.athenz.com", new String[]{"10.1.1.1", "2001:db8:a0b:12f0::1"}));
+        assertTrue(provider.validateHostname("abc.athenz.com", new String[]{"2001:0db8:0a0b:12f0:0000:0000:0000:0001"}));
+        assertFalse(provider.validateHostname("abc.athenz.com", new String[]{"abc.athenz.com"}));
 
         // If hostname is passed, sanIp must be non empty
         assertFalse(provider.validateHostname("abc.athenz.com", null));
@@ -175,6 +298,29 @@ public class InstanceWorkloadIPTokenProviderTest {
         provider.close();
     }
 
+    @Test
+    public void testValidateHostnameWithDnsCache() {
+        HostnameResolver hostnameResolver = Mockito.mock(HostnameResolver.class);
+        Mockito.when(hostnameResolver.getAllByName("abc.athenz.com"))
+               .thenReturn(new HashSet<>(Arrays.asList("10.1.1.1", "2001:db8:a0b:12f0:0:0:0:1")));
+
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_DNS_CACHE_SIZE, "10");
+        InstanceWorkloadIPTokenProvider provider = new InstanceWorkloadIPTokenProvider();
+        provider.initialize("provider", "com.yahoo.athenz.instance.provider.impl.InstanceZTSProvider", null, null);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_DNS_CACHE_SIZE);
+        provider.setHostnameResolver(hostnameResolver);
+        assertTrue(provider.hostnameResolver instanceof CachingHostnameResolver);
+
+        // repeated validations for the same hostname only resolve it once
+
+        assertTrue(provider.validateHostname("abc.athenz.com", new String[]{"10.1.1.1"}));
+        assertTrue(provider.validateHostname("abc.athenz.com", new String[]{"10.1.1.1", "2001:db8:a0b:12f0:0:0:0:1"}));
+        assertFalse(provider.validateHostname("abc.athenz.com", new String[]{"10.1.1.2"}));
+        Mockito.verify(hostnameResolver, Mockito.times(1)).getAllByName("abc.athenz.com");
+
+        provider.close();
+    }
+
     @Test
     public void testValidateSanUri() {
         InstanceWorkloadIPTokenProvider provider = new InstanceWorkloadIPTokenProvider();
@@ -232,6 +378,154 @@ public class InstanceWorkloadIPTokenProviderTest {
         provider.close();
     }
 
+    @Test
+    public void testAuthenticateWithPublicKeyCache() {
+
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PUBLIC_KEY_CACHE_SIZE, "10");
+        InstanceWorkloadIPTokenProvider provider = new InstanceWorkloadIPTokenProvider();
+        provider.initialize("provider", "com.yahoo.athenz.instance.provider.impl.InstanceZTSProvider", null, null);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PUBLIC_KEY_CACHE_SIZE);
+        assertNotNull(provider.publicKeyCache);
+
+        KeyStore keystore = Mockito.mock(KeyStore.class);
+        Mockito.when(keystore.getPublicKey("sports", "api", "v0")).thenReturn(servicePublicKeyStringK0);
+
+        PrincipalToken tokenToSign = new PrincipalToken.Builder("S1", "sports", "api")
+                .keyId("v0").salt("salt").issueTime(System.currentTimeMillis() / 1000)
+                .expirationWindow(3600).build();
+        tokenToSign.sign(servicePrivateKeyStringK0);
+
+        // the key store is only consulted for the first request while
+        // the csr key may use different line breaks
+
+        final String csrPublicKey = servicePublicKeyStringK0.replace("\n", "\r\n");
+        StringBuilder errMsg = new StringBuilder(256);
+        assertNotNull(provider.authenticate(tokenToSign.getSignedToken(), keystore, csrPublicKey, errMsg));
+        assertNotNull(provider.authenticate(tokenToSign.getSignedToken(), keystore, csrPublicKey, errMsg));
+        assertNull(provider.authenticate(tokenToSign.getSignedToken(), keystore, "publicKey", errMsg));
+        Mockito.verify(keystore, Mockito.times(1)).getPublicKey("sports", "api", "v0");
+
+        // unknown keys are not cached
+
+        assertNull(provider.getServicePublicKey(keystore, "sports", "api", "v1"));
+        assertNull(provider.getServicePublicKey(keystore, "sports", "api", "v1"));
+        Mockito.verify(keystore, Mockito.times(2)).getPublicKey("sports", "api", "v1");
+        provider.close();
+    }
+
+    @Test
+    public void testAuthenticateWithServiceTokenCache() {
+
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_SERVICE_TOKEN_CACHE_SIZE, "10");
+        InstanceWorkloadIPTokenProvider provider = new InstanceWorkloadIPTokenProvider();
+        provider.initialize("provider", "com.yahoo.athenz.instance.provider.impl.InstanceZTSProvider", null, null);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_SERVICE_TOKEN_CACHE_SIZE);
+        assertNotNull(provider.serviceTokenCache);
+
+        KeyStore keystore = Mockito.mock(KeyStore.class);
+        Mockito.when(keystore.getPublicKey("sports", "api", "v0")).thenReturn(servicePublicKeyStringK0);
+
+        PrincipalToken tokenToSign = new PrincipalToken.Builder("S1", "sports", "api")
+                .keyId("v0").salt("salt").issueTime(System.currentTimeMillis() / 1000)
+                .expirationWindow(3600).build();
+        tokenToSign.sign(servicePrivateKeyStringK0);
+        final String signedToken = tokenToSign.getSignedToken();
+
+        // the signature is only verified for the first request but the
+        // public key is looked up again for every request
+
+        provider = Mockito.spy(provider);
+        StringBuilder errMsg = new StringBuilder(256);
+        assertNotNull(provider.authenticate(signedToken, keystore, servicePublicKeyStringK0, errMsg));
+        assertNotNull(provider.authenticate(signedToken, keystore, servicePublicKeyStringK0, errMsg));
+        Mockito.verify(provider, Mockito.times(1)).verifyServiceToken(Mockito.eq(signedToken),
+                Mockito.eq(keystore), Mockito.any());
+        Mockito.verify(keystore, Mockito.times(2)).getPublicKey("sports", "api", "v0");
+        assertEquals(provider.serviceTokenCache.size(), 1);
+
+        // the csr key is still compared for cached tokens
+
+        assertNull(provider.authenticate(signedToken, keystore, "publicKey", errMsg));
+        assertTrue(errMsg.toString().contains("CSR and Athenz public key mismatch"));
+
+        // a different token with the same signature is verified again
+
+        errMsg.setLength(0);
+        assertNull(provider.authenticate(signedToken.replace("n=api;", "n=backend;"), keystore,
+                servicePublicKeyStringK0, errMsg));
+        assertNull(provider.getVerifiedServiceToken(signedToken.replace("n=api;", "n=backend;")));
+
+        // expired tokens are never cached
+
+        PrincipalToken expiredToken = new PrincipalToken.Builder("S1", "sports", "api")
+                .keyId("v0").salt("salt").issueTime(System.currentTimeMillis() / 1000 - 7200)
+                .expirationWindow(3600).build();
+        expiredToken.sign(servicePrivateKeyStringK0);
+        provider.cacheVerifiedServiceToken(new InstanceWorkloadIPTokenProvider.VerifiedServiceToken(
+                expiredToken.getSignedToken(), expiredToken, new ServicePublicKey(servicePublicKeyStringK0)));
+        assertNull(provider.getVerifiedServiceToken(expiredToken.getSignedToken()));
+        assertEquals(provider.serviceTokenCache.size(), 1);
+        provider.close();
+    }
+
+    @Test
+    public void testAuthenticateWithServiceTokenCacheKeyChanges() throws IOException {
+
+        System.setProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_SERVICE_TOKEN_CACHE_SIZE, "10");
+        InstanceWorkloadIPTokenProvider provider = new InstanceWorkloadIPTokenProvider();
+        provider.initialize("provider", "com.yahoo.athenz.instance.provider.impl.InstanceZTSProvider", null, null);
+        System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_SERVICE_TOKEN_CACHE_SIZE);
+
+        KeyStore keystore = Mockito.mock(KeyStore.class);
+        Mockito.when(keystore.getPublicKey("sports", "api", "v0")).thenReturn(servicePublicKeyStringK0);
+
+        PrincipalToken tokenToSign = new PrincipalToken.Builder("S1", "sports", "api")
+                .keyId("v0").salt("salt").issueTime(System.currentTimeMillis() / 1000)
+                .expirationWindow(3600).build();
+        tokenToSign.sign(servicePrivateKeyStringK0);
+        final String signedToken = tokenToSign.getSignedToken();
+
+        StringBuilder errMsg = new StringBuilder(256);
+        assertNotNull(provider.authenticate(signedToken, keystore, servicePublicKeyStringK0, errMsg));
+        assertNotNull(provider.getVerifiedServiceToken(signedToken));
+
+        // once the key is replaced in athenz the cached token is verified
+        // again with the new key which fails
+
+        final String newPublicKey = new String(Files.readAllBytes(
+                Paths.get("./src/test/resources/unit_test_ec_public.key")));
+        Mockito.when(keystore.getPublicKey("sports", "api", "v0")).thenReturn(newPublicKey);
+        assertNull(provider.authenticate(signedToken, keystore, servicePublicKeyStringK0, errMsg));
+        assertNull(provider.authenticate(signedToken, keystore, newPublicKey, errMsg));
+
+        // and a removed key is no longer accepted either
+
+        Mockito.when(keystore.getPublicKey("sports", "api", "v0")).thenReturn(null);
+        assertNull(provider.authenticate(signedToken, keystore, servicePublicKeyStringK0, errMsg));
+        provider.close();
+    }
+
+    @Test
+    public void testTokenSignature() {
+        assertEquals(InstanceWorkloadIPTokenProvider.tokenSignature("v=S1;d=sports;n=api;s=signature"), "signature");
+        assertNull(InstanceWorkloadIPTokenProvider.tokenSignature("v=S1;d=sports;n=api"));
+        assertNull(InstanceWorkloadIPTokenProvider.tokenSignature("v=S1;d=sports;n=api;s="));
+    }
+
+    @Test
+    public void testValidatePublicKeys() {
+        InstanceWorkloadIPTokenProvider provider = new InstanceWorkloadIPTokenProvider();
+        assertTrue(provider.validatePublicKeys(servicePublicKeyStringK0, servicePublicKeyStringK0));
+        assertTrue(provider.validatePublicKeys(servicePublicKeyStringK0,
+                servicePublicKeyStringK0.replace("\n", "\r\n")));
+        assertTrue(provider.validatePublicKeys(servicePublicKeyStringK0,
+                servicePublicKeyStringK0.replace("\n", "")));
+        assertFalse(provider.validatePublicKeys(servicePublicKeyStringK0, "publicKey"));
+        assertFalse(provider.validatePublicKeys("publicKey", "publicKey"));
+        assertFalse(provider.validatePublicKeys(servicePublicKeyStringK0,
+                servicePublicKeyStringK0.replace("A", "B")));
+    }
+
     @Test
     public void testValidateToken() {
 
@@ -298,6 +592,11 @@ public class InstanceWorkloadIPTokenProviderTest {
         confirmation.setAttributes(attributes);
 
         assertNotNull(provider.confirmInstance(confirmation));
+
+        Map<String, Long> metrics = ((InMemoryProviderMetrics) provider.getProviderMetrics()).snapshot();
+        assertEquals(metrics.get("latency.confirm_instance.count"), Long.valueOf(1));
+        assertEquals(metrics.get("latency.token_validation.count"), Long.valueOf(1));
+        assertEquals(metrics.get("latency.san_validation.count"), Long.valueOf(1));
         provider.close();
         System.clearProperty(InstanceWorkloadIPTokenProvider.ZTS_PROP_PRINCIPAL_LIST);
     }
@@ -0,0 +1,59 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.testng.annotations.Test;
+
+import java.security.interfaces.ECPublicKey;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+public class JwksResolverPoolTest {
+
+    @Test
+    public void testSharedResolvers() throws Exception {
+        final String jwks = RefreshingJwksKeyResolverTest.jwks(RefreshingJwksKeyResolverTest.ecJwk("0",
+                (ECPublicKey) RefreshingJwksKeyResolverTest.ecKeyPair().getPublic()));
+        ConcurrentHashMap<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+        JwksResolverPool pool = new JwksResolverPool(1, uri -> () -> {
+            fetches.computeIfAbsent(uri, key -> new AtomicInteger()).incrementAndGet();
+            return jwks;
+        }, 600, 0.1, 30, 1000);
+
+        RefreshingJwksKeyResolver resolver1 = pool.getResolver("https://jenkins1.athenz.io/jwks");
+        RefreshingJwksKeyResolver resolver2 = pool.getResolver("https://jenkins2.athenz.io/jwks");
+        assertNotSame(resolver1, resolver2);
+        assertSame(pool.getResolver("https://jenkins1.athenz.io/jwks"), resolver1);
+        assertEquals(pool.size(), 2);
+
+        // both resolvers are refreshed on the shared scheduler
+
+        for (int i = 0; i < 100 && (resolver1.getKeyCount() == 0 || resolver2.getKeyCount() == 0); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(resolver1.getKeyCount(), 1);
+        assertEquals(resolver2.getKeyCount(), 1);
+        assertEquals(fetches.get("https://jenkins1.athenz.io/jwks").get(), 1);
+        assertEquals(fetches.get("https://jenkins2.athenz.io/jwks").get(), 1);
+
+        // resolvers that are not shared can use the scheduler as well
+
+        RefreshingJwksKeyResolver resolver3 = new RefreshingJwksKeyResolver("https://jenkins3.athenz.io/jwks",
+                () -> jwks);
+        pool.start(resolver3);
+        for (int i = 0; i < 100 && resolver3.getKeyCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(resolver3.getKeyCount(), 1);
+
+        // closing a resolver must not stop the shared scheduler
+
+        resolver3.close();
+        RefreshingJwksKeyResolver resolver4 = pool.getResolver("https://jenkins4.athenz.io/jwks");
+        for (int i = 0; i < 100 && resolver4.getKeyCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(resolver4.getKeyCount(), 1);
+        pool.close();
+    }
+}
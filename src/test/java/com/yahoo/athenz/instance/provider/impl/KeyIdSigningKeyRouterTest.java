@@ -0,0 +1,87 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.SigningKeyResolver;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import java.security.Key;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.testng.Assert.*;
+
+public class KeyIdSigningKeyRouterTest {
+
+    private static JwsHeader header(final String keyId) {
+        JwsHeader header = Mockito.mock(JwsHeader.class);
+        Mockito.when(header.getKeyId()).thenReturn(keyId);
+        return header;
+    }
+
+    @Test
+    public void testResolveSigningKey() {
+
+        Key jwksKey = Mockito.mock(Key.class);
+        Key keyStoreKey = Mockito.mock(Key.class);
+
+        SigningKeyResolver jwks = Mockito.mock(SigningKeyResolver.class);
+        SigningKeyResolver keyStore = Mockito.mock(SigningKeyResolver.class);
+
+        JwsHeader jwksHeader = header("jwks");
+        JwsHeader keyStoreHeader = header("keystore");
+        JwsHeader unknownHeader = header("unknown");
+
+        Mockito.when(jwks.resolveSigningKey(Mockito.eq(jwksHeader), any(Claims.class))).thenReturn(jwksKey);
+        Mockito.when(keyStore.resolveSigningKey(Mockito.eq(keyStoreHeader), any(Claims.class))).thenReturn(keyStoreKey);
+
+        KeyIdSigningKeyRouter router = new KeyIdSigningKeyRouter(jwks, keyStore);
+        Claims claims = Mockito.mock(Claims.class);
+
+        assertSame(router.resolveSigningKey(jwksHeader, claims), jwksKey);
+        assertSame(router.resolveSigningKey(keyStoreHeader, claims), keyStoreKey);
+        assertNull(router.resolveSigningKey(unknownHeader, claims));
+        assertEquals(router.size(), 2);
+
+        // repeated lookups are served from the index without
+        // consulting the sources again
+
+        assertSame(router.resolveSigningKey(jwksHeader, claims), jwksKey);
+        assertSame(router.resolveSigningKey(keyStoreHeader, claims), keyStoreKey);
+        Mockito.verify(jwks, Mockito.times(1)).resolveSigningKey(jwksHeader, claims);
+        Mockito.verify(keyStore, Mockito.times(1)).resolveSigningKey(keyStoreHeader, claims);
+        Mockito.verify(jwks, Mockito.never()).resolveSigningKey(keyStoreHeader, (String) null);
+
+        // unknown key ids are not cached and can be resolved later
+
+        Key lateKey = Mockito.mock(Key.class);
+        Mockito.when(keyStore.resolveSigningKey(Mockito.eq(unknownHeader), any(Claims.class))).thenReturn(lateKey);
+        assertSame(router.resolveSigningKey(unknownHeader, claims), lateKey);
+        assertEquals(router.size(), 3);
+
+        router.invalidate("unknown");
+        assertEquals(router.size(), 2);
+
+        router.invalidateAll();
+        assertEquals(router.size(), 0);
+        assertSame(router.resolveSigningKey(jwksHeader, claims), jwksKey);
+        Mockito.verify(jwks, Mockito.times(2)).resolveSigningKey(jwksHeader, claims);
+    }
+
+    @Test
+    public void testResolveSigningKeyWithoutKeyId() {
+
+        Key key = Mockito.mock(Key.class);
+        SigningKeyResolver source = Mockito.mock(SigningKeyResolver.class);
+        JwsHeader header = header(null);
+        Claims claims = Mockito.mock(Claims.class);
+        Mockito.when(source.resolveSigningKey(header, claims)).thenReturn(key);
+
+        // tokens without key id are passed to the sources but never indexed
+
+        KeyIdSigningKeyRouter router = new KeyIdSigningKeyRouter(source);
+        assertSame(router.resolveSigningKey(header, claims), key);
+        assertEquals(router.size(), 0);
+        assertNull(router.resolveSigningKey(header, "plaintext"));
+    }
+}
@@ -0,0 +1,52 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBucketIndex() {
+
+        // every value must fall within the bounds of its bucket and the
+        // bucket must be at most 12.5% wider than its lower bound
+
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            final long value = random.nextLong() >>> (1 + random.nextInt(63));
+            final int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(index >= 0 && index < LatencyHistogram.BUCKETS, Long.toString(value));
+            assertTrue(value <= LatencyHistogram.bucketUpperBound(index), Long.toString(value));
+            final long lowerBound = index == 0 ? 0 : LatencyHistogram.bucketUpperBound(index - 1) + 1;
+            assertTrue(value >= lowerBound, Long.toString(value));
+            assertTrue(LatencyHistogram.bucketUpperBound(index) - lowerBound <= Math.max(0, lowerBound / 8));
+        }
+        assertEquals(LatencyHistogram.bucketIndex(Long.MAX_VALUE), LatencyHistogram.BUCKETS - 1);
+        assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.BUCKETS - 1), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(histogram.snapshot().valueAtPercentile(99), 0);
+
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(snapshot.count, 1001);
+        assertEquals(snapshot.max, 1000000);
+        assertEquals(snapshot.valueAtPercentile(0), 0);
+        assertEquals(snapshot.valueAtPercentile(100), 1000000);
+
+        final long p50 = snapshot.valueAtPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125, Long.toString(p50));
+        final long p99 = snapshot.valueAtPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000, Long.toString(p99));
+    }
+}
@@ -0,0 +1,149 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.interfaces.ECPublicKey;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+public class OidcSnapshotStoreTest {
+
+    private static final String ISSUER = "https://jenkins.athenz.io/oidc";
+
+    private static String validJwks() throws Exception {
+        return RefreshingJwksKeyResolverTest.jwks(RefreshingJwksKeyResolverTest.ecJwk("0",
+                (ECPublicKey) RefreshingJwksKeyResolverTest.ecKeyPair().getPublic()));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        Path directory = Files.createTempDirectory("oidc-snapshot");
+        Path file = directory.resolve("jenkins.json");
+        final String jwks = validJwks();
+
+        OidcSnapshotStore store = new OidcSnapshotStore(file, ISSUER);
+        assertFalse(store.load());
+
+        // only a jwks uri is not a complete snapshot
+
+        store.updateJwksUri("https://jenkins.athenz.io/oidc/jwks");
+        assertFalse(Files.exists(file));
+
+        store.updateJwks("https://jenkins.athenz.io/oidc/jwks", jwks);
+        assertTrue(Files.exists(file));
+
+        OidcSnapshotStore loaded = new OidcSnapshotStore(file, ISSUER);
+        assertTrue(loaded.load());
+        assertEquals(loaded.getJwksUri(), "https://jenkins.athenz.io/oidc/jwks");
+        assertEquals(loaded.getJwks("https://jenkins.athenz.io/oidc/jwks"), jwks);
+        assertNull(loaded.getJwks("https://jenkins.athenz.io/oidc/other-jwks"));
+        assertNull(loaded.getJwks(null));
+        assertTrue(loaded.getJwksUriFetchTime() > 0);
+        assertTrue(loaded.getJwksFetchTime() > 0);
+
+        // a newly discovered uri does not match the stored keys
+
+        loaded.updateJwksUri("https://jenkins.athenz.io/oidc/new-jwks");
+        assertNull(loaded.getJwks("https://jenkins.athenz.io/oidc/new-jwks"));
+        assertEquals(loaded.getJwks("https://jenkins.athenz.io/oidc/jwks"), jwks);
+
+        // no temporary files are left behind
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(files.count(), 1);
+        }
+    }
+
+    @Test
+    public void testLoadInvalidSnapshots() throws Exception {
+        Path file = Files.createTempFile("oidc-snapshot", ".json");
+
+        // empty file
+
+        OidcSnapshotStore store = new OidcSnapshotStore(file, ISSUER);
+        assertFalse(store.load());
+
+        // invalid json
+
+        Files.write(file, "{invalid".getBytes(StandardCharsets.UTF_8));
+        assertFalse(store.load());
+
+        // snapshot for a different issuer
+
+        OidcSnapshotStore other = new OidcSnapshotStore(file, "https://other.athenz.io/oidc");
+        other.updateJwks("https://other.athenz.io/oidc/jwks", validJwks());
+        assertFalse(store.load());
+        assertTrue(new OidcSnapshotStore(file, "https://other.athenz.io/oidc").load());
+
+        // incomplete snapshot
+
+        Files.write(file, ("{\"issuer\":\"" + ISSUER + "\",\"jwks_uri\":\"https://jenkins.athenz.io/oidc/jwks\"}")
+                .getBytes(StandardCharsets.UTF_8));
+        assertFalse(store.load());
+
+        // jwks without any valid keys
+
+        store.updateJwks("https://jenkins.athenz.io/oidc/jwks", "{\"keys\":[]}");
+        assertFalse(new OidcSnapshotStore(file, ISSUER).load());
+
+        store.updateJwks("https://jenkins.athenz.io/oidc/jwks", "not-json");
+        assertFalse(new OidcSnapshotStore(file, ISSUER).load());
+        assertNull(new OidcSnapshotStore(file, ISSUER).getJwksUri());
+
+        Files.delete(file);
+    }
+
+    @Test
+    public void testLoadExpiredSnapshot() throws Exception {
+        Path file = Files.createTempFile("oidc-snapshot", ".json");
+        final String jwks = validJwks();
+
+        ObjectNode snapshot = new ObjectMapper().createObjectNode();
+        snapshot.put(OidcSnapshotStore.FIELD_ISSUER, ISSUER);
+        snapshot.put(OidcSnapshotStore.FIELD_JWKS_URI, "https://jenkins.athenz.io/oidc/jwks");
+        snapshot.put(OidcSnapshotStore.FIELD_JWKS, jwks);
+
+        // a snapshot within the max age is loaded
+
+        snapshot.put(OidcSnapshotStore.FIELD_JWKS_FETCH_TIME, System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+        Files.write(file, snapshot.toString().getBytes(StandardCharsets.UTF_8));
+        assertTrue(new OidcSnapshotStore(file, ISSUER).load());
+        assertFalse(new OidcSnapshotStore(file, ISSUER, TimeUnit.MINUTES.toMillis(30)).load());
+
+        // one older than the max age is ignored
+
+        snapshot.put(OidcSnapshotStore.FIELD_JWKS_FETCH_TIME, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(30));
+        Files.write(file, snapshot.toString().getBytes(StandardCharsets.UTF_8));
+        OidcSnapshotStore store = new OidcSnapshotStore(file, ISSUER);
+        assertFalse(store.load());
+        assertNull(store.getJwksUri());
+
+        // unless the check is disabled
+
+        assertTrue(new OidcSnapshotStore(file, ISSUER, 0).load());
+
+        // without a fetch time the snapshot is treated as too old
+
+        snapshot.remove(OidcSnapshotStore.FIELD_JWKS_FETCH_TIME);
+        Files.write(file, snapshot.toString().getBytes(StandardCharsets.UTF_8));
+        assertFalse(new OidcSnapshotStore(file, ISSUER).load());
+
+        Files.delete(file);
+    }
+
+    @Test
+    public void testSaveFailure() {
+        OidcSnapshotStore store = new OidcSnapshotStore(
+                Paths.get("/proc/invalid-directory/jenkins.json"), ISSUER);
+        store.updateJwks("https://jenkins.athenz.io/oidc/jwks", "{\"keys\":[]}");
+        assertFalse(store.save());
+    }
+}
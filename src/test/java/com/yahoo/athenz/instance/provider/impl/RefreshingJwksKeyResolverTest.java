@@ -0,0 +1,402 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import org.mockito.Mockito;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.*;
+
+public class RefreshingJwksKeyResolverTest {
+
+    private static String encode(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        if (length > 0 && bytes.length != length) {
+            byte[] padded = new byte[length];
+            System.arraycopy(bytes, Math.max(0, bytes.length - length), padded,
+                    Math.max(0, length - bytes.length), Math.min(length, bytes.length));
+            bytes = padded;
+        } else if (bytes[0] == 0 && bytes.length > 1) {
+            byte[] trimmed = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, trimmed, 0, trimmed.length);
+            bytes = trimmed;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    static String rsaJwk(final String keyId, RSAPublicKey publicKey) {
+        return "{\"kty\":\"RSA\",\"kid\":\"" + keyId + "\",\"use\":\"sig\",\"n\":\""
+                + encode(publicKey.getModulus(), 0) + "\",\"e\":\"" + encode(publicKey.getPublicExponent(), 0) + "\"}";
+    }
+
+    static String ecJwk(final String keyId, ECPublicKey publicKey) {
+        return "{\"kty\":\"EC\",\"kid\":\"" + keyId + "\",\"crv\":\"P-256\",\"x\":\""
+                + encode(publicKey.getW().getAffineX(), 32) + "\",\"y\":\"" + encode(publicKey.getW().getAffineY(), 32) + "\"}";
+    }
+
+    static String jwks(String... keys) {
+        return "{\"keys\":[" + String.join(",", keys) + "]}";
+    }
+
+    static KeyPair rsaKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    static KeyPair ecKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        return generator.generateKeyPair();
+    }
+
+    private static JwsHeader header(final String keyId) {
+        return header(keyId, "ES256");
+    }
+
+    private static JwsHeader header(final String keyId, final String algorithm) {
+        JwsHeader header = Mockito.mock(JwsHeader.class);
+        Mockito.when(header.getKeyId()).thenReturn(keyId);
+        Mockito.when(header.getAlgorithm()).thenReturn(algorithm);
+        return header;
+    }
+
+    private static String withAlgorithm(final String jwk, final String algorithm) {
+        return jwk.replace("\"kid\":", "\"alg\":\"" + algorithm + "\",\"kid\":");
+    }
+
+    @Test
+    public void testParseJwks() throws Exception {
+        KeyPair rsaKeyPair = rsaKeyPair();
+        KeyPair ecKeyPair = ecKeyPair();
+
+        Map<String, RefreshingJwksKeyResolver.JsonWebKey> keys = RefreshingJwksKeyResolver.parseJwks(jwks(
+                rsaJwk("rsa", (RSAPublicKey) rsaKeyPair.getPublic()),
+                ecJwk("ec", (ECPublicKey) ecKeyPair.getPublic()),
+                "{\"kty\":\"RSA\",\"kid\":\"enc\",\"use\":\"enc\",\"n\":\"AQAB\",\"e\":\"AQAB\"}",
+                "{\"kty\":\"EC\",\"kid\":\"bad-curve\",\"crv\":\"P-192\",\"x\":\"AQAB\",\"y\":\"AQAB\"}",
+                "{\"kty\":\"RSA\",\"kid\":\"missing-exponent\",\"n\":\"AQAB\"}",
+                "{\"kty\":\"oct\",\"kid\":\"symmetric\",\"k\":\"AQAB\"}",
+                "{\"kty\":\"RSA\",\"n\":\"AQAB\",\"e\":\"AQAB\"}"));
+
+        assertEquals(keys.size(), 2);
+        assertEquals(keys.get("rsa").publicKey, rsaKeyPair.getPublic());
+        assertNull(keys.get("rsa").algorithm);
+        assertEquals(keys.get("ec").publicKey, ecKeyPair.getPublic());
+        assertNull(keys.get("ec").algorithm);
+
+        assertTrue(RefreshingJwksKeyResolver.parseJwks("{}").isEmpty());
+        try {
+            RefreshingJwksKeyResolver.parseJwks("invalid-json");
+            fail();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Test
+    public void testParseJwksAlgorithm() throws Exception {
+        KeyPair rsaKeyPair = rsaKeyPair();
+        KeyPair ecKeyPair = ecKeyPair();
+        final RSAPublicKey rsaPublicKey = (RSAPublicKey) rsaKeyPair.getPublic();
+        final ECPublicKey ecPublicKey = (ECPublicKey) ecKeyPair.getPublic();
+
+        // keys with an alg we do not support for the key type or
+        // curve are dropped
+
+        Map<String, RefreshingJwksKeyResolver.JsonWebKey> keys = RefreshingJwksKeyResolver.parseJwks(jwks(
+                withAlgorithm(rsaJwk("rs256", rsaPublicKey), "RS256"),
+                withAlgorithm(rsaJwk("ps512", rsaPublicKey), "PS512"),
+                withAlgorithm(ecJwk("es256", ecPublicKey), "ES256"),
+                withAlgorithm(rsaJwk("hs256", rsaPublicKey), "HS256"),
+                withAlgorithm(rsaJwk("rsa-es256", rsaPublicKey), "ES256"),
+                withAlgorithm(ecJwk("es384", ecPublicKey), "ES384"),
+                withAlgorithm(ecJwk("none", ecPublicKey), "none")));
+
+        assertEquals(keys.size(), 3);
+        assertEquals(keys.get("rs256").algorithm, "RS256");
+        assertEquals(keys.get("ps512").algorithm, "PS512");
+        assertEquals(keys.get("es256").algorithm, "ES256");
+        assertEquals(keys.get("es256").publicKey, ecPublicKey);
+    }
+
+    @Test
+    public void testResolveSigningKeyAlgorithm() throws Exception {
+        KeyPair keyPair = ecKeyPair();
+        RefreshingJwksKeyResolver resolver = new RefreshingJwksKeyResolver("https://athenz.io/jwks",
+                () -> jwks(withAlgorithm(ecJwk("k0", (ECPublicKey) keyPair.getPublic()), "ES256"),
+                        ecJwk("k1", (ECPublicKey) keyPair.getPublic())));
+        assertTrue(resolver.refresh());
+
+        // a key with an alg is only returned for tokens signed with it
+
+        Claims claims = Mockito.mock(Claims.class);
+        assertEquals(resolver.resolveSigningKey(header("k0", "ES256"), claims), keyPair.getPublic());
+        assertNull(resolver.resolveSigningKey(header("k0", "RS256"), claims));
+        assertNull(resolver.resolveSigningKey(header("k0", null), claims));
+
+        // without an alg the key is returned and the parser checks the key type
+
+        assertEquals(resolver.resolveSigningKey(header("k1", "ES256"), claims), keyPair.getPublic());
+        assertEquals(resolver.resolveSigningKey(header("k1", "RS256"), claims), keyPair.getPublic());
+
+        // static keys do not carry an alg
+
+        resolver.addPublicKey("static", keyPair.getPublic());
+        assertEquals(resolver.resolveSigningKey(header("static", "ES256"), claims), keyPair.getPublic());
+    }
+
+    @Test
+    public void testRefreshKeepsLastGoodKeys() throws Exception {
+        KeyPair keyPair = ecKeyPair();
+        AtomicReference<String> document = new AtomicReference<>(jwks(ecJwk("k0", (ECPublicKey) keyPair.getPublic())));
+
+        RefreshingJwksKeyResolver resolver = new RefreshingJwksKeyResolver("https://athenz.io/jwks", () -> {
+            final String value = document.get();
+            if (value == null) {
+                throw new IOException("issuer down");
+            }
+            return value;
+        });
+        assertEquals(resolver.getJwksUri(), "https://athenz.io/jwks");
+        assertNull(resolver.getPublicKey("k0"));
+
+        AtomicInteger refreshes = new AtomicInteger();
+        resolver.setRefreshListener((uri, jwks) -> refreshes.incrementAndGet());
+        assertTrue(resolver.refresh());
+        assertEquals(resolver.getPublicKey("k0"), keyPair.getPublic());
+        assertEquals(refreshes.get(), 1);
+
+        // issuer is down or returns no usable keys
+
+        document.set(null);
+        assertFalse(resolver.refresh());
+        document.set("{\"keys\":[]}");
+        assertFalse(resolver.refresh());
+        document.set("invalid-json");
+        assertFalse(resolver.refresh());
+        assertEquals(resolver.getPublicKey("k0"), keyPair.getPublic());
+        assertEquals(refreshes.get(), 1);
+
+        // rotated keys replace the full set
+
+        KeyPair newKeyPair = ecKeyPair();
+        document.set(jwks(ecJwk("k1", (ECPublicKey) newKeyPair.getPublic())));
+        assertTrue(resolver.refresh());
+        assertNull(resolver.getPublicKey("k0"));
+        assertEquals(resolver.getPublicKey("k1"), newKeyPair.getPublic());
+        assertEquals(resolver.getKeyCount(), 1);
+
+        // statically added keys are kept across refreshes
+
+        resolver.addPublicKey("static", keyPair.getPublic());
+        assertTrue(resolver.refresh());
+        assertEquals(resolver.getPublicKey("static"), keyPair.getPublic());
+        resolver.close();
+    }
+
+    @Test
+    public void testUnknownKeyRefreshSingleFlight() throws Exception {
+        final KeyPair keyPair = ecKeyPair();
+        final AtomicInteger fetches = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // the issuer is slow so the initial fetch is still running
+        // when the burst of requests with the new key id arrives
+
+        RefreshingJwksKeyResolver resolver = new RefreshingJwksKeyResolver("https://athenz.io/jwks", () -> {
+            fetches.incrementAndGet();
+            release.await();
+            return jwks(ecJwk("k1", (ECPublicKey) keyPair.getPublic()));
+        });
+        resolver.start(3600, 0.1, 0, 10000);
+
+        final Claims claims = Mockito.mock(Claims.class);
+        List<Thread> threads = new ArrayList<>();
+        List<Object> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                Object key = resolver.resolveSigningKey(header("k1"), claims);
+                synchronized (results) {
+                    results.add(key);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // the initial fetch and a single fetch for the unknown key
+
+        assertEquals(fetches.get(), 2);
+        assertEquals(results.size(), 8);
+        for (Object key : results) {
+            assertEquals(key, keyPair.getPublic());
+        }
+        resolver.close();
+    }
+
+    @Test
+    public void testUnknownKeyRefreshRateLimited() throws Exception {
+        KeyPair keyPair = ecKeyPair();
+        AtomicInteger fetches = new AtomicInteger();
+        RefreshingJwksKeyResolver resolver = new RefreshingJwksKeyResolver("https://athenz.io/jwks", () -> {
+            fetches.incrementAndGet();
+            return jwks(ecJwk("k0", (ECPublicKey) keyPair.getPublic()));
+        });
+        resolver.start(3600, 0.1, 3600, 1000);
+        while (resolver.getKeyCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        // the initial refresh counts as the last unknown key refresh
+        // so unknown key ids do not trigger any more fetches
+
+        Claims claims = Mockito.mock(Claims.class);
+        for (int i = 0; i < 10; i++) {
+            assertNull(resolver.resolveSigningKey(header("unknown-" + i), claims));
+        }
+        assertEquals(resolver.resolveSigningKey(header("k0"), claims), keyPair.getPublic());
+        assertNull(resolver.resolveSigningKey(header(null), claims));
+        assertEquals(fetches.get(), 1);
+        resolver.close();
+        resolver.close();
+    }
+
+    @Test
+    public void testUnknownKeyRefreshWithoutScheduler() throws Exception {
+        KeyPair keyPair = ecKeyPair();
+        AtomicInteger fetches = new AtomicInteger();
+        RefreshingJwksKeyResolver resolver = new RefreshingJwksKeyResolver("https://athenz.io/jwks", () -> {
+            fetches.incrementAndGet();
+            return jwks(ecJwk("k0", (ECPublicKey) keyPair.getPublic()));
+        });
+
+        // without the background thread we never fetch on the request thread
+
+        assertNull(resolver.resolveSigningKey(header("k0"), Mockito.mock(Claims.class)));
+        assertFalse(resolver.refreshForUnknownKey());
+        assertEquals(fetches.get(), 0);
+    }
+
+    @Test
+    public void testUnknownKeyRefreshRejected() throws Exception {
+        KeyPair keyPair = ecKeyPair();
+        AtomicInteger fetches = new AtomicInteger();
+        RefreshingJwksKeyResolver resolver = new RefreshingJwksKeyResolver("https://athenz.io/jwks", () -> {
+            fetches.incrementAndGet();
+            return jwks(ecJwk("k0", (ECPublicKey) keyPair.getPublic()));
+        });
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        resolver.start(scheduler, 3600, 0.1, 0, 1000);
+        while (resolver.getKeyCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        // the shared scheduler is shut down so the refresh is rejected
+        // and must not fall back to running on the request thread
+
+        scheduler.shutdownNow();
+        Claims claims = Mockito.mock(Claims.class);
+        assertNull(resolver.resolveSigningKey(header("k1"), claims));
+        assertNull(resolver.resolveSigningKey(header("k1"), claims));
+        assertEquals(resolver.resolveSigningKey(header("k0"), claims), keyPair.getPublic());
+        assertEquals(fetches.get(), 1);
+        resolver.close();
+    }
+
+    @Test
+    public void testSetJwksUri() throws Exception {
+        KeyPair keyPair = ecKeyPair();
+        KeyPair newKeyPair = ecKeyPair();
+        RefreshingJwksKeyResolver resolver = new RefreshingJwksKeyResolver("https://athenz.io/jwks",
+                () -> jwks(ecJwk("k0", (ECPublicKey) keyPair.getPublic())));
+
+        // without the background thread we only switch the uri
+
+        resolver.setJwksUri("https://athenz.io/jwks2", () -> jwks(ecJwk("k1", (ECPublicKey) newKeyPair.getPublic())));
+        assertEquals(resolver.getJwksUri(), "https://athenz.io/jwks2");
+        assertEquals(resolver.getKeyCount(), 0);
+
+        // with the background thread the keys from the new uri are loaded
+
+        resolver.start(3600, 0.1, 30, 1000);
+        while (resolver.getPublicKey("k1") == null) {
+            Thread.sleep(10);
+        }
+        resolver.setJwksUri("https://athenz.io/jwks3", () -> jwks(ecJwk("k0", (ECPublicKey) keyPair.getPublic())));
+        while (resolver.getPublicKey("k0") == null) {
+            Thread.sleep(10);
+        }
+        assertNull(resolver.getPublicKey("k1"));
+        resolver.close();
+
+        // a closed resolver ignores the refresh request
+
+        resolver.setJwksUri("https://athenz.io/jwks4", () -> null);
+        assertEquals(resolver.getJwksUri(), "https://athenz.io/jwks4");
+    }
+
+    @Test
+    public void testNextRefreshDelay() {
+        RefreshingJwksKeyResolver resolver = new RefreshingJwksKeyResolver("https://athenz.io/jwks", () -> null);
+        resolver.start(100, 0.2, 30, 1000);
+        for (int i = 0; i < 100; i++) {
+            long delay = resolver.nextRefreshDelay();
+            assertTrue(delay >= 80000 && delay <= 120000, "delay: " + delay);
+        }
+        resolver.close();
+    }
+
+    @Test
+    public void testHttpFetcher() {
+        assertNotNull(RefreshingJwksKeyResolver.httpFetcher("https://athenz.io/jwks", null));
+    }
+
+    @Test
+    public void testReadJwks() throws Exception {
+        final String jwks = jwks(ecJwk("k0", (ECPublicKey) ecKeyPair().getPublic()));
+        assertEquals(RefreshingJwksKeyResolver.readJwks(new ByteArrayInputStream(
+                jwks.getBytes(StandardCharsets.UTF_8)), "https://athenz.io/jwks"), jwks);
+
+        byte[] data = new byte[RefreshingJwksKeyResolver.MAX_JWKS_SIZE];
+        Arrays.fill(data, (byte) ' ');
+        assertEquals(RefreshingJwksKeyResolver.readJwks(new ByteArrayInputStream(data),
+                "https://athenz.io/jwks").length(), RefreshingJwksKeyResolver.MAX_JWKS_SIZE);
+
+        // anything over the limit is rejected
+
+        try {
+            RefreshingJwksKeyResolver.readJwks(new ByteArrayInputStream(
+                    new byte[RefreshingJwksKeyResolver.MAX_JWKS_SIZE + 1]), "https://athenz.io/jwks");
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("exceeds"));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.testng.annotations.Test;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.testng.Assert.*;
+
+public class RejectionLogTest {
+
+    private static final ProviderRejectionException SAN_IP_NOT_ALLOWED = new ProviderRejectionException(
+            ProviderRejectionException.Reason.SAN_IP_NOT_ALLOWED, "Request must not have any sanIP addresses");
+    private static final ProviderRejectionException INVALID_SAN_DNS = new ProviderRejectionException(
+            ProviderRejectionException.Reason.INVALID_SAN_DNS, "Unable to validate certificate request sanDNS entries");
+
+    @Test
+    public void testSampledPerReason() {
+        Logger logger = Mockito.mock(Logger.class);
+        RejectionLog log = new RejectionLog(logger, 10);
+        final long now = System.currentTimeMillis();
+
+        // the first rejection for each reason is logged right away
+
+        assertTrue(log.record(SAN_IP_NOT_ALLOWED, now));
+        assertTrue(log.record(INVALID_SAN_DNS, now));
+        Mockito.verify(logger).error("Request must not have any sanIP addresses");
+        Mockito.verify(logger).error("Unable to validate certificate request sanDNS entries");
+
+        // the rest are only counted until the interval expires
+
+        assertFalse(log.record(SAN_IP_NOT_ALLOWED, now + 1000));
+        assertFalse(log.record(SAN_IP_NOT_ALLOWED, now + 2000));
+        assertFalse(log.record(INVALID_SAN_DNS, now + 9999));
+        Mockito.verify(logger, Mockito.times(2)).error(anyString());
+
+        assertTrue(log.record(SAN_IP_NOT_ALLOWED, now + 10000));
+        Mockito.verify(logger).error(anyString(), eq("Request must not have any sanIP addresses"),
+                eq(2L), eq(ProviderRejectionException.Reason.SAN_IP_NOT_ALLOWED));
+
+        // after a quiet period the rejection is logged on its own again
+
+        assertTrue(log.record(SAN_IP_NOT_ALLOWED, now + 30000));
+        Mockito.verify(logger, Mockito.times(2)).error("Request must not have any sanIP addresses");
+    }
+
+    @Test
+    public void testNoSampling() {
+        Logger logger = Mockito.mock(Logger.class);
+        RejectionLog log = new RejectionLog(logger, 0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(log.record(SAN_IP_NOT_ALLOWED));
+        }
+        Mockito.verify(logger, Mockito.times(5)).error("Request must not have any sanIP addresses");
+    }
+
+    @Test
+    public void testRejectionException() {
+        ProviderRejectionException ex = new ProviderRejectionException(
+                ProviderRejectionException.Reason.INVALID_ATTESTATION_DATA, "invalid token");
+        assertEquals(ex.getCode(), ProviderRejectionException.FORBIDDEN);
+        assertEquals(ex.getReason(), ProviderRejectionException.Reason.INVALID_ATTESTATION_DATA);
+        assertEquals(ex.getDetail(), "invalid token");
+        assertEquals(ex.getData(), "invalid token");
+        assertEquals(ex.getStackTrace().length, 0);
+    }
+}
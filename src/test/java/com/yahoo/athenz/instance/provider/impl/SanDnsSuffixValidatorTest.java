@@ -0,0 +1,47 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.testng.Assert.*;
+
+public class SanDnsSuffixValidatorTest {
+
+    @Test
+    public void testDnsSuffixesFor() {
+        Set<String> dnsSuffixes = new HashSet<>(Arrays.asList("zts.athenz.cloud", "athenz.io",
+                "us-west-2.zts.athenz.cloud", "athenz..invalid"));
+        SanDnsSuffixValidator validator = new SanDnsSuffixValidator(dnsSuffixes);
+        assertEquals(validator.size(), 3);
+
+        // without names we use all suffixes
+
+        assertEquals(validator.dnsSuffixesFor(null), dnsSuffixes);
+        assertEquals(validator.dnsSuffixesFor(""), dnsSuffixes);
+        assertEquals(validator.dnsSuffixesFor(","), dnsSuffixes);
+
+        assertEquals(validator.dnsSuffixesFor("api.sports.zts.athenz.cloud,inst1.instanceid.athenz.zts.athenz.cloud"),
+                new HashSet<>(Arrays.asList("zts.athenz.cloud")));
+        assertEquals(validator.dnsSuffixesFor("api.sports.us-west-2.zts.athenz.cloud"),
+                new HashSet<>(Arrays.asList("zts.athenz.cloud", "us-west-2.zts.athenz.cloud")));
+        assertEquals(validator.dnsSuffixesFor("api.sports.zts.athenz.cloud,api.sports.athenz.io"),
+                new HashSet<>(Arrays.asList("zts.athenz.cloud", "athenz.io")));
+        assertEquals(validator.dnsSuffixesFor("api.sports.us-west-2.zts.athenz.cloud,api.sports.zts.athenz.cloud"),
+                new HashSet<>(Arrays.asList("zts.athenz.cloud", "us-west-2.zts.athenz.cloud")));
+
+        // trailing empty entries are ignored as with String.split
+
+        assertEquals(validator.dnsSuffixesFor("api.sports.athenz.io,,"),
+                new HashSet<>(Arrays.asList("athenz.io")));
+
+        // any name outside of our suffixes or an empty entry is rejected
+
+        assertNull(validator.dnsSuffixesFor("api.sports.zts.athenz.cloud,host1.athenz.cloud"));
+        assertNull(validator.dnsSuffixesFor("zts.athenz.cloud"));
+        assertNull(validator.dnsSuffixesFor("api.sports.athenz.io,,api.sports.athenz.io"));
+        assertNull(validator.dnsSuffixesFor(",api.sports.athenz.io"));
+    }
+}
@@ -0,0 +1,98 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+public class SanUriScannerTest {
+
+    private static final String[] PREFIXES = { "spiffe://", "athenz://instanceid/" };
+    private static final String HOSTNAME_PREFIX = "athenz://hostname/";
+
+    @Test
+    public void testFindUnsupportedUri() {
+        assertEquals(SanUriScanner.findUnsupportedUri("spiffe://ns/sa/api", PREFIXES), -1);
+        assertEquals(SanUriScanner.findUnsupportedUri("spiffe://ns/sa/api,athenz://instanceid/id1", PREFIXES), -1);
+        assertEquals(SanUriScanner.findUnsupportedUri("spiffe://ns/sa/api,https://athenz.io", PREFIXES), 19);
+        assertEquals(SanUriScanner.findUnsupportedUri("spiffe:/", PREFIXES), 0);
+
+        // trailing empty entries are ignored while others are not
+
+        assertEquals(SanUriScanner.findUnsupportedUri("spiffe://ns/sa/api,,", PREFIXES), -1);
+        assertEquals(SanUriScanner.findUnsupportedUri(",", PREFIXES), -1);
+        assertEquals(SanUriScanner.findUnsupportedUri("spiffe://ns/sa/api,,spiffe://ns", PREFIXES), 19);
+        assertEquals(SanUriScanner.findUnsupportedUri(",spiffe://ns", PREFIXES), 0);
+    }
+
+    @Test
+    public void testFindHostnameMismatch() {
+        assertEquals(SanUriScanner.findHostnameMismatch("athenz://hostname/abc.athenz.com",
+                HOSTNAME_PREFIX, "abc.athenz.com"), -1);
+        assertEquals(SanUriScanner.findHostnameMismatch("spiffe://ns/sa/api,athenz://hostname/abc.athenz.com",
+                HOSTNAME_PREFIX, "abc.athenz.com"), -1);
+        assertEquals(SanUriScanner.findHostnameMismatch("spiffe://ns/sa/api,athenz://hostname/abc.athenz.com",
+                HOSTNAME_PREFIX, "abc.athenz.co"), 19);
+        assertEquals(SanUriScanner.findHostnameMismatch("athenz://hostname/abc.athenz.com",
+                HOSTNAME_PREFIX, "ABC.athenz.com"), 0);
+        assertEquals(SanUriScanner.findHostnameMismatch("athenz://hostname/abc.athenz.com",
+                HOSTNAME_PREFIX, null), 0);
+        assertEquals(SanUriScanner.findHostnameMismatch("spiffe://ns/sa/api",
+                HOSTNAME_PREFIX, null), -1);
+        assertEquals(SanUriScanner.findHostnameMismatch("athenz://hostname/",
+                HOSTNAME_PREFIX, ""), -1);
+    }
+
+    @Test
+    public void testRandomized() {
+
+        // compare the scanner with the split based checks that the
+        // providers used before for random lists of uris
+
+        final List<String> parts = Arrays.asList("spiffe://", "athenz://instanceid/", HOSTNAME_PREFIX,
+                "athenz://", "https://", "abc.athenz.com", "abc", "/", ",", ",,", "");
+        Random random = new Random(17);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder value = new StringBuilder();
+            final int count = 1 + random.nextInt(8);
+            for (int j = 0; j < count; j++) {
+                value.append(parts.get(random.nextInt(parts.size())));
+            }
+            final String sanUri = value.toString();
+
+            // the providers never scan empty values
+
+            if (sanUri.isEmpty()) {
+                continue;
+            }
+            final String hostname = random.nextInt(10) == 0 ? null : "abc.athenz.com";
+
+            assertEquals(SanUriScanner.findUnsupportedUri(sanUri, PREFIXES) == -1,
+                    splitSupported(sanUri), sanUri);
+            assertEquals(SanUriScanner.findHostnameMismatch(sanUri, HOSTNAME_PREFIX, hostname) == -1,
+                    splitHostnameMatch(sanUri, hostname), sanUri + " " + hostname);
+        }
+    }
+
+    private static boolean splitSupported(final String sanUri) {
+        for (String uri : sanUri.split(",")) {
+            if (!uri.startsWith(PREFIXES[0]) && !uri.startsWith(PREFIXES[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean splitHostnameMatch(final String sanUri, final String hostname) {
+        for (String uri : sanUri.split(",")) {
+            int idx = uri.indexOf(HOSTNAME_PREFIX);
+            if (idx != -1 && !uri.substring(idx + HOSTNAME_PREFIX.length()).equals(hostname)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
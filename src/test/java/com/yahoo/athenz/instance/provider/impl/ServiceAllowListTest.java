@@ -0,0 +1,42 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+public class ServiceAllowListTest {
+
+    @Test
+    public void testParse() {
+        ServiceAllowList allowList = ServiceAllowList.parse("sports.api,athenz.prod.backend,sports.backend");
+        assertEquals(allowList.size(), 3);
+
+        assertTrue(allowList.contains("sports", "api"));
+        assertTrue(allowList.contains("sports", "backend"));
+        assertTrue(allowList.contains("athenz.prod", "backend"));
+        assertFalse(allowList.contains("athenz", "prod.backend"));
+        assertFalse(allowList.contains("athenz.prod", "api"));
+        assertFalse(allowList.contains("weather", "api"));
+        assertFalse(allowList.contains("sports", null));
+        assertFalse(allowList.contains(null, "api"));
+    }
+
+    @Test
+    public void testParseFileContents() {
+        ServiceAllowList allowList = ServiceAllowList.parse("# onboarded services\n"
+                + "sports.api, sports.api\n\n  weather.api\r\n# athenz.api\ninvalid,.api,athenz.,\n");
+        assertEquals(allowList.size(), 2);
+        assertTrue(allowList.contains("sports", "api"));
+        assertTrue(allowList.contains("weather", "api"));
+        assertFalse(allowList.contains("athenz", "api"));
+        assertFalse(allowList.contains("", "api"));
+    }
+
+    @Test
+    public void testParseEmpty() {
+        assertEquals(ServiceAllowList.parse(null).size(), 0);
+        assertEquals(ServiceAllowList.parse("").size(), 0);
+        assertEquals(ServiceAllowList.parse("# comment only\n").size(), 0);
+        assertFalse(ServiceAllowList.parse("").contains("sports", "api"));
+    }
+}
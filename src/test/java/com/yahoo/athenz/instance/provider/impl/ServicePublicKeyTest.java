@@ -0,0 +1,55 @@
+package com.yahoo.athenz.instance.provider.impl;
+
+import org.testng.annotations.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.testng.Assert.*;
+
+public class ServicePublicKeyTest {
+
+    private static final byte[] DER = "test public key der bytes".getBytes(StandardCharsets.UTF_8);
+
+    private static String pem(final String lineSeparator) {
+        final String encoded = Base64.getMimeEncoder(16, lineSeparator.getBytes(StandardCharsets.UTF_8))
+                .encodeToString(DER);
+        return "-----BEGIN PUBLIC KEY-----" + lineSeparator + encoded + lineSeparator
+                + "-----END PUBLIC KEY-----" + lineSeparator;
+    }
+
+    @Test
+    public void testDecodePem() {
+        assertEquals(ServicePublicKey.decodePem(pem("\n")), DER);
+        assertEquals(ServicePublicKey.decodePem(pem("\r\n")), DER);
+        assertEquals(ServicePublicKey.decodePem(pem(" \t ")), DER);
+
+        assertNull(ServicePublicKey.decodePem(null));
+        assertNull(ServicePublicKey.decodePem("publicKey"));
+        assertNull(ServicePublicKey.decodePem("-----BEGIN PUBLIC KEY"));
+        assertNull(ServicePublicKey.decodePem("-----BEGIN PUBLIC KEY-----\nabcd"));
+        assertNull(ServicePublicKey.decodePem("-----BEGIN PUBLIC KEY-----\n\n-----END PUBLIC KEY-----"));
+        assertNull(ServicePublicKey.decodePem("-----BEGIN PUBLIC KEY-----\nab$d\n-----END PUBLIC KEY-----"));
+        assertNull(ServicePublicKey.decodePem("-----BEGIN PUBLIC KEY-----\nab\u00e9d\n-----END PUBLIC KEY-----"));
+    }
+
+    @Test
+    public void testMatches() {
+        ServicePublicKey publicKey = new ServicePublicKey(pem("\n"));
+        assertEquals(publicKey.der, DER);
+        assertEquals(publicKey.digest.length, 32);
+        assertEquals(publicKey.fingerprint().length(), 64);
+
+        assertTrue(publicKey.matches(pem("\r\n")));
+        assertFalse(publicKey.matches(null));
+        assertFalse(publicKey.matches("publicKey"));
+        assertFalse(publicKey.matches(pem("\n").replace("dGVz", "dGVa")));
+
+        // keys that can't be decoded never match
+
+        ServicePublicKey invalidKey = new ServicePublicKey("publicKey");
+        assertNull(invalidKey.der);
+        assertNull(invalidKey.fingerprint());
+        assertFalse(invalidKey.matches("publicKey"));
+    }
+}